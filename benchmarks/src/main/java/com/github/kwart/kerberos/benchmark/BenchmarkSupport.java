@@ -0,0 +1,147 @@
+package com.github.kwart.kerberos.benchmark;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import javax.security.auth.Subject;
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.PasswordCallback;
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.AppConfigurationEntry.LoginModuleControlFlag;
+import javax.security.auth.login.Configuration;
+import javax.security.auth.login.LoginContext;
+import javax.security.auth.login.LoginException;
+
+import com.github.kwart.kerberos.KerberosOptions;
+
+/**
+ * Helper methods shared by the benchmarks.
+ *
+ * @author Josef Cacek
+ */
+final class BenchmarkSupport {
+
+    static final String REALM = KerberosOptions.DEFAULT_KERBEROS_REALM;
+    static final String HOST = "127.0.0.1";
+    static final String BASE_DN = "dc=kerberos,dc=example";
+
+    private static final String JAAS_NAME = "kerberos-server-benchmark";
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Returns server options with free ports and the loopback bind address.
+     */
+    static KerberosOptions newOptions() throws IOException {
+        KerberosOptions options = new KerberosOptions();
+        options.setBindAddress(HOST);
+        options.setLdapPort(freePort());
+        options.setKerberosPort(freePort());
+        return options;
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    /**
+     * Configures the JDK Kerberos client (krb5.conf and JAAS) to use the KDC on the given port. It has to be called before
+     * the first Kerberos operation in the JVM (including the {@link com.github.kwart.kerberos.KerberosServer} creation).
+     */
+    static void configureKerberosClient(int kdcPort) throws IOException {
+        File krb5Conf = File.createTempFile("krb5", ".conf");
+        krb5Conf.deleteOnExit();
+        String content = "[libdefaults]\n" //
+                + "    default_realm = " + REALM + "\n" //
+                + "    default_tgs_enctypes = aes128-cts-hmac-sha1-96 aes256-cts-hmac-sha1-96\n" //
+                + "    default_tkt_enctypes = aes128-cts-hmac-sha1-96 aes256-cts-hmac-sha1-96\n" //
+                + "    kdc_timeout = 5000\n" //
+                + "    dns_lookup_realm = false\n" //
+                + "    dns_lookup_kdc = false\n" //
+                + "    dns_canonicalize_hostname = false\n" //
+                + "    rdns = false\n" //
+                + "\n" //
+                + "[realms]\n" //
+                + "    " + REALM + " = {\n" //
+                + "        kdc = " + HOST + ":" + kdcPort + "\n" //
+                + "    }\n";
+        Files.write(krb5Conf.toPath(), content.getBytes(UTF_8));
+        System.setProperty("java.security.krb5.conf", krb5Conf.getAbsolutePath());
+        Configuration.setConfiguration(new Configuration() {
+            @Override
+            public AppConfigurationEntry[] getAppConfigurationEntry(String name) {
+                Map<String, String> options = new HashMap<>();
+                options.put("storeKey", "false");
+                return new AppConfigurationEntry[] { new AppConfigurationEntry(
+                        "com.sun.security.auth.module.Krb5LoginModule", LoginModuleControlFlag.REQUIRED, options) };
+            }
+        });
+    }
+
+    /**
+     * Authenticates the given principal (AS-REQ) and returns the Subject with the TGT.
+     */
+    static Subject login(final String principal, final String password) throws LoginException {
+        LoginContext lc = new LoginContext(JAAS_NAME, callbacks -> {
+            for (Callback callback : callbacks) {
+                if (callback instanceof NameCallback) {
+                    ((NameCallback) callback).setName(principal);
+                } else if (callback instanceof PasswordCallback) {
+                    ((PasswordCallback) callback).setPassword(password.toCharArray());
+                }
+            }
+        });
+        lc.login();
+        return lc.getSubject();
+    }
+
+    static LdapContext ldapContext(int port, String bindDn, String password) throws NamingException {
+        Properties env = new Properties();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+        env.put(Context.SECURITY_AUTHENTICATION, "simple");
+        env.put(Context.PROVIDER_URL, "ldap://" + HOST + ":" + port);
+        env.put(Context.SECURITY_PRINCIPAL, bindDn);
+        env.put(Context.SECURITY_CREDENTIALS, password);
+        return new InitialLdapContext(env, null);
+    }
+
+    /**
+     * Generates an LDIF with the base entries and given number of users with Kerberos principals.
+     */
+    static File generateLdif(int users) throws IOException {
+        File ldif = File.createTempFile("users", ".ldif");
+        ldif.deleteOnExit();
+        StringBuilder sb = new StringBuilder();
+        sb.append("dn: ").append(BASE_DN).append("\n") //
+                .append("dc: kerberos\nobjectClass: top\nobjectClass: domain\n\n") //
+                .append("dn: ou=Users,").append(BASE_DN).append("\n") //
+                .append("objectClass: organizationalUnit\nobjectClass: top\nou: Users\n\n");
+        for (int i = 0; i < users; i++) {
+            String uid = "user" + i;
+            sb.append("dn: uid=").append(uid).append(",ou=Users,").append(BASE_DN).append("\n") //
+                    .append("objectClass: top\nobjectClass: person\nobjectClass: inetOrgPerson\n") //
+                    .append("objectClass: krb5principal\nobjectClass: krb5kdcentry\n") //
+                    .append("cn: ").append(uid).append("\nsn: ").append(uid).append("\nuid: ").append(uid).append("\n") //
+                    .append("userPassword: ").append(uid).append("-secret\n") //
+                    .append("krb5PrincipalName: ").append(uid).append("@${realm}\n") //
+                    .append("krb5KeyVersionNumber: 0\n\n");
+        }
+        Files.write(ldif.toPath(), sb.toString().getBytes(UTF_8));
+        return ldif;
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.kwart.kerberos.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.kerberos.KeyDerivationInterceptor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.kwart.kerberos.BulkKeyDerivationInterceptor;
+import com.github.kwart.kerberos.InMemoryDirectoryServiceFactory;
+import com.github.kwart.kerberos.LdifImporter;
+import com.github.kwart.kerberos.LdifImporter.ImportStats;
+import com.github.kwart.kerberos.ParallelKeyDerivation;
+
+/**
+ * LDIF import throughput. Each iteration imports a generated LDIF with Kerberos principals into a fresh directory service
+ * (configured the same way as in the {@link com.github.kwart.kerberos.KerberosServer}).
+ *
+ * @author Josef Cacek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ImportBenchmark {
+
+    @Param({ "1000" })
+    public int entries;
+
+    /**
+     * Number of key derivation threads, 0 means the keys are derived by the interceptor chain.
+     */
+    @Param({ "0", "1", "4" })
+    public int keyDerivationThreads;
+
+    private File ldifFile;
+    private DirectoryService directoryService;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception {
+        ldifFile = BenchmarkSupport.generateLdif(entries);
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() throws Exception {
+        InMemoryDirectoryServiceFactory dsFactory = new InMemoryDirectoryServiceFactory();
+        dsFactory.init("ds");
+        directoryService = dsFactory.getDirectoryService();
+        KeyDerivationInterceptor keyDerivationInterceptor = new BulkKeyDerivationInterceptor();
+        keyDerivationInterceptor.init(directoryService);
+        directoryService.addLast(keyDerivationInterceptor);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws Exception {
+        directoryService.shutdown();
+    }
+
+    @Benchmark
+    public ImportStats importLdif() throws Exception {
+        LdifImporter importer = new LdifImporter(directoryService,
+                Collections.singletonMap("realm", BenchmarkSupport.REALM));
+        if (keyDerivationThreads <= 0) {
+            return importer.importLdif(Files.newInputStream(ldifFile.toPath()), ldifFile.getName());
+        }
+        try (ParallelKeyDerivation keyDerivation = new ParallelKeyDerivation(keyDerivationThreads)) {
+            importer.setKeyDerivation(keyDerivation);
+            return importer.importLdif(Files.newInputStream(ldifFile.toPath()), ldifFile.getName());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.kwart.kerberos.benchmark;
+
+import java.security.PrivilegedExceptionAction;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosTicket;
+
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.GSSName;
+import org.ietf.jgss.Oid;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.kwart.kerberos.KerberosOptions;
+import com.github.kwart.kerberos.KerberosServer;
+
+/**
+ * AS-REQ and TGS-REQ round trips against an embedded {@link KerberosServer}. The JDK Kerberos client is used, so the
+ * results include the client side costs too.
+ *
+ * @author Josef Cacek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class KdcBenchmark {
+
+    private static final Oid KRB5_OID;
+
+    static {
+        try {
+            KRB5_OID = new Oid("1.2.840.113554.1.2.2");
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Param({ "false", "true" })
+    public boolean disablePrincipalIndex;
+
+    private KerberosServer kerberosServer;
+    private KerberosTicket tgt;
+    private GSSName serviceName;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        KerberosOptions options = BenchmarkSupport.newOptions();
+        options.setDisablePrincipalIndex(disablePrincipalIndex);
+        BenchmarkSupport.configureKerberosClient(options.getKerberosPort());
+        kerberosServer = new KerberosServer(options);
+        kerberosServer.start();
+        Subject subject = BenchmarkSupport.login("hnelson@" + BenchmarkSupport.REALM, "secret");
+        tgt = subject.getPrivateCredentials(KerberosTicket.class).iterator().next();
+        serviceName = GSSManager.getInstance().createName("hz/" + BenchmarkSupport.HOST + "@" + BenchmarkSupport.REALM,
+                GSSName.NT_USER_NAME);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        kerberosServer.stop();
+    }
+
+    @Benchmark
+    public Subject asReq() throws Exception {
+        return BenchmarkSupport.login("jduke@" + BenchmarkSupport.REALM, "theduke");
+    }
+
+    /**
+     * Requests a service ticket. A new Subject with just the TGT is used for each call, so the service ticket is never
+     * reused from the Subject credentials.
+     */
+    @Benchmark
+    public byte[] tgsReq() throws Exception {
+        Subject subject = new Subject();
+        subject.getPrivateCredentials().add(tgt);
+        return Subject.doAs(subject, (PrivilegedExceptionAction<byte[]>) () -> {
+            GSSContext context = GSSManager.getInstance().createContext(serviceName, KRB5_OID, null,
+                    GSSContext.DEFAULT_LIFETIME);
+            try {
+                return context.initSecContext(new byte[0], 0, 0);
+            } finally {
+                context.dispose();
+            }
+        });
+    }
+}
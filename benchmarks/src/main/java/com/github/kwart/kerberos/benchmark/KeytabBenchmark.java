@@ -0,0 +1,77 @@
+package com.github.kwart.kerberos.benchmark;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.server.kerberos.shared.crypto.encryption.KerberosKeyFactory;
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+import org.apache.directory.shared.kerberos.components.EncryptionKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.kwart.kerberos.CreateKeytab;
+import com.github.kwart.kerberos.KeytabPrincipalPassphrase;
+
+/**
+ * Key derivation and {@link CreateKeytab#createKeytab(java.util.List, File, Set)} for single encryption types.
+ *
+ * @author Josef Cacek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class KeytabBenchmark {
+
+    private static final String PRINCIPAL = "hnelson@" + BenchmarkSupport.REALM;
+    private static final String PASSWORD = "secret";
+
+    @Param({ "des-cbc-md5", "des3-cbc-sha1-kd", "rc4-hmac", "aes128-cts-hmac-sha1-96", "aes256-cts-hmac-sha1-96" })
+    public String encryptionType;
+
+    private Set<EncryptionType> encryptionTypes;
+    private File keytabFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        EncryptionType type = EncryptionType.getByName(encryptionType);
+        if (type == EncryptionType.UNKNOWN) {
+            throw new IllegalArgumentException("Unknown encryption type " + encryptionType);
+        }
+        encryptionTypes = Collections.singleton(type);
+        keytabFile = File.createTempFile("benchmark", ".keytab");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        keytabFile.delete();
+    }
+
+    @Benchmark
+    public Map<EncryptionType, EncryptionKey> deriveKey() {
+        return KerberosKeyFactory.getKerberosKeys(PRINCIPAL, PASSWORD, encryptionTypes);
+    }
+
+    @Benchmark
+    public File createKeytab() throws Exception {
+        CreateKeytab.createKeytab(Collections.singletonList(new KeytabPrincipalPassphrase(PRINCIPAL, PASSWORD)), keytabFile,
+                encryptionTypes);
+        return keytabFile;
+    }
+}
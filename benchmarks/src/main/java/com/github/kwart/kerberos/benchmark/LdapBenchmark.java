@@ -0,0 +1,96 @@
+package com.github.kwart.kerberos.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.kwart.kerberos.KerberosOptions;
+import com.github.kwart.kerberos.KerberosServer;
+
+/**
+ * LDAP simple bind and the <code>(uid=...)</code> search used in the functional test.
+ *
+ * @author Josef Cacek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LdapBenchmark {
+
+    private static final String ADMIN_DN = "uid=admin,ou=system";
+    private static final String ADMIN_PASSWORD = "secret";
+
+    private KerberosServer kerberosServer;
+    private int ldapPort;
+
+    @State(Scope.Thread)
+    public static class Connection {
+        LdapContext ctx;
+
+        @Setup(Level.Trial)
+        public void setup(LdapBenchmark benchmark) throws Exception {
+            ctx = BenchmarkSupport.ldapContext(benchmark.ldapPort, ADMIN_DN, ADMIN_PASSWORD);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            ctx.close();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        KerberosOptions options = BenchmarkSupport.newOptions();
+        ldapPort = options.getLdapPort();
+        kerberosServer = new KerberosServer(options);
+        kerberosServer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        kerberosServer.stop();
+    }
+
+    /**
+     * Opens a new connection, does the simple bind and closes the connection.
+     */
+    @Benchmark
+    public void simpleBind() throws Exception {
+        BenchmarkSupport.ldapContext(ldapPort, ADMIN_DN, ADMIN_PASSWORD).close();
+    }
+
+    @Benchmark
+    public void searchUid(Connection connection, Blackhole blackhole) throws Exception {
+        SearchControls searchControls = new SearchControls();
+        searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        NamingEnumeration<SearchResult> namingEnum = connection.ctx.search(BenchmarkSupport.BASE_DN, "(uid={0})",
+                new Object[] { "jduke" }, searchControls);
+        try {
+            while (namingEnum.hasMore()) {
+                blackhole.consume(namingEnum.next());
+            }
+        } finally {
+            namingEnum.close();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.kwart.kerberos.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.kwart.kerberos.KerberosOptions;
+import com.github.kwart.kerberos.KerberosServer;
+
+/**
+ * Cold start of the {@link KerberosServer} (constructor with the default LDIF import and the {@link KerberosServer#start()}
+ * call). Each fork measures a single start in a fresh JVM.
+ *
+ * @author Josef Cacek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(5)
+public class StartupBenchmark {
+
+    private KerberosOptions options;
+    private KerberosServer kerberosServer;
+
+    @Setup(Level.Iteration)
+    public void setup() throws Exception {
+        options = BenchmarkSupport.newOptions();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        if (kerberosServer != null) {
+            kerberosServer.stop();
+            kerberosServer = null;
+        }
+    }
+
+    @Benchmark
+    public KerberosServer coldStart() throws Exception {
+        kerberosServer = new KerberosServer(options);
+        kerberosServer.start();
+        return kerberosServer;
+    }
+}
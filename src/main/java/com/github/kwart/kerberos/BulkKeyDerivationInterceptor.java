@@ -0,0 +1,51 @@
+package com.github.kwart.kerberos;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.kerberos.KeyDerivationInterceptor;
+import org.apache.directory.shared.kerberos.KerberosAttribute;
+
+/**
+ * {@link KeyDerivationInterceptor} which doesn't derive the keys again for entries already processed by the
+ * {@link ParallelKeyDerivation}. Such entries have to be added by {@link #addWithDerivedKeys(CoreSession, Entry)}; all the
+ * other operations are handled by the original interceptor.
+ *
+ * @author Josef Cacek
+ */
+public class BulkKeyDerivationInterceptor extends KeyDerivationInterceptor {
+
+    private static final ThreadLocal<Boolean> KEYS_DERIVED = new ThreadLocal<>();
+
+    /**
+     * Adds an entry whose <code>krb5Key</code> attribute was already derived by {@link ParallelKeyDerivation}.
+     */
+    public static void addWithDerivedKeys(CoreSession session, Entry entry) throws LdapException {
+        KEYS_DERIVED.set(Boolean.TRUE);
+        try {
+            session.add(entry);
+        } finally {
+            KEYS_DERIVED.remove();
+        }
+    }
+
+    @Override
+    public void add(AddOperationContext addContext) throws LdapException {
+        if (KEYS_DERIVED.get() != null && addContext.getEntry().get(KerberosAttribute.KRB5_KEY_AT) != null) {
+            next(addContext);
+            return;
+        }
+        super.add(addContext);
+    }
+
+    /**
+     * Derives new keys when the password changes. The directory service registers the interceptor only for the operations
+     * declared by its class, so the inherited method has to be declared here too.
+     */
+    @Override
+    public void modify(ModifyOperationContext modifyContext) throws LdapException {
+        super.modify(modifyContext);
+    }
+}
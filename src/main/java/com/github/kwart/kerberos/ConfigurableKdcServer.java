@@ -0,0 +1,154 @@
+package com.github.kwart.kerberos;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.kerberos.KerberosConfig;
+import org.apache.directory.server.kerberos.changepwd.ChangePasswordServer;
+import org.apache.directory.server.kerberos.kdc.DirectoryPrincipalStore;
+import org.apache.directory.server.kerberos.kdc.KdcServer;
+import org.apache.directory.server.kerberos.protocol.KerberosProtocolHandler;
+import org.apache.directory.server.kerberos.protocol.codec.KerberosProtocolCodecFactory;
+import org.apache.directory.server.kerberos.shared.replay.ReplayCache;
+import org.apache.directory.server.kerberos.shared.replay.ReplayCacheImpl;
+import org.apache.directory.server.kerberos.shared.store.PrincipalStore;
+import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.apache.directory.server.protocol.shared.transport.Transport;
+import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
+import org.apache.mina.core.filterchain.IoFilter;
+import org.apache.mina.core.service.IoAcceptor;
+import org.apache.mina.filter.codec.ProtocolCodecFilter;
+import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link KdcServer} which allows to replace the components hardcoded in the original {@link KdcServer#start()} method. The
+ * start sequence is the same as in the original class, but the {@link PrincipalStore} and the {@link ReplayCache} can be
+ * provided by the caller (or the replay cache disabled) and additional filters can be added to the transport filter
+ * chains.
+ *
+ * @author Josef Cacek
+ */
+public class ConfigurableKdcServer extends KdcServer {
+
+    private static final long serialVersionUID = 1L;
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ConfigurableKdcServer.class);
+
+    private transient PrincipalStore principalStore;
+    private transient ReplayCache configuredReplayCache;
+    private boolean replayCacheDisabled;
+    private transient ReplayCache replayCache;
+    private final transient Map<String, Function<Transport, ? extends IoFilter>> filterFactories = new LinkedHashMap<>();
+
+    public ConfigurableKdcServer() {
+        super();
+    }
+
+    public ConfigurableKdcServer(KerberosConfig config) {
+        super(config);
+    }
+
+    /**
+     * Sets the principal store used by the KDC. The {@link DirectoryPrincipalStore} is used when no store is set.
+     */
+    public void setPrincipalStore(PrincipalStore principalStore) {
+        this.principalStore = principalStore;
+    }
+
+    public PrincipalStore getPrincipalStore() {
+        return principalStore;
+    }
+
+    /**
+     * Sets the replay cache used by the KDC. The {@link ReplayCacheImpl} (ehcache based) is used when no cache is set.
+     */
+    public void setReplayCache(ReplayCache replayCache) {
+        this.configuredReplayCache = replayCache;
+    }
+
+    /**
+     * Disables the replay cache, i.e. the authenticators in TGS requests are not checked for replays.
+     */
+    public void setReplayCacheDisabled(boolean replayCacheDisabled) {
+        this.replayCacheDisabled = replayCacheDisabled;
+    }
+
+    public boolean isReplayCacheDisabled() {
+        return replayCacheDisabled;
+    }
+
+    /**
+     * Adds a filter to the chain of each transport. The filters are placed after the codec filter (in the order of adding),
+     * so they work with the decoded Kerberos messages. It has to be called before the {@link #start()}.
+     *
+     * @param name filter name
+     * @param filterFactory creates the filter instance for the given transport
+     */
+    public void addFilter(String name, Function<Transport, ? extends IoFilter> filterFactory) {
+        filterFactories.put(name, filterFactory);
+    }
+
+    @Override
+    public ReplayCache getReplayCache() {
+        return replayCache;
+    }
+
+    @Override
+    public void start() throws IOException, LdapInvalidDnException {
+        PrincipalStore store = principalStore;
+        if (store == null) {
+            store = new DirectoryPrincipalStore(getDirectoryService(), new Dn(getSearchBaseDn()));
+        }
+
+        if (replayCacheDisabled) {
+            LOGGER.info("The kerberos replay cache is disabled");
+            replayCache = null;
+        } else if (configuredReplayCache != null) {
+            replayCache = configuredReplayCache;
+        } else {
+            LOGGER.debug("initializing the kerberos replay cache");
+            replayCache = new ReplayCacheImpl(getDirectoryService().getCacheService().getCache("kdcReplayCache"),
+                    getConfig().getAllowableClockSkew());
+        }
+
+        for (Transport transport : getTransports()) {
+            IoAcceptor acceptor = transport.getAcceptor();
+            DefaultIoFilterChainBuilder chainBuilder = new DefaultIoFilterChainBuilder();
+            if (transport instanceof TcpTransport) {
+                acceptor.setCloseOnDeactivation(false);
+                ((NioSocketAcceptor) acceptor).getSessionConfig().setTcpNoDelay(true);
+                ((NioSocketAcceptor) acceptor).setReuseAddress(true);
+            }
+            chainBuilder.addFirst("codec", new ProtocolCodecFilter(KerberosProtocolCodecFactory.getInstance()));
+            for (Map.Entry<String, Function<Transport, ? extends IoFilter>> entry : filterFactories.entrySet()) {
+                chainBuilder.addLast(entry.getKey(), entry.getValue().apply(transport));
+            }
+            acceptor.setFilterChainBuilder(chainBuilder);
+            acceptor.setHandler(new KerberosProtocolHandler(this, store));
+            acceptor.bind();
+        }
+
+        LOGGER.info("Kerberos service started.");
+
+        ChangePasswordServer changePwdServer = getChangePwdServer();
+        if (changePwdServer != null) {
+            changePwdServer.setSearchBaseDn(getSearchBaseDn());
+            changePwdServer.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        if (replayCache != null) {
+            replayCache.clear();
+            replayCache = null;
+        }
+    }
+}
@@ -1,17 +1,29 @@
 package com.github.kwart.kerberos;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.kerberos.shared.crypto.encryption.KerberosKeyFactory;
-import org.apache.directory.server.kerberos.shared.keytab.Keytab;
-import org.apache.directory.server.kerberos.shared.keytab.KeytabEntry;
-import org.apache.directory.shared.kerberos.KerberosTime;
+import org.apache.directory.shared.kerberos.KerberosAttribute;
 import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
-import org.apache.directory.shared.kerberos.components.EncryptionKey;
+
+import com.beust.jcommander.JCommander;
 
 /**
  * Helper utility for creating Keytab files.
@@ -27,12 +39,16 @@ public class CreateKeytab {
      * @throws IOException
      */
     public static void main(String[] args) throws IOException {
-        if (args == null || args.length < 3 || args.length % 2 != 1) {
+        if (args != null && args.length > 0 && args[0].startsWith("-")) {
+            bulkMain(args);
+        } else if (args == null || args.length < 3 || args.length % 2 != 1) {
             System.out.println("Kerberos keytab generator");
             System.out.println("-------------------------");
             System.out.println("Usage:");
             System.out.println("java -classpath kerberos-server.jar " + CreateKeytab.class.getName()
                     + " <principalName> <passPhrase> [<principalName2> <passPhrase2> ...] <outputKeytabFile>");
+            System.out.println("java -classpath kerberos-server.jar " + CreateKeytab.class.getName()
+                    + " [bulk mode options, use --help to list them]");
         } else {
             final File keytabFile = new File(args[args.length - 1]);
             final List<KeytabPrincipalPassphrase> keytabUsers = new ArrayList<KeytabPrincipalPassphrase>();
@@ -47,6 +63,108 @@ public class CreateKeytab {
         }
     }
 
+    /**
+     * The bulk mode reads the principals from files and streams the entries to the keytab.
+     */
+    private static void bulkMain(String[] args) throws IOException {
+        CreateKeytabOptions opts = new CreateKeytabOptions();
+        JCommander jcmd = JCommander.newBuilder()
+                .programName("java -classpath kerberos-server.jar " + CreateKeytab.class.getName()).addObject(opts).build();
+        jcmd.parse(args);
+        if (opts.isHelp()) {
+            jcmd.usage();
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        try (KeytabWriter keytabWriter = new KeytabWriter(opts.getOutput(),
+                parseEncryptionTypes(opts.getEncryptionTypes()), opts.getThreads())) {
+            for (String principal : opts.getPrincipals()) {
+                int pos = principal.indexOf('=');
+                if (pos < 0) {
+                    throw new IllegalArgumentException("Principal has to be in format principal=password: " + principal);
+                }
+                keytabWriter.add(new KeytabPrincipalPassphrase(principal.substring(0, pos), principal.substring(pos + 1)));
+            }
+            if (opts.getPrincipalsFile() != null) {
+                addPrincipalsFile(keytabWriter, opts.getPrincipalsFile());
+            }
+            for (File ldifFile : opts.getLdifFiles()) {
+                addLdif(keytabWriter, ldifFile);
+            }
+            keytabWriter.flush();
+            System.out.println("Keytab file was created: " + opts.getOutput().getAbsolutePath() + " ("
+                    + keytabWriter.getPrincipalCount() + " principals, " + keytabWriter.getEntryCount() + " keys in "
+                    + (System.currentTimeMillis() - startTime) + "ms)");
+        }
+    }
+
+    /**
+     * Parses the encryption type names, an empty list means all the default types.
+     */
+    static Set<EncryptionType> parseEncryptionTypes(List<String> names) {
+        if (names == null || names.isEmpty()) {
+            return KerberosKeyFactory.DEFAULT_CIPHERS.keySet();
+        }
+        Set<EncryptionType> result = new HashSet<>();
+        for (String name : names) {
+            for (String part : name.split(",")) {
+                EncryptionType encryptionType = EncryptionType.getByName(part.trim());
+                if (!KerberosKeyFactory.DEFAULT_CIPHERS.containsKey(encryptionType)) {
+                    throw new IllegalArgumentException("Unsupported encryption type: " + part + " (supported: "
+                            + getEncryptionTypeNames() + ")");
+                }
+                result.add(encryptionType);
+            }
+        }
+        return result;
+    }
+
+    private static List<String> getEncryptionTypeNames() {
+        List<String> names = new ArrayList<>();
+        for (EncryptionType encryptionType : KerberosKeyFactory.DEFAULT_CIPHERS.keySet()) {
+            names.add(encryptionType.getName());
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static void addPrincipalsFile(KeytabWriter keytabWriter, File principalsFile) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(principalsFile.toPath(), UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+", 2);
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Principal line has to be in format 'principal password': " + line);
+                }
+                keytabWriter.add(new KeytabPrincipalPassphrase(parts[0], parts[1]));
+            }
+        }
+    }
+
+    private static void addLdif(KeytabWriter keytabWriter, File ldifFile) throws IOException {
+        try (LdifReader ldifReader = new LdifReader(Files.newBufferedReader(ldifFile.toPath(), UTF_8))) {
+            for (LdifEntry ldifEntry : ldifReader) {
+                Attribute principalName = ldifEntry.get(KerberosAttribute.KRB5_PRINCIPAL_NAME_AT);
+                Attribute password = ldifEntry.get(SchemaConstants.USER_PASSWORD_AT);
+                if (ldifEntry.isEntry() && principalName != null && password != null) {
+                    Value<?> value = password.get();
+                    keytabWriter.add(new KeytabPrincipalPassphrase(principalName.getString(),
+                            value.isHumanReadable() ? value.getString() : Strings.utf8ToString(value.getBytes())));
+                }
+            }
+            if (ldifReader.hasError()) {
+                throw new IOException("Parsing LDIF " + ldifFile + " failed near line " + ldifReader.getLineNumber(),
+                        ldifReader.getError());
+            }
+        } catch (LdapException e) {
+            throw new IOException("Reading LDIF " + ldifFile + " failed", e);
+        }
+    }
+
     /**
      * Creates a keytab file for given principal.
      *
@@ -71,22 +189,24 @@ public class CreateKeytab {
      */
     public static void createKeytab(final List<KeytabPrincipalPassphrase> keytabUsers, final File keytabFile)
             throws IOException {
-        final KerberosTime timeStamp = new KerberosTime();
-        final int principalType = 1; // KRB5_NT_PRINCIPAL
-
-        final Keytab keytab = Keytab.getInstance();
-        final List<KeytabEntry> entries = new ArrayList<KeytabEntry>();
+        createKeytab(keytabUsers, keytabFile, KerberosKeyFactory.DEFAULT_CIPHERS.keySet());
+    }
 
-        for (KeytabPrincipalPassphrase keytabUser : keytabUsers) {
-            for (Map.Entry<EncryptionType, EncryptionKey> keyEntry : KerberosKeyFactory.getKerberosKeys(
-                    keytabUser.getPrincipalName(), keytabUser.getPassPhrase()).entrySet()) {
-                final EncryptionKey key = keyEntry.getValue();
-                final byte keyVersion = (byte) key.getKeyVersion();
-                entries.add(new KeytabEntry(keytabUser.getPrincipalName(), principalType, timeStamp, keyVersion, key));
+    /**
+     * Creates a keytab file for given principals with keys of the given encryption types.
+     *
+     * @param keytabUsers
+     * @param keytabFile
+     * @param encryptionTypes
+     * @throws IOException
+     */
+    public static void createKeytab(final List<KeytabPrincipalPassphrase> keytabUsers, final File keytabFile,
+            final Set<EncryptionType> encryptionTypes) throws IOException {
+        try (KeytabWriter keytabWriter = new KeytabWriter(keytabFile, encryptionTypes, keytabUsers.size() > 1 ? 0 : 1)) {
+            for (KeytabPrincipalPassphrase keytabUser : keytabUsers) {
+                keytabWriter.add(keytabUser);
             }
         }
-        keytab.setEntries(entries);
-        keytab.write(keytabFile);
     }
 
 }
@@ -0,0 +1,94 @@
+package com.github.kwart.kerberos;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.converters.FileConverter;
+
+/**
+ * Options of the {@link CreateKeytab} bulk mode.
+ */
+public class CreateKeytabOptions {
+
+    @Parameter(names = { "--help", "-h" }, description = "shows this help and exits", help = true)
+    private boolean help;
+
+    @Parameter(names = { "--principal", "-p" }, description = "takes [principal=password] as argument. Can be used multiple times.")
+    private List<String> principals = new ArrayList<>();
+
+    @Parameter(names = { "--principals-file", "-pf" }, description = "takes a file with the [principal password] lines as argument",
+            converter = FileConverter.class)
+    private File principalsFile;
+
+    @Parameter(names = { "--ldif", "-l" }, description = "takes an LDIF file as argument, keys are generated for entries with the krb5PrincipalName and userPassword attributes. Can be used multiple times.",
+            converter = FileConverter.class)
+    private List<File> ldifFiles = new ArrayList<>();
+
+    @Parameter(names = { "--enctype", "-e" }, description = "takes comma separated encryption types (e.g. aes256-cts-hmac-sha1-96,aes128-cts-hmac-sha1-96) as argument; keys of all the supported types are generated by default")
+    private List<String> encryptionTypes = new ArrayList<>();
+
+    @Parameter(names = { "--threads", "-t" }, description = "takes number of key derivation threads as argument (0 means number of CPUs)")
+    private int threads;
+
+    @Parameter(names = { "--output", "-o" }, description = "takes the output keytab file as argument", required = true,
+            converter = FileConverter.class)
+    private File output;
+
+    public boolean isHelp() {
+        return help;
+    }
+
+    public void setHelp(boolean help) {
+        this.help = help;
+    }
+
+    public List<String> getPrincipals() {
+        return principals;
+    }
+
+    public void setPrincipals(List<String> principals) {
+        this.principals = principals;
+    }
+
+    public File getPrincipalsFile() {
+        return principalsFile;
+    }
+
+    public void setPrincipalsFile(File principalsFile) {
+        this.principalsFile = principalsFile;
+    }
+
+    public List<File> getLdifFiles() {
+        return ldifFiles;
+    }
+
+    public void setLdifFiles(List<File> ldifFiles) {
+        this.ldifFiles = ldifFiles;
+    }
+
+    public List<String> getEncryptionTypes() {
+        return encryptionTypes;
+    }
+
+    public void setEncryptionTypes(List<String> encryptionTypes) {
+        this.encryptionTypes = encryptionTypes;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public File getOutput() {
+        return output;
+    }
+
+    public void setOutput(File output) {
+        this.output = output;
+    }
+}
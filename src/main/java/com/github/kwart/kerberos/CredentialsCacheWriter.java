@@ -0,0 +1,113 @@
+package com.github.kwart.kerberos;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.asn1.EncoderException;
+import org.apache.directory.shared.kerberos.KerberosTime;
+import org.apache.directory.shared.kerberos.components.EncTicketPart;
+import org.apache.directory.shared.kerberos.components.PrincipalName;
+import org.apache.directory.shared.kerberos.messages.Ticket;
+
+/**
+ * Writes credential cache files (the MIT <code>FILE:</code> ccache format version 4) which can be used by the Kerberos
+ * clients (e.g. <code>KRB5CCNAME</code> or the <code>ticketCache</code> option of the <code>Krb5LoginModule</code>).
+ *
+ * @author Josef Cacek
+ */
+public class CredentialsCacheWriter {
+
+    private static final int FILE_FORMAT_VERSION = 0x0504;
+    private static final int DELTA_TIME_TAG = 1;
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+    /**
+     * Writes a credential cache with a single ticket. The ticket has to contain its (not encrypted) {@link EncTicketPart},
+     * i.e. it has to be issued by this server.
+     *
+     * @param file the credential cache file (overwritten when it exists), it's readable by the owner only where the file
+     *        system supports the POSIX permissions
+     * @param ticket the ticket, the client principal of the ticket is the default principal of the cache
+     */
+    public static void write(File file, Ticket ticket) throws IOException {
+        EncTicketPart encTicketPart = ticket.getEncTicketPart();
+        byte[] encodedTicket;
+        try {
+            encodedTicket = ticket.encode(null).array();
+        } catch (EncoderException e) {
+            throw new IOException("Encoding the ticket failed", e);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(openOwnerOnly(file.toPath())))) {
+            out.writeShort(FILE_FORMAT_VERSION);
+            // header with the KDC time offset, the tickets are issued by the local clock
+            out.writeShort(12);
+            out.writeShort(DELTA_TIME_TAG);
+            out.writeShort(8);
+            out.writeInt(0);
+            out.writeInt(0);
+            writePrincipal(out, encTicketPart.getCName(), encTicketPart.getCRealm());
+
+            writePrincipal(out, encTicketPart.getCName(), encTicketPart.getCRealm());
+            writePrincipal(out, ticket.getSName(), ticket.getRealm());
+            out.writeShort(encTicketPart.getKey().getKeyType().getValue());
+            writeData(out, encTicketPart.getKey().getKeyValue());
+            writeTime(out, encTicketPart.getAuthTime());
+            writeTime(out, encTicketPart.getStartTime());
+            writeTime(out, encTicketPart.getEndTime());
+            writeTime(out, encTicketPart.getRenewTill());
+            out.writeByte(0); // not a user-to-user ticket
+            out.writeInt(encTicketPart.getFlags().getIntValue());
+            out.writeInt(0); // addresses
+            out.writeInt(0); // authorization data
+            writeData(out, encodedTicket);
+            writeData(out, new byte[0]); // second ticket
+        }
+    }
+
+    /**
+     * Opens the file for writing. The file is created with the owner only permissions (the cache contains the session key of
+     * the ticket), an existing file gets them before it's overwritten.
+     */
+    private static OutputStream openOwnerOnly(Path path) throws IOException {
+        if (path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            try {
+                Files.createFile(path, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+            } catch (FileAlreadyExistsException e) {
+                Files.setPosixFilePermissions(path, OWNER_ONLY);
+            }
+        }
+        return Files.newOutputStream(path);
+    }
+
+    private static void writePrincipal(DataOutputStream out, PrincipalName principalName, String realm)
+            throws IOException {
+        List<String> names = principalName.getNames();
+        out.writeInt(principalName.getNameType().getValue());
+        out.writeInt(names.size());
+        writeData(out, realm.getBytes(UTF_8));
+        for (String name : names) {
+            writeData(out, name.getBytes(UTF_8));
+        }
+    }
+
+    private static void writeTime(DataOutputStream out, KerberosTime time) throws IOException {
+        out.writeInt(time != null ? (int) (time.getTime() / 1000L) : 0);
+    }
+
+    private static void writeData(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+}
@@ -0,0 +1,206 @@
+package com.github.kwart.kerberos;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.shared.kerberos.KerberosAttribute;
+import org.apache.directory.shared.kerberos.codec.KerberosDecoder;
+import org.apache.directory.shared.kerberos.components.EncryptionKey;
+import org.apache.directory.shared.kerberos.exceptions.KerberosException;
+
+import com.beust.jcommander.JCommander;
+
+/**
+ * Exports keytabs from the keys stored in the directory (the <code>krb5Key</code> and <code>krb5KeyVersionNumber</code>
+ * attributes), so no passphrase is needed and no key is derived again. The export can read the embedded directory
+ * ({@link KerberosServer#exportKeytab(File, String, String)}) or a running server over LDAP ({@link #main(String[])}).
+ *
+ * @author Josef Cacek
+ */
+public class ExportKeytab {
+
+    /**
+     * The main.
+     */
+    public static void main(String[] args) throws Exception {
+        ExportKeytabOptions opts = new ExportKeytabOptions();
+        JCommander jcmd = JCommander.newBuilder()
+                .programName("java -classpath kerberos-server.jar " + ExportKeytab.class.getName()).addObject(opts).build();
+        jcmd.parse(args);
+        if (opts.isHelp()) {
+            jcmd.usage();
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        long principals = export(opts);
+        System.out.println("Keytab file was created: " + opts.getOutput().getAbsolutePath() + " (" + principals
+                + " principals in " + (System.currentTimeMillis() - startTime) + "ms)");
+    }
+
+    /**
+     * Exports the keys of the principals from the given subtree of the directory.
+     *
+     * @param directoryService the directory
+     * @param baseDn base DN of the subtree
+     * @param principalPattern principal name which may contain the '*' wildcards ({@code null} means all principals)
+     * @param keytabFile the output keytab file
+     * @return number of exported principals
+     */
+    public static long export(DirectoryService directoryService, String baseDn, String principalPattern, File keytabFile)
+            throws Exception {
+        CoreSession session = directoryService.getAdminSession();
+        try (KeytabWriter keytabWriter = new KeytabWriter(keytabFile, null, 1);
+                Cursor<Entry> cursor = session.search(new Dn(directoryService.getSchemaManager(), baseDn),
+                        SearchScope.SUBTREE, FilterParser.parse(directoryService.getSchemaManager(), getFilter(principalPattern)),
+                        AliasDerefMode.NEVER_DEREF_ALIASES, KerberosAttribute.KRB5_PRINCIPAL_NAME_AT,
+                        KerberosAttribute.KRB5_KEY_AT, KerberosAttribute.KRB5_KEY_VERSION_NUMBER_AT)) {
+            while (cursor.next()) {
+                Entry entry = cursor.get();
+                if (entry.get(KerberosAttribute.KRB5_KEY_AT) == null) {
+                    continue;
+                }
+                List<byte[]> encodedKeys = new ArrayList<>();
+                for (Value<?> value : entry.get(KerberosAttribute.KRB5_KEY_AT)) {
+                    encodedKeys.add(value.getBytes());
+                }
+                addPrincipal(keytabWriter, entry.get(KerberosAttribute.KRB5_PRINCIPAL_NAME_AT).getString(),
+                        getKeyVersion(entry.get(KerberosAttribute.KRB5_KEY_VERSION_NUMBER_AT) != null
+                                ? entry.get(KerberosAttribute.KRB5_KEY_VERSION_NUMBER_AT).getString() : null),
+                        encodedKeys);
+            }
+            return keytabWriter.getPrincipalCount();
+        }
+    }
+
+    /**
+     * Returns names of the principals matching the pattern in the given subtree of the directory.
+     *
+     * @param principalPattern principal name which may contain the '*' wildcards ({@code null} means all principals)
+     */
+    static List<String> findPrincipals(DirectoryService directoryService, String baseDn, String principalPattern)
+            throws Exception {
+        List<String> principals = new ArrayList<>();
+        try (Cursor<Entry> cursor = directoryService.getAdminSession().search(
+                new Dn(directoryService.getSchemaManager(), baseDn), SearchScope.SUBTREE,
+                FilterParser.parse(directoryService.getSchemaManager(), getFilter(principalPattern)),
+                AliasDerefMode.NEVER_DEREF_ALIASES, KerberosAttribute.KRB5_PRINCIPAL_NAME_AT)) {
+            while (cursor.next()) {
+                principals.add(cursor.get().get(KerberosAttribute.KRB5_PRINCIPAL_NAME_AT).getString());
+            }
+        }
+        return principals;
+    }
+
+    /**
+     * Exports the keys of the principals from a running server over LDAP.
+     *
+     * @return number of exported principals
+     */
+    public static long export(ExportKeytabOptions opts) throws NamingException, IOException {
+        Properties env = new Properties();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+        env.put(Context.PROVIDER_URL, opts.getLdapUrl());
+        env.put(Context.SECURITY_AUTHENTICATION, "simple");
+        env.put(Context.SECURITY_PRINCIPAL, opts.getBindDn());
+        env.put(Context.SECURITY_CREDENTIALS, opts.getBindPassword());
+        env.put("java.naming.ldap.attributes.binary", KerberosAttribute.KRB5_KEY_AT);
+        LdapContext ctx = new InitialLdapContext(env, null);
+        try (KeytabWriter keytabWriter = new KeytabWriter(opts.getOutput(), null, 1)) {
+            SearchControls searchControls = new SearchControls();
+            searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+            searchControls.setReturningAttributes(new String[] { KerberosAttribute.KRB5_PRINCIPAL_NAME_AT,
+                    KerberosAttribute.KRB5_KEY_AT, KerberosAttribute.KRB5_KEY_VERSION_NUMBER_AT });
+            NamingEnumeration<SearchResult> results = ctx.search(opts.getBaseDn(), getFilter(opts.getPrincipal()),
+                    searchControls);
+            try {
+                while (results.hasMore()) {
+                    Attributes attributes = results.next().getAttributes();
+                    Attribute keys = attributes.get(KerberosAttribute.KRB5_KEY_AT);
+                    if (keys == null) {
+                        continue;
+                    }
+                    List<byte[]> encodedKeys = new ArrayList<>();
+                    for (int i = 0; i < keys.size(); i++) {
+                        encodedKeys.add((byte[]) keys.get(i));
+                    }
+                    Attribute keyVersion = attributes.get(KerberosAttribute.KRB5_KEY_VERSION_NUMBER_AT);
+                    addPrincipal(keytabWriter, (String) attributes.get(KerberosAttribute.KRB5_PRINCIPAL_NAME_AT).get(),
+                            getKeyVersion(keyVersion != null ? (String) keyVersion.get() : null), encodedKeys);
+                }
+            } finally {
+                results.close();
+            }
+            return keytabWriter.getPrincipalCount();
+        } finally {
+            ctx.close();
+        }
+    }
+
+    /**
+     * Returns the LDAP filter for the principal name pattern. The '*' characters are kept as wildcards.
+     */
+    static String getFilter(String principalPattern) {
+        if (principalPattern == null || principalPattern.isEmpty()) {
+            return "(" + KerberosAttribute.KRB5_PRINCIPAL_NAME_AT + "=*)";
+        }
+        StringBuilder sb = new StringBuilder("(").append(KerberosAttribute.KRB5_PRINCIPAL_NAME_AT).append("=");
+        for (char c : principalPattern.toCharArray()) {
+            switch (c) {
+                case '(':
+                    sb.append("\\28");
+                    break;
+                case ')':
+                    sb.append("\\29");
+                    break;
+                case '\\':
+                    sb.append("\\5c");
+                    break;
+                case '\0':
+                    sb.append("\\00");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.append(")").toString();
+    }
+
+    private static int getKeyVersion(String keyVersion) {
+        return keyVersion != null ? Integer.parseInt(keyVersion.trim()) : 0;
+    }
+
+    private static void addPrincipal(KeytabWriter keytabWriter, String principalName, int keyVersion,
+            List<byte[]> encodedKeys) throws IOException {
+        List<EncryptionKey> keys = new ArrayList<>(encodedKeys.size());
+        for (byte[] encodedKey : encodedKeys) {
+            try {
+                keys.add(KerberosDecoder.decodeEncryptionKey(encodedKey));
+            } catch (KerberosException e) {
+                throw new IOException("Decoding the key of " + principalName + " failed", e);
+            }
+        }
+        keytabWriter.add(principalName, keyVersion, keys);
+    }
+}
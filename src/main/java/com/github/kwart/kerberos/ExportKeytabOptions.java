@@ -0,0 +1,90 @@
+package com.github.kwart.kerberos;
+
+import java.io.File;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.converters.FileConverter;
+
+/**
+ * Options of the {@link ExportKeytab}.
+ */
+public class ExportKeytabOptions {
+
+    @Parameter(names = { "--help", "-h" }, description = "shows this help and exits", help = true)
+    private boolean help;
+
+    @Parameter(names = { "--ldap-url", "-u" }, description = "takes the LDAP URL of the running server as argument")
+    private String ldapUrl = "ldap://127.0.0.1:" + KerberosOptions.DEFAULT_LDAP_PORT;
+
+    @Parameter(names = { "--bind-dn", "-D" }, description = "takes the DN used for the LDAP bind as argument")
+    private String bindDn = "uid=admin,ou=system";
+
+    @Parameter(names = { "--bind-password", "-w" }, description = "takes the LDAP bind password as argument")
+    private String bindPassword = "secret";
+
+    @Parameter(names = { "--base-dn", "-b" }, description = "takes the base DN of the exported subtree as argument")
+    private String baseDn = "dc=kerberos,dc=example";
+
+    @Parameter(names = { "--principal", "-p" }, description = "takes the principal name pattern as argument, '*' matches any characters (e.g. HTTP/*@KERBEROS.EXAMPLE); all principals are exported by default")
+    private String principal;
+
+    @Parameter(names = { "--output", "-o" }, description = "takes the output keytab file as argument", required = true,
+            converter = FileConverter.class)
+    private File output;
+
+    public boolean isHelp() {
+        return help;
+    }
+
+    public void setHelp(boolean help) {
+        this.help = help;
+    }
+
+    public String getLdapUrl() {
+        return ldapUrl;
+    }
+
+    public void setLdapUrl(String ldapUrl) {
+        this.ldapUrl = ldapUrl;
+    }
+
+    public String getBindDn() {
+        return bindDn;
+    }
+
+    public void setBindDn(String bindDn) {
+        this.bindDn = bindDn;
+    }
+
+    public String getBindPassword() {
+        return bindPassword;
+    }
+
+    public void setBindPassword(String bindPassword) {
+        this.bindPassword = bindPassword;
+    }
+
+    public String getBaseDn() {
+        return baseDn;
+    }
+
+    public void setBaseDn(String baseDn) {
+        this.baseDn = baseDn;
+    }
+
+    public String getPrincipal() {
+        return principal;
+    }
+
+    public void setPrincipal(String principal) {
+        this.principal = principal;
+    }
+
+    public File getOutput() {
+        return output;
+    }
+
+    public void setOutput(File output) {
+        this.output = output;
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.kwart.kerberos;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.protocol.shared.transport.Transport;
+import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
+import org.apache.mina.core.filterchain.IoFilter;
+import org.apache.mina.core.filterchain.IoFilterChainBuilder;
+import org.apache.mina.core.service.IoHandler;
+import org.apache.mina.core.session.IoEventType;
+import org.apache.mina.filter.executor.ExecutorFilter;
+
+/**
+ * {@link LdapServer} which runs the LDAP handlers in the given executor instead of the one created for each transport (its
+ * pool size is bound to the number of I/O threads). The filter chain is built in {@link LdapServer#start()} and the
+ * {@link #getHandler()} is called for each transport after the chain is set to the acceptor and before the acceptor is
+ * bound, so the executor filter is replaced there, i.e. before any connection can be accepted.
+ *
+ * @author Josef Cacek
+ */
+final class HandlerExecutorLdapServer extends LdapServer {
+
+    private static final String EXECUTOR_FILTER_NAME = "executor";
+
+    private final Supplier<ExecutorService> executorSupplier;
+
+    /**
+     * Creates the server.
+     *
+     * @param executorSupplier returns the handler executor when the server starts ({@code null} keeps the executors created
+     *        by the {@link LdapServer})
+     */
+    HandlerExecutorLdapServer(Supplier<ExecutorService> executorSupplier) {
+        this.executorSupplier = executorSupplier;
+    }
+
+    @Override
+    public IoHandler getHandler() {
+        ExecutorService executor = executorSupplier.get();
+        if (executor != null && getTransports() != null) {
+            for (Transport transport : getTransports()) {
+                installExecutor(transport.getAcceptor().getFilterChainBuilder(), executor);
+            }
+        }
+        return super.getHandler();
+    }
+
+    private static void installExecutor(IoFilterChainBuilder chainBuilder, ExecutorService executor) {
+        if (!(chainBuilder instanceof DefaultIoFilterChainBuilder)) {
+            return;
+        }
+        DefaultIoFilterChainBuilder chain = (DefaultIoFilterChainBuilder) chainBuilder;
+        IoFilter original = chain.get(EXECUTOR_FILTER_NAME);
+        if (original instanceof ExecutorFilter && ((ExecutorFilter) original).getExecutor() != executor) {
+            chain.replace(EXECUTOR_FILTER_NAME, new ExecutorFilter(executor, IoEventType.MESSAGE_RECEIVED));
+            // the acceptor is not bound yet, so no session used the original executor
+            Executor originalExecutor = ((ExecutorFilter) original).getExecutor();
+            if (originalExecutor instanceof ExecutorService) {
+                ((ExecutorService) originalExecutor).shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.kwart.kerberos;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the executors which run the protocol handlers (i.e. the directory and crypto work) outside of the network I/O
+ * threads. The virtual threads are used when requested and supported by the running JVM (Java 21+), the project itself
+ * is compiled for Java 8, so the virtual thread executor is looked up reflectively.
+ *
+ * @author Josef Cacek
+ */
+final class HandlerExecutors {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(HandlerExecutors.class);
+
+    private HandlerExecutors() {
+    }
+
+    /**
+     * Creates a new executor.
+     *
+     * @param name prefix of the thread names
+     * @param threads number of platform threads (0 means number of available processors)
+     * @param virtualThreads {@code true} if a new virtual thread should be used for each task
+     */
+    static ExecutorService create(String name, int threads, boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                LOGGER.debug("Using virtual threads for {}", name);
+                return (ExecutorService) method.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                LOGGER.warn("Virtual threads are not supported by the JVM (Java 21+ is required), {} uses platform threads",
+                        name);
+            }
+        }
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(poolSize, threadFactory);
+    }
+}
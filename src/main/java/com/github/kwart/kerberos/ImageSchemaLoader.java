@@ -0,0 +1,131 @@
+package com.github.kwart.kerberos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.registries.AbstractSchemaLoader;
+import org.apache.directory.api.ldap.model.schema.registries.Schema;
+import org.apache.directory.api.util.Strings;
+
+/**
+ * Schema loader which reads schema objects from the {@link SchemaImage}. It's a drop-in replacement for the
+ * {@link org.apache.directory.api.ldap.schema.loader.JarLdifSchemaLoader} - the entries are grouped by schema and schema
+ * object type just once, when the loader is created.
+ *
+ * @author Josef Cacek
+ */
+public class ImageSchemaLoader extends AbstractSchemaLoader {
+
+    private static final String SCHEMA_PATH_PREFIX = "schema/ou=schema/cn=";
+    private static final String OID_PREFIX = "m-oid=";
+
+    /**
+     * Entries grouped by the "[schemaName]/[container]" key (e.g. "core/ou=attributetypes").
+     */
+    private final Map<String, List<Entry>> schemaObjects = new HashMap<>();
+
+    public ImageSchemaLoader(SchemaImage schemaImage) throws LdapException {
+        for (Map.Entry<String, Entry> mapEntry : schemaImage.getEntriesByPath().entrySet()) {
+            String path = mapEntry.getKey();
+            if (!path.startsWith(SCHEMA_PATH_PREFIX)) {
+                continue;
+            }
+            String relativePath = path.substring(SCHEMA_PATH_PREFIX.length());
+            int firstSlash = relativePath.indexOf('/');
+            if (firstSlash < 0) {
+                // schema/ou=schema/cn=[schemaName].ldif
+                Schema schema = getSchema(mapEntry.getValue());
+                if (schema != null) {
+                    schemaMap.put(schema.getSchemaName(), schema);
+                }
+                continue;
+            }
+            int secondSlash = relativePath.indexOf('/', firstSlash + 1);
+            if (secondSlash > 0 && relativePath.startsWith(OID_PREFIX, secondSlash + 1)) {
+                // schema/ou=schema/cn=[schemaName]/ou=[container]/m-oid=[oid].ldif
+                String key = relativePath.substring(0, secondSlash);
+                List<Entry> list = schemaObjects.get(key);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    schemaObjects.put(key, list);
+                }
+                list.add(mapEntry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public List<Entry> loadComparators(Schema... schemas) throws LdapException, IOException {
+        return load("ou=comparators", schemas);
+    }
+
+    @Override
+    public List<Entry> loadSyntaxCheckers(Schema... schemas) throws LdapException, IOException {
+        return load("ou=syntaxcheckers", schemas);
+    }
+
+    @Override
+    public List<Entry> loadNormalizers(Schema... schemas) throws LdapException, IOException {
+        return load("ou=normalizers", schemas);
+    }
+
+    @Override
+    public List<Entry> loadMatchingRules(Schema... schemas) throws LdapException, IOException {
+        return load("ou=matchingrules", schemas);
+    }
+
+    @Override
+    public List<Entry> loadSyntaxes(Schema... schemas) throws LdapException, IOException {
+        return load("ou=syntaxes", schemas);
+    }
+
+    @Override
+    public List<Entry> loadAttributeTypes(Schema... schemas) throws LdapException, IOException {
+        return load("ou=attributetypes", schemas);
+    }
+
+    @Override
+    public List<Entry> loadMatchingRuleUses(Schema... schemas) throws LdapException, IOException {
+        return load("ou=matchingruleuse", schemas);
+    }
+
+    @Override
+    public List<Entry> loadNameForms(Schema... schemas) throws LdapException, IOException {
+        return load("ou=nameforms", schemas);
+    }
+
+    @Override
+    public List<Entry> loadDitContentRules(Schema... schemas) throws LdapException, IOException {
+        return load("ou=ditcontentrules", schemas);
+    }
+
+    @Override
+    public List<Entry> loadDitStructureRules(Schema... schemas) throws LdapException, IOException {
+        return load("ou=ditstructurerules", schemas);
+    }
+
+    @Override
+    public List<Entry> loadObjectClasses(Schema... schemas) throws LdapException, IOException {
+        return load("ou=objectclasses", schemas);
+    }
+
+    private List<Entry> load(String container, Schema... schemas) {
+        if (schemas == null || schemas.length == 0) {
+            return Collections.emptyList();
+        }
+        List<Entry> result = new ArrayList<>();
+        for (Schema schema : schemas) {
+            List<Entry> list = schemaObjects.get(Strings.lowerCase(schema.getSchemaName()) + "/" + container);
+            if (list != null) {
+                result.addAll(list);
+            }
+        }
+        return result;
+    }
+}
@@ -2,7 +2,9 @@ package com.github.kwart.kerberos;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.schema.LdapComparator;
@@ -28,12 +30,22 @@ import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.config.CacheConfiguration;
 import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.store.FifoPolicy;
+import net.sf.ehcache.store.LfuPolicy;
+import net.sf.ehcache.store.LruPolicy;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+import net.sf.ehcache.store.Policy;
 
 /**
  * Factory for a fast (mostly in-memory-only) ApacheDS DirectoryService. Use only for tests!!
+ * <p>
+ * The partitions are created by the configured {@link PartitionFactory}. When a persistent one is used (e.g.
+ * {@link org.apache.directory.server.core.factory.JdbmPartitionFactory}) together with a {@link #setWorkingDirectory(File)
+ * working directory}, the data survives the restart.
  *
  * @author Josef Cacek
  */
@@ -41,9 +53,18 @@ public class InMemoryDirectoryServiceFactory implements DirectoryServiceFactory
 
     private static Logger LOG = LoggerFactory.getLogger(InMemoryDirectoryServiceFactory.class);
 
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
     private final DirectoryService directoryService;
     private final PartitionFactory partitionFactory;
 
+    private int defaultCacheSize = DEFAULT_CACHE_SIZE;
+    private Map<String, Integer> cacheSizes = Collections.emptyMap();
+    private MemoryStoreEvictionPolicy cacheEvictionPolicy = MemoryStoreEvictionPolicy.LRU;
+    private int cacheTimeToLive;
+    private CacheManager cacheManager;
+    private File workingDirectory;
+
     /**
      * Default constructor which creates {@link DefaultDirectoryService} instance and configures {@link AvlPartitionFactory} as
      * the {@link PartitionFactory} implementation.
@@ -69,6 +90,83 @@ public class InMemoryDirectoryServiceFactory implements DirectoryServiceFactory
         this.partitionFactory = partitionFactory;
     }
 
+    /**
+     * Constructor which creates {@link DefaultDirectoryService} instance and uses the provided {@link PartitionFactory}.
+     *
+     * @param partitionFactory must be not-<code>null</code>
+     */
+    public InMemoryDirectoryServiceFactory(PartitionFactory partitionFactory) {
+        try {
+            directoryService = new DefaultDirectoryService();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        directoryService.setShutdownHookEnabled(false);
+        this.partitionFactory = partitionFactory;
+    }
+
+    /**
+     * Sets the instance directory (where the partitions store their files). The existing content is kept. When no directory
+     * is set, a new one is created in the temporary directory (and its old content is deleted).
+     */
+    public void setWorkingDirectory(File workingDirectory) {
+        this.workingDirectory = workingDirectory;
+    }
+
+    /**
+     * Sets the maximal number of entries in the caches which don't have an explicit size configured.
+     */
+    public void setDefaultCacheSize(int defaultCacheSize) {
+        this.defaultCacheSize = defaultCacheSize;
+    }
+
+    /**
+     * Sets the maximal number of entries in the named caches (e.g. "dnCache", "entryDn", "alias", "piar").
+     */
+    public void setCacheSizes(Map<String, Integer> cacheSizes) {
+        this.cacheSizes = cacheSizes != null ? cacheSizes : Collections.emptyMap();
+    }
+
+    /**
+     * Sets the policy used to evict entries from full caches.
+     */
+    public void setCacheEvictionPolicy(MemoryStoreEvictionPolicy cacheEvictionPolicy) {
+        this.cacheEvictionPolicy = cacheEvictionPolicy;
+    }
+
+    /**
+     * Sets the cache entry time to live in seconds (0 means no expiration).
+     */
+    public void setCacheTimeToLive(int cacheTimeToLive) {
+        this.cacheTimeToLive = cacheTimeToLive;
+    }
+
+    /**
+     * Returns the cache manager which holds the directory caches. It's available after the {@link #init(String)} call.
+     */
+    public CacheManager getCacheManager() {
+        return cacheManager;
+    }
+
+    /**
+     * Applies the cache settings to the existing caches. The ApacheDS partitions reconfigure some of the shared caches during
+     * their initialization (e.g. "entryDn" is sized to the partition cache size), so this method should be called once the
+     * partitions are added.
+     */
+    public void configureCaches() {
+        for (String cacheName : cacheManager.getCacheNames()) {
+            Cache cache = cacheManager.getCache(cacheName);
+            Integer size = cacheSizes.get(cacheName);
+            if (size != null) {
+                cache.getCacheConfiguration().setMaxEntriesLocalHeap(size);
+            }
+            // the replay caches use their own clock skew based eviction
+            if (!cacheName.endsWith("ReplayCache")) {
+                cache.setMemoryStoreEvictionPolicy(createEvictionPolicy());
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -81,8 +179,13 @@ public class InMemoryDirectoryServiceFactory implements DirectoryServiceFactory
         directoryService.setInstanceId(name);
 
         // instance layout
-        InstanceLayout instanceLayout = new InstanceLayout(System.getProperty("java.io.tmpdir") + "/server-work-" + name);
-        if (instanceLayout.getInstanceDirectory().exists()) {
+        InstanceLayout instanceLayout;
+        if (workingDirectory != null) {
+            instanceLayout = new InstanceLayout(workingDirectory);
+        } else {
+            instanceLayout = new InstanceLayout(System.getProperty("java.io.tmpdir") + "/server-work-" + name);
+        }
+        if (workingDirectory == null && instanceLayout.getInstanceDirectory().exists()) {
             try {
                 FileUtils.deleteDirectory(instanceLayout.getInstanceDirectory());
             } catch (IOException e) {
@@ -91,18 +194,20 @@ public class InMemoryDirectoryServiceFactory implements DirectoryServiceFactory
         }
         directoryService.setInstanceLayout(instanceLayout);
 
-        // EhCache in disabled-like-mode
+        // bounded in-memory caches, the named ones can have their own size
         Configuration ehCacheConfig = new Configuration();
-        @SuppressWarnings("deprecation")
-        CacheConfiguration defaultCache = new CacheConfiguration("default", 1).eternal(false).timeToIdleSeconds(30)
-                .timeToLiveSeconds(30).overflowToDisk(false);
-        ehCacheConfig.addDefaultCache(defaultCache);
-        CacheService cacheService = new CacheService(new CacheManager(ehCacheConfig));
+        ehCacheConfig.addDefaultCache(createCacheConfiguration("default", defaultCacheSize));
+        for (Map.Entry<String, Integer> entry : cacheSizes.entrySet()) {
+            ehCacheConfig.addCache(createCacheConfiguration(entry.getKey(), entry.getValue()));
+        }
+        cacheManager = new CacheManager(ehCacheConfig);
+        CacheService cacheService = new CacheService(cacheManager);
         directoryService.setCacheService(cacheService);
 
-        // Init the schema
-        // SchemaLoader loader = new SingleLdifSchemaLoader();
-        SchemaLoader loader = new JarLdifSchemaLoader();
+        // Init the schema - use the prebuilt schema image if available
+        long schemaStartTime = System.currentTimeMillis();
+        SchemaImage schemaImage = SchemaImage.load();
+        SchemaLoader loader = schemaImage != null ? new ImageSchemaLoader(schemaImage) : new JarLdifSchemaLoader();
         SchemaManager schemaManager = new DefaultSchemaManager(loader);
         schemaManager.loadAllEnabled();
         ComparatorRegistry comparatorRegistry = schemaManager.getComparatorRegistry();
@@ -112,7 +217,7 @@ public class InMemoryDirectoryServiceFactory implements DirectoryServiceFactory
             }
         }
         directoryService.setSchemaManager(schemaManager);
-        InMemorySchemaPartition inMemorySchemaPartition = new InMemorySchemaPartition(schemaManager);
+        InMemorySchemaPartition inMemorySchemaPartition = new InMemorySchemaPartition(schemaManager, schemaImage);
 
         SchemaPartition schemaPartition = new SchemaPartition(schemaManager);
         schemaPartition.setWrappedPartition(inMemorySchemaPartition);
@@ -121,6 +226,8 @@ public class InMemoryDirectoryServiceFactory implements DirectoryServiceFactory
         if (errors.size() != 0) {
             throw new Exception(I18n.err(I18n.ERR_317, Exceptions.printErrors(errors)));
         }
+        LOG.debug("Schema loaded from {} in {}ms", schemaImage != null ? "the schema image" : "the classpath LDIF files",
+                System.currentTimeMillis() - schemaStartTime);
 
         // Init system partition
         Partition systemPartition = partitionFactory.createPartition(directoryService.getSchemaManager(),
@@ -133,6 +240,25 @@ public class InMemoryDirectoryServiceFactory implements DirectoryServiceFactory
         directoryService.startup();
     }
 
+    private Policy createEvictionPolicy() {
+        if (MemoryStoreEvictionPolicy.LFU.equals(cacheEvictionPolicy)) {
+            return new LfuPolicy();
+        } else if (MemoryStoreEvictionPolicy.FIFO.equals(cacheEvictionPolicy)) {
+            return new FifoPolicy();
+        }
+        return new LruPolicy();
+    }
+
+    private CacheConfiguration createCacheConfiguration(String name, int size) {
+        CacheConfiguration config = new CacheConfiguration(name, size).memoryStoreEvictionPolicy(cacheEvictionPolicy);
+        if (cacheTimeToLive > 0) {
+            config.eternal(false).timeToLiveSeconds(cacheTimeToLive);
+        } else {
+            config.eternal(true);
+        }
+        return config;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -36,8 +36,19 @@ public class InMemorySchemaPartition extends AbstractLdifPartition {
      * instance is needed for all uses.
      */
 
+    private final SchemaImage schemaImage;
+
     public InMemorySchemaPartition(SchemaManager schemaManager) {
+        this(schemaManager, null);
+    }
+
+    /**
+     * Creates partition which loads its content from the given schema image. If the image is <code>null</code>, then the
+     * schema LDIF files are searched on the classpath.
+     */
+    public InMemorySchemaPartition(SchemaManager schemaManager, SchemaImage schemaImage) {
         super(schemaManager);
+        this.schemaImage = schemaImage;
     }
 
     /**
@@ -55,6 +66,12 @@ public class InMemorySchemaPartition extends AbstractLdifPartition {
         super.doInit();
 
         // load schema
+        if (schemaImage != null) {
+            for (Entry schemaEntry : schemaImage.getEntries()) {
+                addSchemaEntry(schemaEntry);
+            }
+            return;
+        }
         final Map<String, Boolean> resMap = ResourceMap.getResources(Pattern.compile("schema[/\\Q\\\\E]ou=schema.*"));
         for (String resourcePath : new TreeSet<String>(resMap.keySet())) {
             if (resourcePath.endsWith(".ldif")) {
@@ -63,18 +80,22 @@ public class InMemorySchemaPartition extends AbstractLdifPartition {
                 LdifEntry ldifEntry = reader.next();
                 reader.close();
 
-                Entry entry = new DefaultEntry(schemaManager, ldifEntry.getEntry());
-                // add mandatory attributes
-                if (entry.get(SchemaConstants.ENTRY_CSN_AT) == null) {
-                    entry.add(SchemaConstants.ENTRY_CSN_AT, defaultCSNFactory.newInstance().toString());
-                }
-                if (entry.get(SchemaConstants.ENTRY_UUID_AT) == null) {
-                    entry.add(SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString());
-                }
-                AddOperationContext addContext = new AddOperationContext(null, entry);
-                super.add(addContext);
+                addSchemaEntry(ldifEntry.getEntry());
             }
         }
     }
 
+    private void addSchemaEntry(Entry schemaEntry) throws Exception {
+        Entry entry = new DefaultEntry(schemaManager, schemaEntry);
+        // add mandatory attributes
+        if (entry.get(SchemaConstants.ENTRY_CSN_AT) == null) {
+            entry.add(SchemaConstants.ENTRY_CSN_AT, defaultCSNFactory.newInstance().toString());
+        }
+        if (entry.get(SchemaConstants.ENTRY_UUID_AT) == null) {
+            entry.add(SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString());
+        }
+        AddOperationContext addContext = new AddOperationContext(null, entry);
+        super.add(addContext);
+    }
+
 }
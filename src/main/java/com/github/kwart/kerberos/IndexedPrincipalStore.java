@@ -0,0 +1,284 @@
+package com.github.kwart.kerberos;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.kerberos.changepwd.exceptions.ChangePasswordException;
+import org.apache.directory.server.kerberos.kdc.DirectoryPrincipalStore;
+import org.apache.directory.server.kerberos.shared.store.PrincipalStore;
+import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntry;
+import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntryModifier;
+import org.apache.directory.shared.kerberos.KerberosAttribute;
+import org.apache.directory.shared.kerberos.KerberosTime;
+import org.apache.directory.shared.kerberos.codec.types.PrincipalNameType;
+import org.apache.directory.shared.kerberos.codec.types.SamType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link PrincipalStore} which keeps the decoded principal entries (including the Kerberos keys) in memory, so the KDC
+ * doesn't have to search the directory and decode the <code>krb5Key</code> values for each AS and TGS request.
+ * <p>
+ * All principals under the search base are indexed when the store is created. The index is then kept up to date by a
+ * synchronous {@link DirectoryListener}, i.e. a change done through LDAP is visible to the KDC as soon as the LDAP operation
+ * finishes. Password changes are delegated to the {@link DirectoryPrincipalStore}.
+ *
+ * @author Josef Cacek
+ */
+public class IndexedPrincipalStore implements PrincipalStore, DirectoryListener, AutoCloseable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(IndexedPrincipalStore.class);
+
+    private final DirectoryService directoryService;
+    private final DirectoryPrincipalStore delegate;
+    private final Dn searchBaseDn;
+
+    /**
+     * Principal name to entry mapping.
+     */
+    private final Map<String, PrincipalStoreEntry> principals = new ConcurrentHashMap<>();
+    /**
+     * Normalized DN to principal entry mapping. It's used to find the index entry when the directory entry is removed or
+     * renamed.
+     */
+    private final Map<String, PrincipalStoreEntry> dnToPrincipal = new ConcurrentHashMap<>();
+
+    public IndexedPrincipalStore(DirectoryService directoryService, Dn searchBaseDn) throws Exception {
+        this.directoryService = directoryService;
+        this.searchBaseDn = searchBaseDn.isSchemaAware() ? searchBaseDn
+                : directoryService.getDnFactory().create(searchBaseDn.getName());
+        this.delegate = new DirectoryPrincipalStore(directoryService, this.searchBaseDn);
+
+        long startTime = System.currentTimeMillis();
+        NotificationCriteria criteria = new NotificationCriteria();
+        criteria.setBase(this.searchBaseDn);
+        criteria.setScope(SearchScope.SUBTREE);
+        directoryService.getEventService().addListener(this, criteria);
+        loadPrincipals();
+        LOGGER.debug("Indexed {} principals under {} in {}ms", principals.size(), searchBaseDn,
+                System.currentTimeMillis() - startTime);
+    }
+
+    @Override
+    public PrincipalStoreEntry getPrincipal(KerberosPrincipal principal) throws Exception {
+        if (principal == null) {
+            return null;
+        }
+        return principals.get(principal.getName());
+    }
+
+    @Override
+    public void changePassword(KerberosPrincipal byPrincipal, KerberosPrincipal forPrincipal, String newPassword,
+            boolean isInitialTicket) throws ChangePasswordException {
+        // the modification is reported back to the index through the entryModified() method
+        delegate.changePassword(byPrincipal, forPrincipal, newPassword, isInitialTicket);
+    }
+
+    /**
+     * Returns number of indexed principals.
+     */
+    public int size() {
+        return principals.size();
+    }
+
+    /**
+     * Reloads the index entries of the given DNs from the directory. It's used when the entries were changed without firing
+     * the directory events (see {@link SnapshotInterceptor}).
+     */
+    public void refresh(Collection<Dn> dns) {
+        // index the existing entries first and remove the missing ones afterwards, a principal could have been moved
+        // between the DNs and it has to stay visible for the KDC all the time
+        CoreSession adminSession = directoryService.getAdminSession();
+        List<Dn> missingDns = new ArrayList<>();
+        for (Dn dn : dns) {
+            try {
+                if (dn.isDescendantOf(searchBaseDn) && adminSession.exists(dn)) {
+                    index(adminSession.lookup(dn, SchemaConstants.ALL_USER_ATTRIBUTES));
+                } else {
+                    missingDns.add(dn);
+                }
+            } catch (Exception e) {
+                LOGGER.warn("Unable to reload the principal entry " + dn, e);
+            }
+        }
+        for (Dn dn : missingDns) {
+            remove(dn);
+        }
+    }
+
+    @Override
+    public void close() {
+        directoryService.getEventService().removeListener(this);
+        principals.clear();
+        dnToPrincipal.clear();
+    }
+
+    @Override
+    public void entryAdded(AddOperationContext addContext) {
+        index(addContext.getEntry());
+    }
+
+    @Override
+    public void entryDeleted(DeleteOperationContext deleteContext) {
+        remove(deleteContext.getDn());
+    }
+
+    @Override
+    public void entryModified(ModifyOperationContext modifyContext) {
+        index(modifyContext.getAlteredEntry());
+    }
+
+    @Override
+    public void entryRenamed(RenameOperationContext renameContext) {
+        reindex(renameContext.getDn(), renameContext.getNewDn());
+    }
+
+    @Override
+    public void entryMoved(MoveOperationContext moveContext) {
+        reindex(moveContext.getDn(), moveContext.getNewDn());
+    }
+
+    @Override
+    public void entryMovedAndRenamed(MoveAndRenameOperationContext moveAndRenameContext) {
+        reindex(moveAndRenameContext.getDn(), moveAndRenameContext.getNewDn());
+    }
+
+    /**
+     * The index has to be updated before the LDAP operation returns.
+     */
+    @Override
+    public boolean isSynchronous() {
+        return true;
+    }
+
+    private void loadPrincipals() throws Exception {
+        CoreSession adminSession = directoryService.getAdminSession();
+        PresenceNode filter = new PresenceNode(
+                directoryService.getSchemaManager().getAttributeType(KerberosAttribute.KRB5_PRINCIPAL_NAME_AT));
+        try (Cursor<Entry> cursor = adminSession.search(searchBaseDn, SearchScope.SUBTREE, filter,
+                AliasDerefMode.DEREF_ALWAYS, SchemaConstants.ALL_USER_ATTRIBUTES)) {
+            while (cursor.next()) {
+                index(cursor.get());
+            }
+        }
+    }
+
+    private void reindex(Dn oldDn, Dn newDn) {
+        // the new entry is indexed before the old one is removed, so the principal doesn't disappear in between
+        if (newDn != null && newDn.isDescendantOf(searchBaseDn)) {
+            try {
+                index(directoryService.getAdminSession().lookup(newDn, SchemaConstants.ALL_USER_ATTRIBUTES));
+            } catch (Exception e) {
+                LOGGER.warn("Unable to reload the principal entry " + newDn, e);
+            }
+        }
+        remove(oldDn);
+    }
+
+    /**
+     * Replaces the index entry of the given directory entry. The old principal name is removed only when it has changed, so
+     * the concurrent KDC lookups always find the principal.
+     */
+    private void index(Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        if (entry.get(KerberosAttribute.KRB5_PRINCIPAL_NAME_AT) == null) {
+            remove(entry.getDn());
+            return;
+        }
+        try {
+            PrincipalStoreEntry principalEntry = toPrincipalStoreEntry(entry);
+            String principalName = principalEntry.getPrincipal().getName();
+            principals.put(principalName, principalEntry);
+            PrincipalStoreEntry oldEntry = dnToPrincipal.put(entry.getDn().getNormName(), principalEntry);
+            if (oldEntry != null && !principalName.equals(oldEntry.getPrincipal().getName())) {
+                principals.remove(oldEntry.getPrincipal().getName(), oldEntry);
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Unable to index the principal entry " + entry.getDn(), e);
+            remove(entry.getDn());
+        }
+    }
+
+    /**
+     * Removes the index entry of the given DN. The principal name is only removed if it still belongs to this DN, i.e. it
+     * wasn't indexed for another entry in the meantime.
+     */
+    private void remove(Dn dn) {
+        if (dn == null) {
+            return;
+        }
+        PrincipalStoreEntry principalEntry = dnToPrincipal.remove(dn.getNormName());
+        if (principalEntry != null) {
+            principals.remove(principalEntry.getPrincipal().getName(), principalEntry);
+        }
+    }
+
+    /**
+     * Converts the directory entry to the {@link PrincipalStoreEntry} the same way as the ApacheDS <code>GetPrincipal</code>
+     * class does.
+     */
+    private static PrincipalStoreEntry toPrincipalStoreEntry(Entry entry) throws Exception {
+        PrincipalStoreEntryModifier modifier = new PrincipalStoreEntryModifier();
+        modifier.setDistinguishedName(entry.getDn().getName());
+        String principalName = entry.get(KerberosAttribute.KRB5_PRINCIPAL_NAME_AT).getString();
+        modifier.setPrincipal(new KerberosPrincipal(principalName, PrincipalNameType.KRB_NT_PRINCIPAL.getValue()));
+        Attribute keyVersionNumber = entry.get(KerberosAttribute.KRB5_KEY_VERSION_NUMBER_AT);
+        if (keyVersionNumber == null) {
+            throw new IllegalArgumentException(KerberosAttribute.KRB5_KEY_VERSION_NUMBER_AT + " attribute is missing");
+        }
+        modifier.setKeyVersionNumber(Integer.parseInt(keyVersionNumber.getString()));
+        Attribute disabled = entry.get(KerberosAttribute.KRB5_ACCOUNT_DISABLED_AT);
+        if (disabled != null) {
+            modifier.setDisabled("true".equalsIgnoreCase(disabled.getString()));
+        }
+        Attribute lockedOut = entry.get(KerberosAttribute.KRB5_ACCOUNT_LOCKEDOUT_AT);
+        if (lockedOut != null) {
+            modifier.setLockedOut("true".equalsIgnoreCase(lockedOut.getString()));
+        }
+        Attribute expiration = entry.get(KerberosAttribute.KRB5_ACCOUNT_EXPIRATION_TIME_AT);
+        if (expiration != null) {
+            try {
+                modifier.setExpiration(KerberosTime.getTime(expiration.getString()));
+            } catch (ParseException e) {
+                throw new IllegalArgumentException("Account expiration attribute "
+                        + KerberosAttribute.KRB5_ACCOUNT_EXPIRATION_TIME_AT
+                        + " contained an invalid value for generalizedTime: " + expiration.getString(), e);
+            }
+        }
+        Attribute samType = entry.get(KerberosAttribute.APACHE_SAM_TYPE_AT);
+        if (samType != null) {
+            modifier.setSamType(SamType.getTypeByOrdinal(Integer.parseInt(samType.getString())));
+        }
+        Attribute krb5Key = entry.get(KerberosAttribute.KRB5_KEY_AT);
+        if (krb5Key != null) {
+            modifier.setKeyMap(modifier.reconstituteKeyMap(krb5Key));
+        }
+        return modifier.getEntry();
+    }
+}
@@ -3,10 +3,12 @@ package com.github.kwart.kerberos;
 import java.io.File;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.converters.FileConverter;
+import com.beust.jcommander.converters.IParameterSplitter;
 import com.beust.jcommander.converters.PathConverter;
 
 /**
@@ -20,6 +22,58 @@ public class KerberosOptions {
     public static final int DEFAULT_KERBEROS_PORT = 6088;
     public static final String DEFAULT_KERBEROS_REALM = "KERBEROS.EXAMPLE";
 
+    public static final int DEFAULT_IO_THREADS = 3;
+    public static final int DEFAULT_TCP_BACKLOG = 50;
+
+    /**
+     * Eviction policies of the directory caches.
+     */
+    public enum CacheEvictionPolicy {
+        LRU, LFU, FIFO
+    }
+
+    /**
+     * KDC replay cache implementations.
+     */
+    public enum ReplayCacheType {
+        /**
+         * Time bucketed lock-striped sets ({@link StripedReplayCache}).
+         */
+        STRIPED,
+        /**
+         * The ApacheDS default ehcache based replay cache.
+         */
+        EHCACHE
+    }
+
+    /**
+     * Types of the data partitions.
+     */
+    public enum PartitionType {
+        /**
+         * In-memory AVL tree partitions, the data is imported on each start.
+         */
+        AVL,
+        /**
+         * Persistent JDBM B-tree partitions stored in the data directory.
+         */
+        JDBM,
+        /**
+         * In-memory partitions with the serialized entries stored off-heap, the data is imported on each start.
+         */
+        OFF_HEAP
+    }
+
+    /**
+     * Splitter which keeps the whole value (e.g. a DN containing commas) as a single list item.
+     */
+    public static class NoParameterSplitter implements IParameterSplitter {
+        @Override
+        public List<String> split(String value) {
+            return Collections.singletonList(value);
+        }
+    }
+
     @Parameter(description = "[LDIFs to import]", converter = PathConverter.class)
     private List<Path> ldifFiles = new ArrayList<>();
 
@@ -34,7 +88,7 @@ public class KerberosOptions {
     private String adminPassword;
 
     @Parameter(names = { "--ldap-port",
-            "-lp" }, description = "takes [portNumber] as a parameter and binds the LDAP server on that port")
+            "-lp" }, description = "takes [portNumber] as a parameter and binds the LDAP server on that port (0 binds a free port)")
     private int ldapPort = DEFAULT_LDAP_PORT;
 
     @Parameter(names = { "--bind",
@@ -63,19 +117,119 @@ public class KerberosOptions {
     @Parameter(names = { "--ldaps-keystore-password", "-lkp" }, description = "takes LDAPs keystore [password] as argument")
     private String ldapsKeystorePassword;
 
-    @Parameter(names = { "--kerberos-port", "-kp" }, description = "takes KDC [port] number as argument")
+    @Parameter(names = { "--kerberos-port", "-kp" }, description = "takes KDC [port] number as argument (0 binds a free port)")
     private int kerberosPort = DEFAULT_KERBEROS_PORT;
 
     @Parameter(names = { "--kerberos-realm", "-kr" }, description = "takes the Kerberos [REALM.NAME] as argument")
     private String kerberosRealm = DEFAULT_KERBEROS_REALM;
 
+    @Parameter(names = { "--additional-realm",
+            "-ar" }, description = "takes [REALM.NAME:kdcPort[:baseDn]] as argument and serves one more Kerberos realm on the given KDC port. The realm principals are searched under the base DN (derived from the realm name by default, e.g. dc=other,dc=example for OTHER.EXAMPLE). Can be used multiple times.",
+            splitter = NoParameterSplitter.class)
+    private List<String> additionalRealms = new ArrayList<>();
+
+    @Parameter(names = { "--kdc-enctypes" }, description = "takes comma separated encryption types supported by the KDCs as argument (e.g. aes256-cts-hmac-sha1-96,aes128-cts-hmac-sha1-96,des3-cbc-sha1-kd); aes128-cts-hmac-sha1-96, des3-cbc-sha1-kd and des-cbc-md5 are used by default")
+    private List<String> kdcEncryptionTypes = new ArrayList<>();
+
     @Parameter(names = { "--disable-replay-cache", "-drc" }, description = "disables replay cache in KDC")
     private boolean disableReplayCache;
 
+    @Parameter(names = { "--replay-cache-type" }, description = "takes the KDC replay cache [type] as argument")
+    private ReplayCacheType replayCacheType = ReplayCacheType.STRIPED;
+
+    @Parameter(names = { "--replay-cache-window" }, description = "takes the time window (in seconds) of the STRIPED replay cache as argument. Authenticators with the client time out of the window are not stored (0 means the KDC clock skew)")
+    private int replayCacheWindow;
+
+    @Parameter(names = { "--replay-cache-size" }, description = "takes maximal number of authenticators stored in the STRIPED replay cache as argument")
+    private int replayCacheSize = StripedReplayCache.DEFAULT_MAX_ENTRIES;
+
+    @Parameter(names = { "--disable-principal-index",
+            "-dpi" }, description = "disables the in-memory principal index in KDC (each principal lookup searches the directory)")
+    private boolean disablePrincipalIndex;
+
+    @Parameter(names = { "--partition-type" }, description = "takes the [type] of the data partitions as argument. The JDBM partitions keep the entries and indexes in files, only the caches are held on the heap. The OFF_HEAP partitions keep the serialized entries in direct memory buffers")
+    private PartitionType partitionType = PartitionType.AVL;
+
+    @Parameter(names = { "--data-dir" }, description = "takes the [directory] for the JDBM partition files as argument. When the directory already contains the data, the partitions are reopened and no LDIF is imported",
+            converter = FileConverter.class)
+    private File dataDir;
+
+    @Parameter(names = { "--index" }, description = "takes comma separated list of [attribute] names as argument and indexes the attributes in the data partitions created during the LDIF import (e.g. krb5PrincipalName,uid,member)")
+    private List<String> indexedAttributes = new ArrayList<>();
+
+    @Parameter(names = { "--ldap-io-threads" }, description = "takes number of the NIO processor threads of the LDAP transports as argument")
+    private int ldapIoThreads = DEFAULT_IO_THREADS;
+
+    @Parameter(names = { "--ldap-handler-threads" }, description = "takes number of the threads processing the LDAP requests as argument (0 means the same as the LDAP I/O threads)")
+    private int ldapHandlerThreads;
+
+    @Parameter(names = { "--kdc-io-threads" }, description = "takes number of the NIO processor threads of the KDC TCP transports as argument")
+    private int kdcIoThreads = DEFAULT_IO_THREADS;
+
+    @Parameter(names = { "--kdc-handler-threads" }, description = "takes number of the threads processing the Kerberos requests as argument (0 means the requests are processed in the I/O threads)")
+    private int kdcHandlerThreads;
+
+    @Parameter(names = { "--tcp-backlog" }, description = "takes the accept backlog size of the LDAP and KDC TCP transports as argument")
+    private int tcpBacklog = DEFAULT_TCP_BACKLOG;
+
+    @Parameter(names = { "--virtual-threads" }, description = "processes the LDAP and Kerberos requests in virtual threads (requires Java 21+, the handler thread counts are used otherwise)")
+    private boolean virtualThreads;
+
     @Parameter(names = { "--generate-krb5-conf", "-c" }, description = "takes [krb5.conf] file path as argument and generates the content during KDC start",
             converter = FileConverter.class)
     private File krb5conf;
 
+    @Parameter(names = { "--ccache-principal" }, description = "takes [principal] name as argument and writes a credential cache with its TGT during the KDC start, so the client can skip the AS exchange. The '*' matches any characters (e.g. user*@KERBEROS.EXAMPLE), the main realm is used when no realm is provided. Can be used multiple times.")
+    private List<String> ccachePrincipals = new ArrayList<>();
+
+    @Parameter(names = { "--ccache-dir" }, description = "takes the [directory] for the credential caches as argument (the directory of the generated krb5.conf is used by default)",
+            converter = FileConverter.class)
+    private File ccacheDir;
+
+    @Parameter(names = { "--watch-ldif" }, description = "watches the LDIF files and applies the added, changed and removed entries to the running server")
+    private boolean watchLdif;
+
+    @Parameter(names = { "--generate-principals" }, description = "takes number of principals generated from each --principal-pattern during the data import as argument (e.g. for load tests)")
+    private int generatePrincipals;
+
+    @Parameter(names = { "--principal-pattern" }, description = "takes the name pattern of the generated principals as argument, the " + PrincipalGenerator.PLACEHOLDER_NUMBER
+            + " placeholder is replaced by the principal number. Names with '/' are created under ou=Services, the other ones under ou=Users (e.g. HTTP/host{n}.example). Can be used multiple times (" + PrincipalGenerator.DEFAULT_PRINCIPAL_PATTERN
+            + " is used by default)")
+    private List<String> principalPatterns = new ArrayList<>();
+
+    @Parameter(names = { "--password-pattern" }, description = "takes the password pattern of the generated principals as argument")
+    private String passwordPattern = "secret";
+
+    @Parameter(names = { "--snapshot" }, description = "takes a snapshot of the imported data and journals the later directory changes, so they can be reverted by KerberosServer.resetToSnapshot() (the original versions of the changed entries are kept on the heap)")
+    private boolean snapshot;
+
+    @Parameter(names = { "--import-batch-size" }, description = "takes number of LDIF entries added to the directory in one batch during the import")
+    private int importBatchSize = LdifImporter.DEFAULT_BATCH_SIZE;
+
+    @Parameter(names = { "--print-imported-entries", "-pie" }, description = "prints the imported LDIF entries to the standard output")
+    private boolean printImportedEntries;
+
+    @Parameter(names = { "--key-derivation-threads" }, description = "takes number of threads used to derive Kerberos keys during the LDIF import (0 means number of available processors)")
+    private int keyDerivationThreads;
+
+    @Parameter(names = { "--cache-size" }, description = "takes [cacheName=maxEntries] as argument and sets the size of the named directory cache (e.g. dnCache, entryDn, alias, piar). Can be used multiple times.")
+    private List<String> cacheSizes = new ArrayList<>();
+
+    @Parameter(names = { "--cache-default-size" }, description = "takes maximal number of entries in the directory caches without explicit size as argument")
+    private int cacheDefaultSize = InMemoryDirectoryServiceFactory.DEFAULT_CACHE_SIZE;
+
+    @Parameter(names = { "--cache-eviction" }, description = "takes the eviction [policy] of the directory caches as argument")
+    private CacheEvictionPolicy cacheEviction = CacheEvictionPolicy.LRU;
+
+    @Parameter(names = { "--cache-ttl" }, description = "takes the time to live (in seconds) of the directory cache entries as argument (0 means no expiration)")
+    private int cacheTtl;
+
+    @Parameter(names = { "--metrics" }, description = "enables the KDC and LDAP request metrics and publishes them through the JMX MBean 'com.github.kwart.kerberos:type=Metrics,port=[kerberosPort]'")
+    private boolean metrics;
+
+    @Parameter(names = { "--metrics-http-port" }, description = "takes [port] number as argument and publishes the metrics in the Prometheus text format on http://[bindAddress]:[port]/metrics (implies --metrics)")
+    private Integer metricsHttpPort;
+
     public boolean isHelp() {
         return help;
     }
@@ -180,6 +334,14 @@ public class KerberosOptions {
         this.kerberosRealm = kerberosRealm;
     }
 
+    public List<String> getAdditionalRealms() {
+        return additionalRealms;
+    }
+
+    public void setAdditionalRealms(List<String> additionalRealms) {
+        this.additionalRealms = additionalRealms;
+    }
+
     public List<Path> getLdifFiles() {
         return ldifFiles;
     }
@@ -192,6 +354,246 @@ public class KerberosOptions {
         this.disableReplayCache = disableReplayCache;
     }
 
+    public ReplayCacheType getReplayCacheType() {
+        return replayCacheType;
+    }
+
+    public void setReplayCacheType(ReplayCacheType replayCacheType) {
+        this.replayCacheType = replayCacheType;
+    }
+
+    public int getReplayCacheWindow() {
+        return replayCacheWindow;
+    }
+
+    public void setReplayCacheWindow(int replayCacheWindow) {
+        this.replayCacheWindow = replayCacheWindow;
+    }
+
+    public int getReplayCacheSize() {
+        return replayCacheSize;
+    }
+
+    public void setReplayCacheSize(int replayCacheSize) {
+        this.replayCacheSize = replayCacheSize;
+    }
+
+    public int getImportBatchSize() {
+        return importBatchSize;
+    }
+
+    public void setImportBatchSize(int importBatchSize) {
+        this.importBatchSize = importBatchSize;
+    }
+
+    public boolean isPrintImportedEntries() {
+        return printImportedEntries;
+    }
+
+    public void setPrintImportedEntries(boolean printImportedEntries) {
+        this.printImportedEntries = printImportedEntries;
+    }
+
+    public int getKeyDerivationThreads() {
+        return keyDerivationThreads;
+    }
+
+    public void setKeyDerivationThreads(int keyDerivationThreads) {
+        this.keyDerivationThreads = keyDerivationThreads;
+    }
+
+    public boolean isDisablePrincipalIndex() {
+        return disablePrincipalIndex;
+    }
+
+    public void setDisablePrincipalIndex(boolean disablePrincipalIndex) {
+        this.disablePrincipalIndex = disablePrincipalIndex;
+    }
+
+    public List<String> getCacheSizes() {
+        return cacheSizes;
+    }
+
+    public void setCacheSizes(List<String> cacheSizes) {
+        this.cacheSizes = cacheSizes;
+    }
+
+    public int getCacheDefaultSize() {
+        return cacheDefaultSize;
+    }
+
+    public void setCacheDefaultSize(int cacheDefaultSize) {
+        this.cacheDefaultSize = cacheDefaultSize;
+    }
+
+    public CacheEvictionPolicy getCacheEviction() {
+        return cacheEviction;
+    }
+
+    public void setCacheEviction(CacheEvictionPolicy cacheEviction) {
+        this.cacheEviction = cacheEviction;
+    }
+
+    public int getCacheTtl() {
+        return cacheTtl;
+    }
+
+    public void setCacheTtl(int cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public boolean isMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(boolean metrics) {
+        this.metrics = metrics;
+    }
+
+    public Integer getMetricsHttpPort() {
+        return metricsHttpPort;
+    }
+
+    public void setMetricsHttpPort(Integer metricsHttpPort) {
+        this.metricsHttpPort = metricsHttpPort;
+    }
+
+    public PartitionType getPartitionType() {
+        return partitionType;
+    }
+
+    public void setPartitionType(PartitionType partitionType) {
+        this.partitionType = partitionType;
+    }
+
+    public File getDataDir() {
+        return dataDir;
+    }
+
+    public void setDataDir(File dataDir) {
+        this.dataDir = dataDir;
+    }
+
+    public List<String> getIndexedAttributes() {
+        return indexedAttributes;
+    }
+
+    public void setIndexedAttributes(List<String> indexedAttributes) {
+        this.indexedAttributes = indexedAttributes;
+    }
+
+    public int getLdapIoThreads() {
+        return ldapIoThreads;
+    }
+
+    public void setLdapIoThreads(int ldapIoThreads) {
+        this.ldapIoThreads = ldapIoThreads;
+    }
+
+    public int getLdapHandlerThreads() {
+        return ldapHandlerThreads;
+    }
+
+    public void setLdapHandlerThreads(int ldapHandlerThreads) {
+        this.ldapHandlerThreads = ldapHandlerThreads;
+    }
+
+    public int getKdcIoThreads() {
+        return kdcIoThreads;
+    }
+
+    public void setKdcIoThreads(int kdcIoThreads) {
+        this.kdcIoThreads = kdcIoThreads;
+    }
+
+    public int getKdcHandlerThreads() {
+        return kdcHandlerThreads;
+    }
+
+    public void setKdcHandlerThreads(int kdcHandlerThreads) {
+        this.kdcHandlerThreads = kdcHandlerThreads;
+    }
+
+    public int getTcpBacklog() {
+        return tcpBacklog;
+    }
+
+    public void setTcpBacklog(int tcpBacklog) {
+        this.tcpBacklog = tcpBacklog;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public List<String> getKdcEncryptionTypes() {
+        return kdcEncryptionTypes;
+    }
+
+    public void setKdcEncryptionTypes(List<String> kdcEncryptionTypes) {
+        this.kdcEncryptionTypes = kdcEncryptionTypes;
+    }
+
+    public boolean isWatchLdif() {
+        return watchLdif;
+    }
+
+    public void setWatchLdif(boolean watchLdif) {
+        this.watchLdif = watchLdif;
+    }
+
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(boolean snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public int getGeneratePrincipals() {
+        return generatePrincipals;
+    }
+
+    public void setGeneratePrincipals(int generatePrincipals) {
+        this.generatePrincipals = generatePrincipals;
+    }
+
+    public List<String> getPrincipalPatterns() {
+        return principalPatterns;
+    }
+
+    public void setPrincipalPatterns(List<String> principalPatterns) {
+        this.principalPatterns = principalPatterns;
+    }
+
+    public String getPasswordPattern() {
+        return passwordPattern;
+    }
+
+    public void setPasswordPattern(String passwordPattern) {
+        this.passwordPattern = passwordPattern;
+    }
+
+    public List<String> getCcachePrincipals() {
+        return ccachePrincipals;
+    }
+
+    public void setCcachePrincipals(List<String> ccachePrincipals) {
+        this.ccachePrincipals = ccachePrincipals;
+    }
+
+    public File getCcacheDir() {
+        return ccacheDir;
+    }
+
+    public void setCcacheDir(File ccacheDir) {
+        this.ccacheDir = ccacheDir;
+    }
+
     public File getKrb5conf() {
         return krb5conf;
     }
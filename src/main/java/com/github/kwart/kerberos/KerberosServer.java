@@ -4,35 +4,46 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 
 import java.io.File;
-import java.io.StringReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
 
 import org.apache.commons.lang.text.StrSubstitutor;
 import org.apache.directory.api.ldap.model.constants.SupportedSaslMechanisms;
-import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
-import org.apache.directory.api.ldap.model.ldif.LdifEntry;
-import org.apache.directory.api.ldap.model.ldif.LdifReader;
 import org.apache.directory.api.ldap.model.name.Dn;
-import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.FileUtils;
 import org.apache.directory.api.util.IOUtils;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.factory.JdbmPartitionFactory;
 import org.apache.directory.server.core.kerberos.KeyDerivationInterceptor;
-import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
-import org.apache.directory.server.kerberos.KerberosConfig;
-import org.apache.directory.server.kerberos.kdc.KdcServer;
 import org.apache.directory.server.ldap.LdapServer;
 import org.apache.directory.server.ldap.handlers.sasl.cramMD5.CramMd5MechanismHandler;
 import org.apache.directory.server.ldap.handlers.sasl.digestMD5.DigestMd5MechanismHandler;
@@ -40,11 +51,26 @@ import org.apache.directory.server.ldap.handlers.sasl.gssapi.GssapiMechanismHand
 import org.apache.directory.server.ldap.handlers.sasl.ntlm.NtlmMechanismHandler;
 import org.apache.directory.server.ldap.handlers.sasl.plain.PlainMechanismHandler;
 import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.apache.directory.server.protocol.shared.transport.Transport;
 import org.apache.directory.server.protocol.shared.transport.UdpTransport;
+import org.apache.mina.core.service.IoAcceptor;
+import org.apache.mina.core.session.IoEventType;
+import org.apache.mina.filter.executor.ExecutorFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.beust.jcommander.JCommander;
+import com.github.kwart.kerberos.metrics.KdcMetricsFilter;
+import com.github.kwart.kerberos.metrics.LdapMetricsInterceptor;
+import com.github.kwart.kerberos.metrics.MetricsHttpServer;
+import com.github.kwart.kerberos.metrics.MetricsMBean;
+import com.github.kwart.kerberos.metrics.MetricsRegistry;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Status;
+import net.sf.ehcache.statistics.StatisticsGateway;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
 
 /**
  * The Kerberos server.
@@ -54,13 +80,28 @@ public class KerberosServer {
     private static Logger LOGGER = LoggerFactory.getLogger(KerberosServer.class);
 
     private static final String DEFAULT_LDIF_FILENAME = "default.ldif";
+    private static final String DEFAULT_BASE_DN = "dc=kerberos,dc=example";
+    private static final String PARTITIONS_FILENAME = "partitions.txt";
+    private static final String METRICS_MBEAN_NAME = "com.github.kwart.kerberos:type=Metrics,port=";
+    private static final long EXECUTOR_TERMINATION_TIMEOUT_SECONDS = 30;
 
     private final KerberosOptions options;
 
     private final DirectoryService directoryService;
     private final LdapServer ldapServer;
-    private final KdcServer kdcServer;
+    private final List<RealmKdc> realms = new ArrayList<>();
+    private final SnapshotInterceptor snapshotInterceptor;
+    private final CacheManager cacheManager;
+    private final InMemoryDirectoryServiceFactory directoryServiceFactory;
+    private final MetricsRegistry metrics;
+    private ObjectName metricsMBeanName;
+    private MetricsHttpServer metricsHttpServer;
+    private ExecutorService ldapHandlerExecutor;
+    private ExecutorService kdcHandlerExecutor;
+    private final LdifWatcher ldifWatcher;
     private final Map<String, String> replacementMap = new HashMap<>();
+    private final CompletableFuture<String> canonicalHost = new CompletableFuture<>();
+    private final StartupTimings startupTimings = new StartupTimings();
 
     public static void main(String[] args) {
         KerberosOptions opts = new KerberosOptions();
@@ -74,6 +115,16 @@ public class KerberosServer {
         try {
             KerberosServer kerberosServer = new KerberosServer(opts);
             kerberosServer.start();
+            if (opts.getPartitionType() == KerberosOptions.PartitionType.JDBM) {
+                // flush the persistent partitions on exit
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        kerberosServer.stop();
+                    } catch (Exception e) {
+                        LOGGER.warn("Kerberos Server stop failed", e);
+                    }
+                }));
+            }
         } catch (Exception e) {
             LOGGER.error("Kerberos Server start failed", e);
             System.exit(1);
@@ -84,29 +135,158 @@ public class KerberosServer {
         this.options = requireNonNull(options);
         long startTime = System.currentTimeMillis();
         fillReplacementMap();
-        InMemoryDirectoryServiceFactory dsFactory = new InMemoryDirectoryServiceFactory();
-        dsFactory.init("ds");
-
+        resolveCanonicalHost(replacementMap.get("host"));
+        InMemoryDirectoryServiceFactory dsFactory = startupTimings.time("directory-service", this::createDirectoryService);
+        directoryServiceFactory = dsFactory;
+        cacheManager = dsFactory.getCacheManager();
         directoryService = dsFactory.getDirectoryService();
-        KeyDerivationInterceptor keyDerivationInterceptor = new KeyDerivationInterceptor();
+        KeyDerivationInterceptor keyDerivationInterceptor = new BulkKeyDerivationInterceptor();
         keyDerivationInterceptor.init(directoryService);
         directoryService.addLast(keyDerivationInterceptor);
+        snapshotInterceptor = new SnapshotInterceptor();
+        directoryService.addLast(snapshotInterceptor);
+        if (options.isMetrics() || options.getMetricsHttpPort() != null) {
+            metrics = new MetricsRegistry();
+            // the first position in the chain, so the whole operation processing is measured
+            directoryService.addFirst(new LdapMetricsInterceptor(metrics));
+        } else {
+            metrics = null;
+        }
         LOGGER.info("Directory service started in " + (System.currentTimeMillis() - startTime) + "ms");
         directoryService.setAllowAnonymousAccess(options.isAllowAnonymous());
-        importLdif(options.getLdifFiles());
-        String customPassword = options.getAdminPassword();
-        if (customPassword != null) {
-            LOGGER.info("Modifying password for the system account uid=admin,ou=system");
-            Modification replacePwd = new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, "userPassword",
-                    customPassword);
-            Dn adminDn = directoryService.getDnFactory().create("uid=admin,ou=system");
-            directoryService.getAdminSession().modify(adminDn, replacePwd);
-        }
-
-        ldapServer = new org.apache.directory.server.ldap.LdapServer();
-        TcpTransport tcp = new TcpTransport(options.getBindAddress(), options.getLdapPort());
+        List<RealmKdc> additionalRealms = parseAdditionalRealms(options.getAdditionalRealms());
+        // the data import and the admin password change (a single modify) work with different partitions
+        List<Callable<Void>> initTasks = new ArrayList<>();
+        initTasks.add(() -> {
+            // the LDIF files may use ${canonicalhost}
+            replacementMap.put("canonicalhost", getCanonicalHost());
+            startupTimings.time("data", () -> {
+                initData(additionalRealms, dsFactory);
+                return null;
+            });
+            return null;
+        });
+        if (options.getAdminPassword() != null) {
+            initTasks.add(() -> startupTimings.time("admin-password", () -> {
+                changeAdminPassword(options.getAdminPassword());
+                return null;
+            }));
+        }
+        try {
+            invokeAll("kerberos-server-init", initTasks);
+        } catch (Exception e) {
+            // release the partition files of a failed import
+            try {
+                directoryService.shutdown();
+            } catch (Exception shutdownException) {
+                e.addSuppressed(shutdownException);
+            }
+            throw e;
+        }
+        if (options.isSnapshot()) {
+            // the imported data can be restored by resetToSnapshot()
+            snapshotInterceptor.snapshot();
+        }
+
+        if (options.isWatchLdif() && options.getLdifFiles() != null && !options.getLdifFiles().isEmpty()) {
+            ldifWatcher = new LdifWatcher(directoryService, createImporter(replacementMap, null, dsFactory), replacementMap,
+                    options.getLdifFiles(), getKeyDerivationThreads());
+        } else {
+            if (options.isWatchLdif()) {
+                LOGGER.warn("No LDIF file to watch, the default data is used");
+            }
+            ldifWatcher = null;
+        }
+
+        ldapServer = startupTimings.time("transports", () -> createLdapServer());
+        startupTimings.time("realms", () -> {
+            createRealms(additionalRealms);
+            return null;
+        });
+        LOGGER.info("Server created in {}ms ({})", System.currentTimeMillis() - startTime, startupTimings);
+    }
+
+    /**
+     * Resolves the canonical host name in the background, so the reverse DNS lookup (which can be slow) overlaps only the
+     * directory service initialization. The data import waits for the result, the default LDIF uses
+     * <code>${canonicalhost}</code>.
+     */
+    private void resolveCanonicalHost(String host) {
+        Thread thread = new Thread(() -> {
+            try {
+                canonicalHost.complete(startupTimings.time("canonical-host", () -> getCanonicalHost(host)));
+            } catch (Throwable e) {
+                canonicalHost.completeExceptionally(e);
+            }
+        }, "kerberos-canonical-host");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private String getCanonicalHost() throws Exception {
+        try {
+            return canonicalHost.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    private InMemoryDirectoryServiceFactory createDirectoryService() throws Exception {
+        InMemoryDirectoryServiceFactory dsFactory;
+        if (options.getPartitionType() == KerberosOptions.PartitionType.JDBM) {
+            dsFactory = new InMemoryDirectoryServiceFactory(new JdbmPartitionFactory());
+            if (options.getDataDir() != null) {
+                dsFactory.setWorkingDirectory(options.getDataDir());
+            }
+        } else if (options.getPartitionType() == KerberosOptions.PartitionType.OFF_HEAP) {
+            dsFactory = new InMemoryDirectoryServiceFactory(new OffHeapPartitionFactory());
+        } else {
+            dsFactory = new InMemoryDirectoryServiceFactory();
+        }
+        dsFactory.setDefaultCacheSize(options.getCacheDefaultSize());
+        dsFactory.setCacheSizes(parseCacheSizes(options.getCacheSizes()));
+        dsFactory.setCacheEvictionPolicy(MemoryStoreEvictionPolicy.fromString(options.getCacheEviction().name()));
+        dsFactory.setCacheTimeToLive(options.getCacheTtl());
+        dsFactory.init("ds");
+        return dsFactory;
+    }
+
+    /**
+     * Imports the LDIF data or reopens the persistent partitions.
+     */
+    private void initData(List<RealmKdc> additionalRealms, InMemoryDirectoryServiceFactory dsFactory) throws Exception {
+        File dataDir = options.getPartitionType() == KerberosOptions.PartitionType.JDBM ? options.getDataDir() : null;
+        File partitionsFile = dataDir != null ? new File(dataDir, PARTITIONS_FILENAME) : null;
+        if (partitionsFile != null && partitionsFile.exists()) {
+            reopenPartitions(partitionsFile.toPath(), dsFactory);
+        } else {
+            if (partitionsFile != null) {
+                removeUnfinishedPartitions();
+            }
+            importLdif(options.getLdifFiles(), additionalRealms, dsFactory);
+            if (partitionsFile != null) {
+                savePartitions(partitionsFile.toPath());
+            }
+        }
+        dsFactory.configureCaches();
+    }
+
+    private void changeAdminPassword(String customPassword) throws Exception {
+        LOGGER.info("Modifying password for the system account uid=admin,ou=system");
+        Modification replacePwd = new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, "userPassword",
+                customPassword);
+        Dn adminDn = directoryService.getDnFactory().create("uid=admin,ou=system");
+        directoryService.getAdminSession().modify(adminDn, replacePwd);
+    }
+
+    private LdapServer createLdapServer() {
+        LdapServer ldapServer = new HandlerExecutorLdapServer(() -> ldapHandlerExecutor);
+        TcpTransport tcp = new TcpTransport(options.getBindAddress(), options.getLdapPort(), options.getLdapIoThreads(),
+                options.getTcpBacklog());
         if (options.getLdapTlsPort() != null) {
-            TcpTransport ldapsTcp = new TcpTransport(options.getBindAddress(), options.getLdapTlsPort());
+            TcpTransport ldapsTcp = new TcpTransport(options.getBindAddress(), options.getLdapTlsPort(),
+                    options.getLdapIoThreads(), options.getTcpBacklog());
             ldapsTcp.setEnableSSL(true);
             ldapsTcp.setEnabledProtocols(options.getLdapTlsProtocols());
             ldapsTcp.setEnabledCiphers(options.getLdapTlsCipherSuites());
@@ -129,31 +309,25 @@ public class KerberosServer {
         ldapServer.addSaslMechanismHandler(SupportedSaslMechanisms.GSSAPI, new GssapiMechanismHandler());
         ldapServer.addSaslMechanismHandler(SupportedSaslMechanisms.NTLM, new NtlmMechanismHandler());
         ldapServer.addSaslMechanismHandler(SupportedSaslMechanisms.GSS_SPNEGO, new NtlmMechanismHandler());
+        return ldapServer;
+    }
 
-        kdcServer = new KdcServer();
-        kdcServer.setServiceName("KerberosServer");
-        kdcServer.setSearchBaseDn(getPartitionName());
-        KerberosConfig config = kdcServer.getConfig();
-        String realm = options.getKerberosRealm();
-        config.setServicePrincipal("krbtgt/" + realm + "@" + realm);
-        config.setPrimaryRealm(realm);
-        config.setMaximumTicketLifetime(TimeUnit.DAYS.toMillis(1));
-        config.setMaximumRenewableLifetime(TimeUnit.DAYS.toMillis(7));
-
-        config.setPaEncTimestampRequired(false);
-
-        kdcServer.addTransports(new UdpTransport(options.getBindAddress(), options.getKerberosPort()),
-                new TcpTransport(options.getBindAddress(), options.getKerberosPort()));
-        kdcServer.setDirectoryService(directoryService);
-
-        File krb5conf = options.getKrb5conf();
-        if (krb5conf != null) {
-            if (krb5conf.isDirectory()) {
-                krb5conf = new File(krb5conf, "krb5.conf");
+    private void createRealms(List<RealmKdc> additionalRealms) {
+        realms.add(new RealmKdc(options, options.getKerberosRealm(), options.getKerberosPort(),
+                getMainBaseDn(additionalRealms), directoryService));
+        realms.addAll(additionalRealms);
+        if (options.getKdcHandlerThreads() > 0 || options.isVirtualThreads()) {
+            // before the metrics filter, it pairs the request and the reply in the handling thread
+            for (RealmKdc realmKdc : realms) {
+                realmKdc.getKdcServer().addFilter("executor",
+                        transport -> new ExecutorFilter(kdcHandlerExecutor, IoEventType.MESSAGE_RECEIVED));
+            }
+        }
+        if (metrics != null) {
+            for (RealmKdc realmKdc : realms) {
+                realmKdc.getKdcServer().addFilter("metrics",
+                        transport -> new KdcMetricsFilter(metrics, realmKdc.getRealm(), getTransportName(transport)));
             }
-            LOGGER.info("Generating kerberos configuration file '{}'", krb5conf.getAbsolutePath());
-            String krb5Source = IOUtils.toString(getClass().getResourceAsStream("/krb5.conf"), UTF_8);
-            Files.write(krb5conf.toPath(), StrSubstitutor.replace(krb5Source, replacementMap).getBytes(UTF_8));
         }
     }
 
@@ -163,24 +337,119 @@ public class KerberosServer {
             host = "127.0.0.1";
         }
         replacementMap.put("host", host);
-        replacementMap.put("canonicalhost", getCanonicalHost(host));
         replacementMap.put("realm", options.getKerberosRealm());
+        replacementMap.put("kdcPort", String.valueOf(options.getKerberosPort()));
+        replacementMap.put("baseDn", DEFAULT_BASE_DN);
+        replacementMap.put("dc", getFirstRdnValue(DEFAULT_BASE_DN));
     }
 
-    private String getPartitionName() {
+    /**
+     * Returns the base DN of the main realm. With custom LDIFs it's the first data partition not used by an additional realm,
+     * so it can be resolved only after the import.
+     */
+    private String getMainBaseDn(List<RealmKdc> additionalRealms) {
+        if (options.getLdifFiles() == null || options.getLdifFiles().isEmpty()) {
+            return DEFAULT_BASE_DN;
+        }
+        Set<String> excludedPartitions = new HashSet<>();
+        for (RealmKdc realmKdc : additionalRealms) {
+            excludedPartitions.add(realmKdc.getBaseDn());
+        }
+        return getPartitionName(excludedPartitions);
+    }
+
+    private String getPartitionName(Set<String> excludedPartitions) {
         for (Partition partition : directoryService.getPartitions()) {
             String name = partition.getSuffixDn().getName();
-            if (!"ou=schema".equals(name)) {
+            if (!"ou=schema".equals(name) && !"ou=system".equals(name) && !excludedPartitions.contains(name)) {
                 return name;
             }
         }
         return "ou=schema";
     }
 
+    /**
+     * Parses the additional realms in format {@code REALM.NAME:kdcPort[:baseDn]}.
+     */
+    private List<RealmKdc> parseAdditionalRealms(List<String> realmSpecs) {
+        List<RealmKdc> result = new ArrayList<>();
+        if (realmSpecs == null) {
+            return result;
+        }
+        Set<String> realmNames = new HashSet<>();
+        Set<Integer> ports = new HashSet<>();
+        realmNames.add(options.getKerberosRealm());
+        ports.add(options.getKerberosPort());
+        // the port 0 means an ephemeral port, it can be used by more realms
+        ports.remove(0);
+        for (String realmSpec : realmSpecs) {
+            String[] parts = realmSpec.split(":", 3);
+            if (parts.length < 2 || parts[0].isEmpty()) {
+                throw new IllegalArgumentException(
+                        "Additional realm has to be in format REALM.NAME:kdcPort[:baseDn]: " + realmSpec);
+            }
+            String realm = parts[0];
+            int port = Integer.parseInt(parts[1]);
+            String baseDn = parts.length > 2 ? parts[2] : RealmKdc.getDefaultBaseDn(realm);
+            if (!realmNames.add(realm)) {
+                throw new IllegalArgumentException("Realm is configured more than once: " + realm);
+            }
+            if (port != 0 && !ports.add(port)) {
+                throw new IllegalArgumentException("KDC port is used by more realms: " + port);
+            }
+            result.add(new RealmKdc(options, realm, port, baseDn, directoryService));
+        }
+        return result;
+    }
+
+    /**
+     * Creates a new builder for embedding the server.
+     */
+    public static KerberosServerBuilder builder() {
+        return new KerberosServerBuilder();
+    }
+
+    /**
+     * Starts the LDAP server and the KDCs. The transports are started in parallel. When the port 0 is configured, the
+     * servers are bound to ephemeral ports (see {@link #getLdapPort()} and {@link RealmKdc#getPort()}) and the generated
+     * <code>krb5.conf</code> contains the bound ports.
+     */
     public void start() throws Exception {
         long startTime = System.currentTimeMillis();
-        ldapServer.start();
-        kdcServer.start();
+        if (options.getKdcHandlerThreads() > 0 || options.isVirtualThreads()) {
+            kdcHandlerExecutor = HandlerExecutors.create("kdc-handler", options.getKdcHandlerThreads(),
+                    options.isVirtualThreads());
+        }
+        if (options.getLdapHandlerThreads() > 0 || options.isVirtualThreads()) {
+            // installed by the LDAP server before the transports are bound
+            ldapHandlerExecutor = HandlerExecutors.create("ldap-handler", options.getLdapHandlerThreads(),
+                    options.isVirtualThreads());
+        }
+        List<Callable<Void>> startTasks = new ArrayList<>();
+        startTasks.add(() -> {
+            ldapServer.start();
+            return null;
+        });
+        for (RealmKdc realmKdc : realms) {
+            startTasks.add(() -> {
+                realmKdc.start();
+                return null;
+            });
+        }
+        startupTimings.time("bind", () -> {
+            invokeAll("kerberos-server-start", startTasks);
+            return null;
+        });
+        writeKrb5Conf();
+        if (ldifWatcher != null) {
+            ldifWatcher.start();
+        }
+        if (!options.getCcachePrincipals().isEmpty()) {
+            startupTimings.time("ccaches", () -> writeCredentialsCaches(getCcacheDir(), options.getCcachePrincipals()));
+        }
+        if (metrics != null) {
+            startMetrics();
+        }
 
         LOGGER.info("You can connect to the server now");
         final String host;
@@ -190,63 +459,493 @@ public class KerberosServer {
             host = options.getBindAddress();
         }
         String formattedHost = formatPossibleIpv6(host);
-        String formattedCanonicalHost = formatPossibleIpv6(getCanonicalHost(host));
-        LOGGER.info("Kerberos:  " + formattedHost + ":" + options.getKerberosPort());
-        LOGGER.info("LDAP URL:  ldap://" + formattedCanonicalHost + ":" + options.getLdapPort());
+        String formattedCanonicalHost = formatPossibleIpv6(replacementMap.get("canonicalhost"));
+        for (RealmKdc realmKdc : realms) {
+            LOGGER.info("Kerberos:  " + formattedHost + ":" + realmKdc.getPort() + " (" + realmKdc.getRealm() + ")");
+        }
+        LOGGER.info("LDAP URL:  ldap://" + formattedCanonicalHost + ":" + getLdapPort());
         if (options.getLdapTlsPort() != null) {
-            LOGGER.info("           ldaps://" + formattedCanonicalHost + ":" + options.getLdapTlsPort());
+            LOGGER.info("           ldaps://" + formattedCanonicalHost + ":" + getLdapTlsPort());
+        }
+        if (metricsHttpServer != null) {
+            LOGGER.info("Metrics:   http://" + formattedHost + ":" + metricsHttpServer.getAddress().getPort()
+                    + MetricsHttpServer.PATH);
         }
         LOGGER.info("User DN:   uid=admin,ou=system");
         LOGGER.info("Password:  " + (options.getAdminPassword() != null ? "***" : "secret"));
         LOGGER.info("Servers started in " + (System.currentTimeMillis() - startTime) + "ms");
+        LOGGER.debug("Startup phases: {}", startupTimings);
+    }
+
+    /**
+     * Returns durations (in milliseconds) of the finished startup phases in the order they finished. The phases of the
+     * server creation are {@code directory-service}, {@code canonical-host} (resolved in the background),
+     * {@code data} (LDIF import or reopening the persistent partitions), {@code admin-password}, {@code transports} and
+     * {@code realms}. The {@link #start()} adds the {@code bind} phase (and {@code ccaches} when the credential caches are
+     * written).
+     */
+    public Map<String, Long> getStartupTimings() {
+        return startupTimings.getPhases();
+    }
+
+    /**
+     * Runs the tasks in parallel and waits for all of them. The first failure is rethrown.
+     */
+    private static void invokeAll(String threadName, List<Callable<Void>> tasks) throws Exception {
+        if (tasks.size() == 1) {
+            tasks.get(0).call();
+            return;
+        }
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size(), r -> {
+            Thread thread = new Thread(r, threadName + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Returns the LDAP port. When the port 0 is configured, it's the bound port after the server start.
+     */
+    public int getLdapPort() {
+        return getBoundPort(ldapServer.getTransports()[0]);
+    }
+
+    /**
+     * Returns the LDAPS port (or {@code null} when LDAPS is not enabled). When the port 0 is configured, it's the bound port
+     * after the server start.
+     */
+    public Integer getLdapTlsPort() {
+        Transport[] transports = ldapServer.getTransports();
+        return transports.length > 1 ? getBoundPort(transports[1]) : null;
+    }
+
+    /**
+     * Returns the KDC port of the main realm. When the port 0 is configured, it's the bound port after the server start.
+     */
+    public int getKerberosPort() {
+        return realms.get(0).getPort();
+    }
 
+    private static int getBoundPort(Transport transport) {
+        IoAcceptor acceptor = transport.getAcceptor();
+        if (acceptor != null && acceptor.getLocalAddress() instanceof InetSocketAddress) {
+            return ((InetSocketAddress) acceptor.getLocalAddress()).getPort();
+        }
+        return transport.getPort();
     }
 
+    /**
+     * Returns the <code>krb5.conf</code> content for the served realms. The content is generated with the bound ports
+     * once the server is started.
+     */
+    public String getKrb5Conf() throws IOException {
+        String krb5Source = IOUtils.toString(getClass().getResourceAsStream("/krb5.conf"), UTF_8);
+        Map<String, String> krb5Replacements = new HashMap<>(replacementMap);
+        krb5Replacements.put("kdcPort", String.valueOf(getKerberosPort()));
+        StringBuilder realmsConf = new StringBuilder();
+        for (RealmKdc realmKdc : realms.subList(1, realms.size())) {
+            realmsConf.append("    ").append(realmKdc.getRealm()).append(" = {\n        kdc = ")
+                    .append(replacementMap.get("host")).append(":").append(realmKdc.getPort()).append("\n    }\n");
+        }
+        krb5Replacements.put("additionalRealms", realmsConf.toString());
+        return StrSubstitutor.replace(krb5Source, krb5Replacements);
+    }
+
+    private void writeKrb5Conf() throws IOException {
+        File krb5conf = options.getKrb5conf();
+        if (krb5conf != null) {
+            if (krb5conf.isDirectory()) {
+                krb5conf = new File(krb5conf, "krb5.conf");
+            }
+            LOGGER.info("Generating kerberos configuration file '{}'", krb5conf.getAbsolutePath());
+            Files.write(krb5conf.toPath(), getKrb5Conf().getBytes(UTF_8));
+        }
+    }
+
+    /**
+     * Returns the directory for the credential caches written during the start: the configured one, or the directory of the
+     * generated <code>krb5.conf</code>, or the working directory.
+     */
+    private File getCcacheDir() {
+        if (options.getCcacheDir() != null) {
+            return options.getCcacheDir();
+        }
+        File krb5conf = options.getKrb5conf();
+        if (krb5conf == null) {
+            return new File(".");
+        }
+        return krb5conf.isDirectory() ? krb5conf : krb5conf.getAbsoluteFile().getParentFile();
+    }
+
+    /**
+     * Writes credential caches with TGTs of the given principals. The tickets are issued by the realm KDCs directly (see
+     * {@link RealmKdc#issueTicketGrantingTicket(String)}), so the clients using the caches (e.g.
+     * <code>KRB5CCNAME=FILE:/tmp/krb5cc_hnelson@KERBEROS.EXAMPLE</code>) skip the AS exchange.
+     *
+     * @param directory the output directory, the cache files are named <code>krb5cc_[principal]</code> (with the '/'
+     *        characters replaced by '_')
+     * @param principals principal names which may contain the '*' wildcards, the main realm is used when no realm is provided
+     * @return the written files
+     */
+    public List<File> writeCredentialsCaches(File directory, Collection<String> principals) throws Exception {
+        long startTime = System.currentTimeMillis();
+        Files.createDirectories(directory.toPath());
+        List<File> files = new ArrayList<>();
+        for (String principal : principals) {
+            if (principal.indexOf('@') < 0) {
+                principal = principal + "@" + realms.get(0).getRealm();
+            }
+            RealmKdc realmKdc = getRealm(principal.substring(principal.lastIndexOf('@') + 1));
+            List<String> principalNames = principal.indexOf('*') < 0 ? Collections.singletonList(principal)
+                    : ExportKeytab.findPrincipals(directoryService, realmKdc.getBaseDn(), principal);
+            for (String principalName : principalNames) {
+                File file = new File(directory, "krb5cc_" + principalName.replace('/', '_'));
+                CredentialsCacheWriter.write(file, realmKdc.issueTicketGrantingTicket(principalName));
+                files.add(file);
+            }
+        }
+        LOGGER.info("Credential caches of {} principals written to '{}' in {}ms", files.size(), directory.getAbsolutePath(),
+                System.currentTimeMillis() - startTime);
+        return files;
+    }
+
+    private RealmKdc getRealm(String realm) {
+        for (RealmKdc realmKdc : realms) {
+            if (realmKdc.getRealm().equals(realm)) {
+                return realmKdc;
+            }
+        }
+        throw new IllegalArgumentException("Unknown realm " + realm);
+    }
+
+    /**
+     * Stops the servers. The handler executors owned by this server are terminated before the method returns.
+     */
     public void stop() throws Exception {
-        kdcServer.stop();
+        if (ldifWatcher != null) {
+            ldifWatcher.close();
+        }
+        if (metricsHttpServer != null) {
+            metricsHttpServer.close();
+            metricsHttpServer = null;
+        }
+        if (metricsMBeanName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsMBeanName);
+            metricsMBeanName = null;
+        }
+        for (RealmKdc realmKdc : realms) {
+            realmKdc.stop();
+        }
+        if (LOGGER.isDebugEnabled()) {
+            logCacheStatistics();
+        }
         ldapServer.stop();
+        shutdownExecutor(ldapHandlerExecutor);
+        ldapHandlerExecutor = null;
+        shutdownExecutor(kdcHandlerExecutor);
+        kdcHandlerExecutor = null;
         directoryService.shutdown();
     }
 
+    private static void shutdownExecutor(ExecutorService executor) throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown();
+            if (!executor.awaitTermination(EXECUTOR_TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("Handler executor was not terminated in {}s, interrupting the running tasks",
+                        EXECUTOR_TERMINATION_TIMEOUT_SECONDS);
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    public DirectoryService getDirectoryService() {
+        return directoryService;
+    }
+
     /**
-     * Imports given LDIF file to the directory using given directory service and schema manager.
+     * Takes a snapshot of the directory content and starts journaling the changes. With {@link KerberosOptions#isSnapshot()}
+     * the snapshot of the imported data is taken when the server is created, so this method is only needed when a different
+     * state should be restored by {@link #resetToSnapshot()}. The original versions of the entries changed after the
+     * snapshot are kept on the heap until the next snapshot or reset.
      */
-    private void importLdif(List<Path> ldifFiles) throws Exception {
-        if (ldifFiles == null || ldifFiles.isEmpty()) {
-            LOGGER.info("Importing default data\n");
-            importLdif(IOUtils.toString(getClass().getResourceAsStream("/" + DEFAULT_LDIF_FILENAME), UTF_8));
-        } else {
-            for (Path ldifFile : ldifFiles) {
-                LOGGER.info("Importing " + ldifFile + "\n");
-                importLdif(new String(Files.readAllBytes(ldifFile), UTF_8));
+    public void snapshot() {
+        snapshotInterceptor.snapshot();
+    }
+
+    /**
+     * Reverts all the directory changes done since the last snapshot. Only the changed entries are restored, so the reset is
+     * cheap (e.g. between tests).
+     *
+     * @throws IllegalStateException when no snapshot was taken
+     */
+    public void resetToSnapshot() throws Exception {
+        long startTime = System.currentTimeMillis();
+        List<Dn> dns = snapshotInterceptor.reset();
+        for (RealmKdc realmKdc : realms) {
+            realmKdc.refreshPrincipals(dns);
+        }
+        LOGGER.debug("Directory reset to the snapshot ({} entries) in {}ms", dns.size(),
+                System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Writes a keytab with the keys stored in the directory, i.e. no passphrase is needed and the keys are not derived
+     * again.
+     *
+     * @param keytabFile the output keytab file
+     * @param baseDn base DN of the exported subtree ({@code null} means the main realm base DN)
+     * @param principalPattern principal name which may contain the '*' wildcards ({@code null} means all principals)
+     * @return number of exported principals
+     */
+    public long exportKeytab(File keytabFile, String baseDn, String principalPattern) throws Exception {
+        return ExportKeytab.export(directoryService, baseDn != null ? baseDn : realms.get(0).getBaseDn(), principalPattern,
+                keytabFile);
+    }
+
+    /**
+     * Applies an LDIF file to the running server. Besides the content and add records, the file can contain modify, delete
+     * and moddn/modrdn change records, they are applied in the file order. The <code>${variable}</code> placeholders are
+     * replaced the same way as in the imported LDIFs.
+     *
+     * @param ldifFile UTF-8 encoded LDIF
+     * @return statistics with the counters per change type
+     */
+    public LdifImporter.ImportStats applyLdif(Path ldifFile) throws Exception {
+        try (ParallelKeyDerivation keyDerivation = new ParallelKeyDerivation(getKeyDerivationThreads())) {
+            return createImporter(replacementMap, keyDerivation, directoryServiceFactory)
+                    .importLdif(Files.newInputStream(ldifFile), ldifFile.toString());
+        }
+    }
+
+    /**
+     * Returns the served realms. The first one is the main realm (see {@link KerberosOptions#getKerberosRealm()}).
+     */
+    public List<RealmKdc> getRealms() {
+        return Collections.unmodifiableList(realms);
+    }
+
+    /**
+     * Returns the metrics registry or {@code null} when the metrics are not enabled.
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    private void startMetrics() throws Exception {
+        registerConnectionGauges("ldap", ldapServer.getTransports());
+        registerCacheMetrics();
+        for (RealmKdc realmKdc : realms) {
+            ConfigurableKdcServer kdcServer = realmKdc.getKdcServer();
+            registerConnectionGauges("kdc", kdcServer.getTransports());
+            if (kdcServer.getReplayCache() instanceof StripedReplayCache) {
+                StripedReplayCache replayCache = (StripedReplayCache) kdcServer.getReplayCache();
+                metrics.gauge("kerberos_kdc_replay_cache_entries", "Number of authenticators in the KDC replay cache",
+                        "realm=\"" + realmKdc.getRealm() + "\"", replayCache::size);
             }
         }
+        ObjectName mbeanName = new ObjectName(METRICS_MBEAN_NAME + getKerberosPort());
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(metrics), mbeanName);
+        metricsMBeanName = mbeanName;
+        if (options.getMetricsHttpPort() != null) {
+            metricsHttpServer = new MetricsHttpServer(metrics, options.getBindAddress(), options.getMetricsHttpPort());
+        }
     }
 
-    private void importLdif(String ldifSource) throws Exception {
-        String ldifContent = StrSubstitutor.replace(ldifSource, replacementMap);
-        SchemaManager schemaManager = directoryService.getSchemaManager();
-        try (LdifReader ldifReader = new LdifReader(new StringReader(ldifContent))) {
-            for (LdifEntry ldifEntry : ldifReader) {
-                checkPartition(ldifEntry);
-                System.out.print(ldifEntry.toString());
-                directoryService.getAdminSession().add(new DefaultEntry(schemaManager, ldifEntry.getEntry()));
+    private void registerCacheMetrics() {
+        for (String cacheName : cacheManager.getCacheNames()) {
+            Cache cache = cacheManager.getCache(cacheName);
+            String labels = "cache=\"" + cacheName + "\"";
+            metrics.counter("kerberos_cache_hits_total", "Number of the directory cache hits", labels,
+                    () -> cache.getStatistics().cacheHitCount());
+            metrics.counter("kerberos_cache_misses_total", "Number of the directory cache misses", labels,
+                    () -> cache.getStatistics().cacheMissCount());
+            metrics.counter("kerberos_cache_evictions_total", "Number of entries evicted from the directory cache", labels,
+                    () -> cache.getStatistics().cacheEvictedCount());
+            metrics.gauge("kerberos_cache_entries", "Number of entries in the directory cache", labels,
+                    () -> cache.getStatistics().getSize());
+        }
+    }
+
+    private void logCacheStatistics() {
+        for (String cacheName : cacheManager.getCacheNames()) {
+            Cache cache = cacheManager.getCache(cacheName);
+            if (cache != null && cache.getStatus() == Status.STATUS_ALIVE) {
+                StatisticsGateway statistics = cache.getStatistics();
+                LOGGER.debug("Cache {}: size={}, maxEntries={}, hits={}, misses={}, evictions={}", cacheName,
+                        statistics.getSize(), cache.getCacheConfiguration().getMaxEntriesLocalHeap(),
+                        statistics.cacheHitCount(), statistics.cacheMissCount(), statistics.cacheEvictedCount());
             }
         }
     }
 
-    private void checkPartition(LdifEntry ldifEntry) throws Exception {
-        Dn dn = ldifEntry.getDn();
-        Dn parent = dn.getParent();
-        try {
-            directoryService.getAdminSession().exists(parent);
-        } catch (Exception e) {
-            LOGGER.info("Creating new partition for DN=" + dn + "\n");
-            AvlPartition partition = new AvlPartition(directoryService.getSchemaManager());
-            partition.setId(dn.getName());
-            partition.setSuffixDn(dn);
-            directoryService.addPartition(partition);
+    private static Map<String, Integer> parseCacheSizes(List<String> cacheSizes) {
+        Map<String, Integer> result = new HashMap<>();
+        if (cacheSizes != null) {
+            for (String cacheSize : cacheSizes) {
+                int pos = cacheSize.indexOf('=');
+                if (pos < 0) {
+                    throw new IllegalArgumentException("Cache size has to be in format cacheName=maxEntries: " + cacheSize);
+                }
+                result.put(cacheSize.substring(0, pos), Integer.valueOf(cacheSize.substring(pos + 1)));
+            }
+        }
+        return result;
+    }
+
+    private void registerConnectionGauges(String server, Transport[] transports) {
+        for (Transport transport : transports) {
+            metrics.gauge("kerberos_connections", "Number of the open connections (UDP sessions for the udp transport)",
+                    "server=\"" + server + "\",transport=\"" + getTransportName(transport) + "\",port=\""
+                            + getBoundPort(transport) + "\"",
+                    () -> {
+                        IoAcceptor acceptor = transport.getAcceptor();
+                        return acceptor != null ? acceptor.getManagedSessionCount() : 0L;
+                    });
+        }
+    }
+
+    private static String getTransportName(Transport transport) {
+        if (transport instanceof UdpTransport) {
+            return "udp";
+        }
+        return transport.isSSLEnabled() ? "tls" : "tcp";
+    }
+
+    /**
+     * Imports given LDIF files to the directory. The default LDIF is used when no file is provided, it's imported for the main
+     * realm and for each of the additional realms (under the realm base DN).
+     */
+    private void importLdif(List<Path> ldifFiles, List<RealmKdc> additionalRealms, InMemoryDirectoryServiceFactory dsFactory)
+            throws Exception {
+        try (ParallelKeyDerivation keyDerivation = new ParallelKeyDerivation(getKeyDerivationThreads())) {
+            LdifImporter importer = createImporter(replacementMap, keyDerivation, dsFactory);
+            if (ldifFiles == null || ldifFiles.isEmpty()) {
+                LOGGER.info("Importing default data");
+                importer.importLdif(getClass().getResourceAsStream("/" + DEFAULT_LDIF_FILENAME), DEFAULT_LDIF_FILENAME);
+                for (RealmKdc realmKdc : additionalRealms) {
+                    LOGGER.info("Importing default data for realm " + realmKdc.getRealm());
+                    Map<String, String> realmReplacements = new HashMap<>(replacementMap);
+                    realmReplacements.put("realm", realmKdc.getRealm());
+                    realmReplacements.put("kdcPort", String.valueOf(realmKdc.getPort()));
+                    realmReplacements.put("baseDn", realmKdc.getBaseDn());
+                    realmReplacements.put("dc", getFirstRdnValue(realmKdc.getBaseDn()));
+                    createImporter(realmReplacements, keyDerivation, dsFactory).importLdif(
+                            getClass().getResourceAsStream("/" + DEFAULT_LDIF_FILENAME), DEFAULT_LDIF_FILENAME);
+                }
+            } else {
+                for (Path ldifFile : ldifFiles) {
+                    LOGGER.info("Importing " + ldifFile);
+                    importer.importLdif(Files.newInputStream(ldifFile), ldifFile.toString());
+                }
+            }
+            if (options.getGeneratePrincipals() > 0) {
+                generatePrincipals(importer, additionalRealms);
+            }
+        }
+    }
+
+    /**
+     * Generates the synthetic principals of the main realm configured by {@link KerberosOptions#getGeneratePrincipals()}.
+     */
+    private void generatePrincipals(LdifImporter importer, List<RealmKdc> additionalRealms) throws Exception {
+        List<String> patterns = options.getPrincipalPatterns();
+        if (patterns == null || patterns.isEmpty()) {
+            patterns = Collections.singletonList(PrincipalGenerator.DEFAULT_PRINCIPAL_PATTERN);
+        }
+        // check all the patterns before the first principal is generated
+        for (String pattern : patterns) {
+            if (options.getGeneratePrincipals() > 1 && !pattern.contains(PrincipalGenerator.PLACEHOLDER_NUMBER)) {
+                throw new IllegalArgumentException("Principal pattern '" + pattern + "' has to contain the "
+                        + PrincipalGenerator.PLACEHOLDER_NUMBER + " placeholder when more than one principal is generated");
+            }
         }
+        PrincipalGenerator generator = new PrincipalGenerator(directoryService, importer, getMainBaseDn(additionalRealms),
+                options.getKerberosRealm());
+        for (String pattern : patterns) {
+            generator.generate(pattern, options.getPasswordPattern(), options.getGeneratePrincipals());
+        }
+    }
+
+    /**
+     * Stores the suffixes of the data partitions, so they can be reopened on the next start.
+     */
+    private void savePartitions(Path partitionsFile) throws Exception {
+        List<String> suffixes = new ArrayList<>();
+        for (Partition partition : directoryService.getPartitions()) {
+            String name = partition.getSuffixDn().getName();
+            if (!"ou=schema".equals(name) && !"ou=system".equals(name)) {
+                suffixes.add(name);
+            }
+        }
+        Files.write(partitionsFile, suffixes, UTF_8);
+    }
+
+    /**
+     * Removes the data partition files left by an import which didn't finish (the partitions file is written after a
+     * successful import), so the LDIFs are imported into empty partitions.
+     */
+    private void removeUnfinishedPartitions() throws IOException {
+        File[] partitionDirectories = directoryService.getInstanceLayout().getPartitionsDirectory()
+                .listFiles(File::isDirectory);
+        if (partitionDirectories == null) {
+            return;
+        }
+        for (File partitionDirectory : partitionDirectories) {
+            if (!"system".equals(partitionDirectory.getName())) {
+                LOGGER.warn("Removing the partition files of an unfinished import: {}", partitionDirectory);
+                FileUtils.deleteDirectory(partitionDirectory);
+            }
+        }
+    }
+
+    /**
+     * Adds the data partitions stored in the data directory by the previous run.
+     */
+    private void reopenPartitions(Path partitionsFile, InMemoryDirectoryServiceFactory dsFactory) throws Exception {
+        LOGGER.info("Reopening the partitions from " + partitionsFile.getParent());
+        for (String suffix : Files.readAllLines(partitionsFile, UTF_8)) {
+            if (!suffix.trim().isEmpty()) {
+                LdifImporter.createPartition(directoryService, dsFactory.getPartitionFactory(),
+                        directoryService.getDnFactory().create(suffix.trim()), options.getIndexedAttributes());
+            }
+        }
+    }
+
+    private int getKeyDerivationThreads() {
+        int keyDerivationThreads = options.getKeyDerivationThreads();
+        return keyDerivationThreads > 0 ? keyDerivationThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    private LdifImporter createImporter(Map<String, String> replacements, ParallelKeyDerivation keyDerivation,
+            InMemoryDirectoryServiceFactory dsFactory) throws Exception {
+        LdifImporter importer = new LdifImporter(directoryService, replacements);
+        if (options.getPartitionType() != KerberosOptions.PartitionType.AVL) {
+            importer.setPartitionFactory(dsFactory.getPartitionFactory());
+        }
+        importer.setIndexedAttributes(options.getIndexedAttributes());
+        importer.setBatchSize(options.getImportBatchSize());
+        importer.setPrintEntries(options.isPrintImportedEntries());
+        importer.setKeyDerivation(keyDerivation);
+        return importer;
+    }
+
+    private static String getFirstRdnValue(String dn) {
+        int start = dn.indexOf('=') + 1;
+        int end = dn.indexOf(',');
+        return dn.substring(start, end < 0 ? dn.length() : end);
     }
 
     private String formatPossibleIpv6(String host) {
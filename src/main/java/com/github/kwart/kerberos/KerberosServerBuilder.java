@@ -0,0 +1,151 @@
+package com.github.kwart.kerberos;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Fluent builder for embedding the {@link KerberosServer} in tests and applications. Use the port 0 (or
+ * {@link #ephemeralPorts()}) to bind free ports and read the bound ports from the started server.
+ *
+ * <pre>
+ * KerberosServer server = KerberosServer.builder().ephemeralPorts().startAsync().get();
+ * String krb5Conf = server.getKrb5Conf();
+ * </pre>
+ *
+ * @author Josef Cacek
+ */
+public class KerberosServerBuilder {
+
+    private final KerberosOptions options = new KerberosOptions();
+
+    KerberosServerBuilder() {
+    }
+
+    public KerberosServerBuilder bindAddress(String bindAddress) {
+        options.setBindAddress(requireNonNull(bindAddress));
+        return this;
+    }
+
+    public KerberosServerBuilder ldapPort(int ldapPort) {
+        options.setLdapPort(ldapPort);
+        return this;
+    }
+
+    public KerberosServerBuilder kerberosPort(int kerberosPort) {
+        options.setKerberosPort(kerberosPort);
+        return this;
+    }
+
+    /**
+     * Sets the LDAP and the Kerberos port to 0, i.e. free ports are bound when the server starts.
+     */
+    public KerberosServerBuilder ephemeralPorts() {
+        return ldapPort(0).kerberosPort(0);
+    }
+
+    public KerberosServerBuilder realm(String realm) {
+        options.setKerberosRealm(requireNonNull(realm));
+        return this;
+    }
+
+    /**
+     * Adds a realm served by its own KDC (port 0 means an ephemeral port).
+     */
+    public KerberosServerBuilder additionalRealm(String realm, int port) {
+        List<String> realms = new ArrayList<>(options.getAdditionalRealms());
+        realms.add(realm + ":" + port);
+        options.setAdditionalRealms(realms);
+        return this;
+    }
+
+    public KerberosServerBuilder ldif(Path ldifFile) {
+        List<Path> ldifFiles = new ArrayList<>(options.getLdifFiles());
+        ldifFiles.add(requireNonNull(ldifFile));
+        options.setLdifFiles(ldifFiles);
+        return this;
+    }
+
+    public KerberosServerBuilder adminPassword(String adminPassword) {
+        options.setAdminPassword(adminPassword);
+        return this;
+    }
+
+    /**
+     * Sets the file (or directory) where the generated <code>krb5.conf</code> is written when the server starts.
+     */
+    public KerberosServerBuilder krb5Conf(File krb5conf) {
+        options.setKrb5conf(krb5conf);
+        return this;
+    }
+
+    public KerberosServerBuilder metrics(boolean metrics) {
+        options.setMetrics(metrics);
+        return this;
+    }
+
+    /**
+     * Takes a snapshot of the imported data when the server is created, so the later changes can be reverted by
+     * {@link KerberosServer#resetToSnapshot()}.
+     */
+    public KerberosServerBuilder snapshot(boolean snapshot) {
+        options.setSnapshot(snapshot);
+        return this;
+    }
+
+    /**
+     * Customizes the options which don't have a dedicated builder method.
+     */
+    public KerberosServerBuilder options(Consumer<KerberosOptions> customizer) {
+        customizer.accept(options);
+        return this;
+    }
+
+    /**
+     * Creates the server (i.e. imports the LDIF data) without starting it.
+     */
+    public KerberosServer build() throws Exception {
+        return new KerberosServer(options);
+    }
+
+    /**
+     * Creates and starts the server. When the start fails, the server is stopped before the exception is thrown.
+     */
+    public KerberosServer start() throws Exception {
+        KerberosServer server = build();
+        try {
+            server.start();
+        } catch (Throwable e) {
+            try {
+                server.stop();
+            } catch (Throwable stopException) {
+                e.addSuppressed(stopException);
+            }
+            throw e;
+        }
+        return server;
+    }
+
+    /**
+     * Creates and starts the server in a background thread. The returned future completes once all the transports are
+     * bound.
+     */
+    public CompletableFuture<KerberosServer> startAsync() {
+        CompletableFuture<KerberosServer> future = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                future.complete(start());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }, "kerberos-server-starter");
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+}
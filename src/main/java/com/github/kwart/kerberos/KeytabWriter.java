@@ -0,0 +1,149 @@
+package com.github.kwart.kerberos;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.directory.server.kerberos.shared.keytab.Keytab;
+import org.apache.directory.server.kerberos.shared.keytab.KeytabEncoder;
+import org.apache.directory.server.kerberos.shared.keytab.KeytabEntry;
+import org.apache.directory.shared.kerberos.KerberosTime;
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+import org.apache.directory.shared.kerberos.components.EncryptionKey;
+
+/**
+ * Writes keytab entries to a file as the principals are added. The principals are collected in chunks, the keys of a chunk
+ * are derived in parallel and the chunk entries are appended to the file, so the whole keytab is never held in memory.
+ *
+ * @author Josef Cacek
+ */
+public class KeytabWriter implements Closeable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    private static final int PRINCIPAL_TYPE = 1; // KRB5_NT_PRINCIPAL
+
+    private final OutputStream out;
+    private final ParallelKeyDerivation keyDerivation;
+    private final KeytabEncoder encoder = new KeytabEncoder();
+    private final KerberosTime timeStamp = new KerberosTime();
+    private final List<KeytabPrincipalPassphrase> chunk = new ArrayList<>();
+    private final int chunkSize;
+    private long principalCount;
+    private long entryCount;
+
+    /**
+     * Creates the keytab file and writes its header.
+     *
+     * @param keytabFile the keytab file (overwritten when it exists)
+     * @param encryptionTypes encryption types of the generated keys
+     * @param threads number of key derivation threads (0 means number of available processors)
+     */
+    public KeytabWriter(File keytabFile, Set<EncryptionType> encryptionTypes, int threads) throws IOException {
+        this(keytabFile, encryptionTypes, threads, DEFAULT_CHUNK_SIZE);
+    }
+
+    public KeytabWriter(File keytabFile, Set<EncryptionType> encryptionTypes, int threads, int chunkSize)
+            throws IOException {
+        this.chunkSize = Math.max(1, chunkSize);
+        this.keyDerivation = new ParallelKeyDerivation(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(),
+                encryptionTypes);
+        this.out = new BufferedOutputStream(new FileOutputStream(keytabFile));
+        out.write(Keytab.VERSION_0X502_BYTES);
+    }
+
+    /**
+     * Adds a principal. Its keys are written to the file when the current chunk is full (or on {@link #flush()}).
+     */
+    public void add(KeytabPrincipalPassphrase principal) throws IOException {
+        chunk.add(principal);
+        if (chunk.size() >= chunkSize) {
+            writeChunk();
+        }
+    }
+
+    /**
+     * Writes keys which are already derived (e.g. the keys stored in the directory) to the file.
+     *
+     * @param principalName principal name
+     * @param keyVersion key version number stored in the entries (it overrides the version of the keys)
+     * @param keys keys of the principal
+     */
+    public void add(String principalName, int keyVersion, Collection<EncryptionKey> keys) throws IOException {
+        writeChunk();
+        List<KeytabEntry> entries = new ArrayList<>(keys.size());
+        for (EncryptionKey key : keys) {
+            entries.add(new KeytabEntry(principalName, PRINCIPAL_TYPE, timeStamp, (byte) keyVersion, key));
+        }
+        writeEntries(entries);
+        principalCount++;
+    }
+
+    /**
+     * Derives the keys of the pending principals and writes them to the file.
+     */
+    public void flush() throws IOException {
+        writeChunk();
+        out.flush();
+    }
+
+    private void writeChunk() throws IOException {
+        if (!chunk.isEmpty()) {
+            List<Map<EncryptionType, EncryptionKey>> keys = keyDerivation.getKeys(chunk);
+            List<KeytabEntry> entries = new ArrayList<>();
+            for (int i = 0; i < chunk.size(); i++) {
+                String principalName = chunk.get(i).getPrincipalName();
+                for (EncryptionKey key : keys.get(i).values()) {
+                    entries.add(new KeytabEntry(principalName, PRINCIPAL_TYPE, timeStamp, (byte) key.getKeyVersion(), key));
+                }
+            }
+            writeEntries(entries);
+            principalCount += chunk.size();
+            chunk.clear();
+        }
+    }
+
+    private void writeEntries(List<KeytabEntry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        // the encoder writes the keytab version before the entries, it's already in the file
+        ByteBuffer buffer = encoder.write(Keytab.VERSION_0X502_BYTES, entries);
+        out.write(buffer.array(), buffer.position() + Keytab.VERSION_0X502_BYTES.length,
+                buffer.remaining() - Keytab.VERSION_0X502_BYTES.length);
+        entryCount += entries.size();
+    }
+
+    /**
+     * Returns number of the principals written to the file.
+     */
+    public long getPrincipalCount() {
+        return principalCount;
+    }
+
+    /**
+     * Returns number of the keytab entries (i.e. keys) written to the file.
+     */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            keyDerivation.close();
+            out.close();
+        }
+    }
+}
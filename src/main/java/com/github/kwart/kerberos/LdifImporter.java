@@ -0,0 +1,499 @@
+package com.github.kwart.kerberos;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.text.StrSubstitutor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.factory.AvlPartitionFactory;
+import org.apache.directory.server.core.factory.PartitionFactory;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streaming LDIF importer. The LDIF is read record by record, the <code>${variable}</code> placeholders are replaced in each
+ * record separately and the parsed entries are added to the directory in batches. Partitions are created for entries whose
+ * parent is not covered by any existing partition. The change records (<code>changetype: modify</code>, <code>delete</code>,
+ * <code>moddn</code> and <code>modrdn</code>) are applied through the admin session in the LDIF order.
+ *
+ * @author Josef Cacek
+ */
+public class LdifImporter {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(LdifImporter.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final DirectoryService directoryService;
+    private final StrSubstitutor substitutor;
+    /**
+     * User provided names of DNs which are already known to be covered by a partition.
+     */
+    private final Set<String> knownParents = new HashSet<>();
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private boolean printEntries;
+    private ParallelKeyDerivation keyDerivation;
+    private PartitionFactory partitionFactory;
+    private List<String> indexedAttributes = Collections.emptyList();
+
+    public LdifImporter(DirectoryService directoryService, Map<String, String> replacementMap) {
+        this.directoryService = directoryService;
+        this.substitutor = new StrSubstitutor(replacementMap);
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Enables printing of the imported entries to the standard output.
+     */
+    public void setPrintEntries(boolean printEntries) {
+        this.printEntries = printEntries;
+    }
+
+    /**
+     * Sets the key derivation used for entries with Kerberos principals. When set, the keys for each batch are derived in
+     * parallel and the entries are added through {@link BulkKeyDerivationInterceptor#addWithDerivedKeys}. Otherwise the
+     * keys are derived by the interceptor chain one by one.
+     */
+    public void setKeyDerivation(ParallelKeyDerivation keyDerivation) {
+        this.keyDerivation = keyDerivation;
+    }
+
+    /**
+     * Sets the factory used to create the partitions for the imported entries not covered by the existing partitions. The
+     * in-memory AVL partitions are created when no factory is set.
+     */
+    public void setPartitionFactory(PartitionFactory partitionFactory) {
+        this.partitionFactory = partitionFactory;
+    }
+
+    /**
+     * Sets the attributes indexed in the partitions created by the importer.
+     */
+    public void setIndexedAttributes(List<String> indexedAttributes) {
+        this.indexedAttributes = indexedAttributes;
+    }
+
+    /**
+     * Imports LDIF from the given stream. The stream is closed when the import finishes.
+     *
+     * @param is UTF-8 encoded LDIF
+     * @param sourceName name used in the log messages
+     * @return import statistics
+     */
+    public ImportStats importLdif(InputStream is, String sourceName) throws Exception {
+        final long startTime = System.nanoTime();
+        final ImportStats stats = new ImportStats();
+        final CountingInputStream countingStream = new CountingInputStream(is);
+        final List<LdifEntry> batch = new ArrayList<>(Math.min(batchSize, DEFAULT_BATCH_SIZE));
+        int unsyncedChanges = 0;
+        try (LdifReader ldifReader = new LdifReader(
+                new SubstitutingReader(new InputStreamReader(countingStream, UTF_8), substitutor))) {
+            for (LdifEntry ldifEntry : ldifReader) {
+                if (ldifEntry.isEntry()) {
+                    batch.add(ldifEntry);
+                    if (batch.size() >= batchSize) {
+                        addBatch(batch, stats);
+                    }
+                } else {
+                    // the pending entries have to be added first, the change can depend on them
+                    addBatch(batch, stats);
+                    applyChange(ldifEntry, stats);
+                    if (++unsyncedChanges >= batchSize) {
+                        directoryService.sync();
+                        unsyncedChanges = 0;
+                    }
+                }
+            }
+            if (ldifReader.hasError()) {
+                throw new IOException("Parsing LDIF " + sourceName + " failed near line " + ldifReader.getLineNumber(),
+                        ldifReader.getError());
+            }
+        }
+        addBatch(batch, stats);
+        if (unsyncedChanges > 0) {
+            directoryService.sync();
+        }
+        stats.bytes = countingStream.count;
+        stats.nanos = System.nanoTime() - startTime;
+        LOGGER.info("Imported {} entries ({} bytes) from {} in {}ms ({} entries/s, {} bytes/s)", stats.entries, stats.bytes,
+                sourceName, TimeUnit.NANOSECONDS.toMillis(stats.nanos), stats.getEntriesPerSecond(),
+                stats.getBytesPerSecond());
+        if (stats.hasChanges()) {
+            LOGGER.info("Applied changes from {}: {}", sourceName, stats.getChangesSummary());
+        }
+        return stats;
+    }
+
+    /**
+     * Adds the already parsed entries to the directory (in batches of the configured size).
+     *
+     * @return number of the added entries
+     */
+    long add(List<LdifEntry> ldifEntries) throws Exception {
+        ImportStats stats = new ImportStats();
+        for (int from = 0; from < ldifEntries.size(); from += batchSize) {
+            addBatch(new ArrayList<>(ldifEntries.subList(from, Math.min(ldifEntries.size(), from + batchSize))), stats);
+        }
+        return stats.entries;
+    }
+
+    private void addBatch(List<LdifEntry> batch, ImportStats stats) throws Exception {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        int count = batch.size();
+        SchemaManager schemaManager = directoryService.getSchemaManager();
+        List<Entry> entries = new ArrayList<>(batch.size());
+        for (LdifEntry ldifEntry : batch) {
+            if (printEntries) {
+                System.out.print(ldifEntry.toString());
+            }
+            entries.add(new DefaultEntry(schemaManager, ldifEntry.getEntry()));
+        }
+        batch.clear();
+        addEntries(entries, stats);
+        stats.record(ChangeType.Add, count, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Adds schema aware entries to the directory as one batch, i.e. the keys are derived in parallel (when the key
+     * derivation is set) and the partitions are synced at the end.
+     *
+     * @return number of the added entries
+     */
+    long addEntries(List<Entry> entries) throws Exception {
+        ImportStats stats = new ImportStats();
+        addEntries(entries, stats);
+        return stats.entries;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    private void addEntries(List<Entry> entries, ImportStats stats) throws Exception {
+        CoreSession adminSession = directoryService.getAdminSession();
+        if (keyDerivation != null) {
+            keyDerivation.deriveKeys(entries);
+        }
+        for (Entry entry : entries) {
+            checkPartition(entry.getDn());
+            if (keyDerivation != null && ParallelKeyDerivation.isKeyDerivationCandidate(entry)) {
+                BulkKeyDerivationInterceptor.addWithDerivedKeys(adminSession, entry);
+            } else {
+                adminSession.add(entry);
+            }
+            stats.entries++;
+        }
+        // flush the persistent partitions, so they don't keep the whole import in memory
+        directoryService.sync();
+    }
+
+    /**
+     * Applies an LDIF change record (other than add) to the directory.
+     */
+    private void applyChange(LdifEntry ldifEntry, ImportStats stats) throws Exception {
+        if (printEntries) {
+            System.out.print(ldifEntry.toString());
+        }
+        long startTime = System.nanoTime();
+        SchemaManager schemaManager = directoryService.getSchemaManager();
+        CoreSession adminSession = directoryService.getAdminSession();
+        Dn dn = directoryService.getDnFactory().create(ldifEntry.getDn().getName());
+        switch (ldifEntry.getChangeType()) {
+            case Modify:
+                List<Modification> modifications = new ArrayList<>(ldifEntry.getModifications().size());
+                for (Modification modification : ldifEntry.getModifications()) {
+                    modifications.add(new DefaultModification(schemaManager, modification));
+                }
+                adminSession.modify(dn, modifications);
+                break;
+            case Delete:
+                adminSession.delete(dn);
+                break;
+            case ModDn:
+            case ModRdn:
+                Rdn newRdn = new Rdn(schemaManager, ldifEntry.getNewRdn());
+                if (ldifEntry.getNewSuperior() == null) {
+                    adminSession.rename(dn, newRdn, ldifEntry.isDeleteOldRdn());
+                } else {
+                    Dn newSuperior = directoryService.getDnFactory().create(ldifEntry.getNewSuperior());
+                    if (newRdn.equals(dn.getRdn())) {
+                        adminSession.move(dn, newSuperior);
+                    } else {
+                        adminSession.moveAndRename(dn, newSuperior, newRdn, ldifEntry.isDeleteOldRdn());
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported LDIF change type " + ldifEntry.getChangeType());
+        }
+        stats.record(ldifEntry.getChangeType(), 1, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Creates a new partition for the given DN if its parent is not covered by an existing one.
+     */
+    private void checkPartition(Dn dn) throws Exception {
+        Dn parent = dn.getParent();
+        String parentName = parent.getName();
+        if (knownParents.contains(parentName)) {
+            return;
+        }
+        Dn normParent = directoryService.getDnFactory().create(parentName);
+        for (Partition partition : directoryService.getPartitions()) {
+            Dn suffixDn = partition.getSuffixDn();
+            if (normParent.equals(suffixDn) || normParent.isDescendantOf(suffixDn)) {
+                knownParents.add(parentName);
+                return;
+            }
+        }
+        LOGGER.info("Creating new partition for DN=" + dn + "\n");
+        createPartition(directoryService, partitionFactory, dn, indexedAttributes);
+    }
+
+    /**
+     * Creates a partition with the given suffix and adds it to the directory service. An in-memory {@link AvlPartition} is
+     * created when no partition factory is provided. The given attributes are indexed in the partition.
+     */
+    static Partition createPartition(DirectoryService directoryService, PartitionFactory partitionFactory, Dn suffixDn,
+            List<String> indexedAttributes) throws Exception {
+        Partition partition;
+        if (partitionFactory == null) {
+            partitionFactory = new AvlPartitionFactory();
+            partition = new AvlPartition(directoryService.getSchemaManager());
+            partition.setId(suffixDn.getName());
+            partition.setSuffixDn(suffixDn);
+        } else {
+            File partitionDirectory = new File(directoryService.getInstanceLayout().getPartitionsDirectory(),
+                    suffixDn.getName().replaceAll("[^A-Za-z0-9.-]", "_"));
+            partition = partitionFactory.createPartition(directoryService.getSchemaManager(), directoryService.getDnFactory(),
+                    suffixDn.getName(), suffixDn.getName(), AbstractBTreePartition.DEFAULT_CACHE_SIZE, partitionDirectory);
+            if (partition instanceof AbstractBTreePartition) {
+                // the importer syncs after each batch and the directory service periodically
+                ((AbstractBTreePartition) partition).setSyncOnWrite(false);
+            }
+        }
+        SchemaManager schemaManager = directoryService.getSchemaManager();
+        for (String attribute : indexedAttributes) {
+            if (schemaManager.getAttributeType(attribute) == null) {
+                throw new IllegalArgumentException("Unknown attribute to index: " + attribute);
+            }
+            partitionFactory.addIndex(partition, attribute, AbstractBTreePartition.DEFAULT_CACHE_SIZE);
+        }
+        partition.setCacheService(directoryService.getCacheService());
+        // the partition is initialized (and the missing indexes are built) when it's added
+        long startTime = System.currentTimeMillis();
+        directoryService.addPartition(partition);
+        if (!indexedAttributes.isEmpty()) {
+            LOGGER.info("Partition " + suffixDn + " with indexes " + indexedAttributes + " initialized in "
+                    + (System.currentTimeMillis() - startTime) + "ms");
+        }
+        return partition;
+    }
+
+    /**
+     * Import statistics.
+     */
+    public static class ImportStats {
+        private long entries;
+        private long bytes;
+        private long nanos;
+        /**
+         * Number of the records and their processing time (in nanoseconds) per change type. The content records are counted
+         * as {@link ChangeType#Add}.
+         */
+        private final Map<ChangeType, long[]> changes = new EnumMap<>(ChangeType.class);
+
+        private void record(ChangeType changeType, long count, long changeNanos) {
+            long[] counters = changes.computeIfAbsent(changeType, t -> new long[2]);
+            counters[0] += count;
+            counters[1] += changeNanos;
+        }
+
+        public long getEntries() {
+            return entries;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long getEntriesPerSecond() {
+            return perSecond(entries);
+        }
+
+        public long getBytesPerSecond() {
+            return perSecond(bytes);
+        }
+
+        /**
+         * Returns number of the records of the given change type.
+         */
+        public long getChanges(ChangeType changeType) {
+            long[] counters = changes.get(changeType);
+            return counters != null ? counters[0] : 0;
+        }
+
+        /**
+         * Returns throughput of the records of the given change type measured by their processing time.
+         */
+        public long getChangesPerSecond(ChangeType changeType) {
+            long[] counters = changes.get(changeType);
+            return counters != null && counters[1] > 0 ? counters[0] * TimeUnit.SECONDS.toNanos(1) / counters[1] : 0;
+        }
+
+        /**
+         * Returns {@code true} when the LDIF contained change records other than add.
+         */
+        public boolean hasChanges() {
+            return changes.size() > (changes.containsKey(ChangeType.Add) ? 1 : 0);
+        }
+
+        /**
+         * Returns the change type counters, e.g. "Add=1000 (5000/s), Modify=10000 (20000/s)".
+         */
+        public String getChangesSummary() {
+            StringBuilder sb = new StringBuilder();
+            for (ChangeType changeType : changes.keySet()) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(changeType).append("=").append(getChanges(changeType)).append(" (")
+                        .append(getChangesPerSecond(changeType)).append("/s)");
+            }
+            return sb.toString();
+        }
+
+        private long perSecond(long count) {
+            return nanos > 0 ? count * TimeUnit.SECONDS.toNanos(1) / nanos : 0;
+        }
+    }
+
+    /**
+     * Reader which splits the LDIF to records (separated by empty lines) and replaces the placeholders in each record.
+     */
+    static class SubstitutingReader extends Reader {
+        private final BufferedReader reader;
+        private final StrSubstitutor substitutor;
+        private final StringBuilder record = new StringBuilder();
+        private String buffer = "";
+        private int position;
+        private boolean eof;
+
+        SubstitutingReader(Reader reader, StrSubstitutor substitutor) {
+            this.reader = new BufferedReader(reader);
+            this.substitutor = substitutor;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position >= buffer.length()) {
+                if (!fillBuffer()) {
+                    return -1;
+                }
+            }
+            int count = Math.min(len, buffer.length() - position);
+            buffer.getChars(position, position + count, cbuf, off);
+            position += count;
+            return count;
+        }
+
+        private boolean fillBuffer() throws IOException {
+            if (eof) {
+                return false;
+            }
+            record.setLength(0);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                record.append(line).append('\n');
+                if (line.trim().isEmpty()) {
+                    break;
+                }
+            }
+            eof = line == null;
+            buffer = substitutor.replace(record);
+            position = 0;
+            return !buffer.isEmpty() || !eof;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.github.kwart.kerberos;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.text.StrSubstitutor;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.ObjectClass;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.shared.kerberos.KerberosAttribute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the imported LDIF files and applies their changes to the running directory. Only a digest of each entry is kept
+ * from the last applied version of a file, so when the file changes, the entries which were added, changed or removed are
+ * found in one pass over the file and only they are written to the directory. The changed entries are compared with the
+ * directory content and only the differing attributes are modified. The keys derived by the server (<code>krb5Key</code>,
+ * <code>krb5KeyVersionNumber</code>) are kept unless the password changes.
+ *
+ * @author Josef Cacek
+ */
+public class LdifWatcher implements Closeable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(LdifWatcher.class);
+
+    /**
+     * Editors often write a file in several steps, the changes are applied when no other event comes in this period.
+     */
+    private static final long QUIET_PERIOD_MILLIS = 200L;
+
+    private final DirectoryService directoryService;
+    private final LdifImporter importer;
+    private final StrSubstitutor substitutor;
+    private final int keyDerivationThreads;
+    private final Set<AttributeType> derivedAttributes = new HashSet<>();
+    /**
+     * Digests of the entries (by normalized DN) of the last applied version of each file. Used by the watcher thread once
+     * it's started.
+     */
+    private final Map<Path, Map<String, Long>> appliedVersions = new LinkedHashMap<>();
+    private WatchService watchService;
+    private Thread thread;
+
+    /**
+     * Creates the watcher.
+     *
+     * @param directoryService the directory the changes are applied to
+     * @param importer importer used to add the new entries (it creates the missing partitions)
+     * @param replacementMap values of the <code>${variable}</code> placeholders in the LDIFs
+     * @param ldifFiles the watched files
+     * @param keyDerivationThreads number of threads used to derive keys of the added entries
+     */
+    public LdifWatcher(DirectoryService directoryService, LdifImporter importer, Map<String, String> replacementMap,
+            List<Path> ldifFiles, int keyDerivationThreads) throws Exception {
+        this.directoryService = directoryService;
+        this.importer = importer;
+        this.substitutor = new StrSubstitutor(replacementMap);
+        this.keyDerivationThreads = keyDerivationThreads;
+        SchemaManager schemaManager = directoryService.getSchemaManager();
+        derivedAttributes.add(schemaManager.lookupAttributeTypeRegistry(KerberosAttribute.KRB5_KEY_AT));
+        derivedAttributes.add(schemaManager.lookupAttributeTypeRegistry(KerberosAttribute.KRB5_KEY_VERSION_NUMBER_AT));
+        for (Path ldifFile : ldifFiles) {
+            appliedVersions.put(ldifFile.toAbsolutePath().normalize(), null);
+        }
+    }
+
+    /**
+     * Starts watching the files. The current content of the files is taken as the applied version (i.e. the files should be
+     * already imported).
+     */
+    public void start() throws Exception {
+        long startTime = System.currentTimeMillis();
+        for (Map.Entry<Path, Map<String, Long>> applied : appliedVersions.entrySet()) {
+            Map<String, Long> versions = new HashMap<>();
+            read(applied.getKey(), versions, null, null);
+            applied.setValue(versions);
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        Set<Path> directories = new LinkedHashSet<>();
+        for (Path ldifFile : appliedVersions.keySet()) {
+            directories.add(ldifFile.getParent());
+        }
+        for (Path directory : directories) {
+            directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+        }
+        thread = new Thread(this::watch, "kerberos-ldif-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        LOGGER.info("Watching LDIF files {} (read in {}ms)", appliedVersions.keySet(), System.currentTimeMillis() - startTime);
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Set<Path> changedFiles = new LinkedHashSet<>();
+                while (key != null) {
+                    Path directory = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            changedFiles.addAll(appliedVersions.keySet());
+                        } else {
+                            Path file = directory.resolve((Path) event.context());
+                            if (appliedVersions.containsKey(file)) {
+                                changedFiles.add(file);
+                            }
+                        }
+                    }
+                    key.reset();
+                    key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                for (Path file : changedFiles) {
+                    if (Files.isRegularFile(file)) {
+                        applyChanges(file);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            LOGGER.debug("LDIF watcher stopped");
+        }
+    }
+
+    /**
+     * Applies the difference between the file and its last applied version to the directory. When it fails, the last applied
+     * version is kept, so the next change of the file applies the difference again.
+     */
+    private void applyChanges(Path file) {
+        long startTime = System.nanoTime();
+        Map<String, Long> previous = appliedVersions.get(file);
+        Map<String, Long> versions = new HashMap<>();
+        List<LdifEntry> changedEntries = new ArrayList<>();
+        try {
+            read(file, versions, previous, changedEntries);
+            CoreSession session = directoryService.getAdminSession();
+            SchemaManager schemaManager = directoryService.getSchemaManager();
+
+            List<LdifEntry> newEntries = new ArrayList<>();
+            Map<Dn, List<Modification>> modifications = new LinkedHashMap<>();
+            for (LdifEntry ldifEntry : changedEntries) {
+                Dn dn = directoryService.getDnFactory().create(ldifEntry.getDn().getName());
+                if (session.exists(dn)) {
+                    List<Modification> entryModifications = getModifications(
+                            session.lookup(dn, SchemaConstants.ALL_USER_ATTRIBUTES),
+                            new DefaultEntry(schemaManager, ldifEntry.getEntry()));
+                    if (!entryModifications.isEmpty()) {
+                        modifications.put(dn, entryModifications);
+                    }
+                } else {
+                    newEntries.add(ldifEntry);
+                }
+            }
+            List<Dn> deletedDns = new ArrayList<>();
+            for (String dn : previous.keySet()) {
+                if (!versions.containsKey(dn)) {
+                    deletedDns.add(directoryService.getDnFactory().create(dn));
+                }
+            }
+            // children first
+            deletedDns.sort((dn1, dn2) -> dn2.size() - dn1.size());
+
+            long deleted = 0L;
+            for (Dn dn : deletedDns) {
+                if (session.exists(dn)) {
+                    session.delete(dn);
+                    deleted++;
+                }
+            }
+            long added = 0L;
+            if (!newEntries.isEmpty()) {
+                try (ParallelKeyDerivation keyDerivation = new ParallelKeyDerivation(keyDerivationThreads)) {
+                    importer.setKeyDerivation(keyDerivation);
+                    added = importer.add(newEntries);
+                } finally {
+                    importer.setKeyDerivation(null);
+                }
+            }
+            for (Map.Entry<Dn, List<Modification>> entryModifications : modifications.entrySet()) {
+                session.modify(entryModifications.getKey(), entryModifications.getValue());
+            }
+            appliedVersions.put(file, versions);
+            LOGGER.info("Applied changes of {}: {} added, {} modified, {} deleted entries in {}ms", file, added,
+                    modifications.size(), deleted, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        } catch (Exception e) {
+            LOGGER.error("Applying changes of " + file + " failed", e);
+        }
+    }
+
+    /**
+     * Reads the entry digests of the file. When the previous digests are provided, the entries which differ from the previous
+     * version are collected.
+     */
+    private void read(Path file, Map<String, Long> versions, Map<String, Long> previous, List<LdifEntry> changedEntries)
+            throws Exception {
+        MessageDigest digest = getDigest();
+        try (LdifReader ldifReader = new LdifReader(
+                new LdifImporter.SubstitutingReader(Files.newBufferedReader(file, UTF_8), substitutor))) {
+            for (LdifEntry ldifEntry : ldifReader) {
+                if (!ldifEntry.isEntry()) {
+                    LOGGER.warn("Skipping the LDIF change record {} in {}", ldifEntry.getDn(), file);
+                    continue;
+                }
+                String dn = directoryService.getDnFactory().create(ldifEntry.getDn().getName()).getNormName();
+                long version = getVersion(digest, ldifEntry);
+                versions.put(dn, version);
+                if (previous != null) {
+                    Long previousVersion = previous.get(dn);
+                    if (previousVersion == null || previousVersion.longValue() != version) {
+                        changedEntries.add(ldifEntry);
+                    }
+                }
+            }
+            if (ldifReader.hasError()) {
+                throw new IOException("Parsing LDIF " + file + " failed near line " + ldifReader.getLineNumber(),
+                        ldifReader.getError());
+            }
+        }
+    }
+
+    /**
+     * Returns the modifications which change the current entry to the updated one. The attributes derived by the server are
+     * skipped, they are updated by the server when the password changes.
+     */
+    private List<Modification> getModifications(Entry current, Entry updated) throws LdapException {
+        List<Modification> modifications = new ArrayList<>();
+        for (Attribute attribute : updated) {
+            AttributeType attributeType = attribute.getAttributeType();
+            if (derivedAttributes.contains(attributeType)) {
+                continue;
+            }
+            boolean changed = SchemaConstants.OBJECT_CLASS_AT_OID.equals(attributeType.getOid())
+                    ? isObjectClassChanged(current.get(attributeType), attribute)
+                    : !attribute.equals(current.get(attributeType));
+            if (changed) {
+                modifications.add(new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, attribute));
+            }
+        }
+        for (Attribute attribute : current) {
+            if (updated.get(attribute.getAttributeType()) == null
+                    && !derivedAttributes.contains(attribute.getAttributeType())) {
+                modifications.add(new DefaultModification(ModificationOperation.REMOVE_ATTRIBUTE, attribute));
+            }
+        }
+        return modifications;
+    }
+
+    /**
+     * Compares the object classes ignoring the superior classes which are added by the directory.
+     */
+    private boolean isObjectClassChanged(Attribute current, Attribute updated) throws LdapException {
+        if (current == null) {
+            return true;
+        }
+        Set<String> expected = new HashSet<>();
+        for (Value<?> value : updated) {
+            ObjectClass objectClass = directoryService.getSchemaManager().lookupObjectClassRegistry(value.getString());
+            expected.add(objectClass.getOid());
+            addSuperiors(objectClass, expected);
+        }
+        Set<String> actual = new HashSet<>();
+        for (Value<?> value : current) {
+            actual.add(directoryService.getSchemaManager().lookupObjectClassRegistry(value.getString()).getOid());
+        }
+        for (Value<?> value : updated) {
+            if (!current.contains(value)) {
+                return true;
+            }
+        }
+        return !expected.containsAll(actual);
+    }
+
+    private static void addSuperiors(ObjectClass objectClass, Set<String> oids) {
+        for (ObjectClass superior : objectClass.getSuperiors()) {
+            if (oids.add(superior.getOid())) {
+                addSuperiors(superior, oids);
+            }
+        }
+    }
+
+    private static long getVersion(MessageDigest digest, LdifEntry ldifEntry) {
+        byte[] hash = digest.digest(ldifEntry.toString().getBytes(UTF_8));
+        long version = 0L;
+        for (byte b : Arrays.copyOf(hash, 8)) {
+            version = (version << 8) | (b & 0xFF);
+        }
+        return version;
+    }
+
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+}
@@ -0,0 +1,533 @@
+package com.github.kwart.kerberos;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.cursor.SingletonCursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.EntrySerializer;
+import org.apache.directory.server.xdbm.MasterTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Master table which keeps the serialized entries in direct (off-heap) buffers. The entry IDs (UUIDs) are mapped to the record
+ * addresses by an open addressing hash table built on primitive arrays, so a stored entry costs no heap objects. The entries
+ * are deserialized on each read.
+ * <p>
+ * The records are appended to the buffers, the space of removed and replaced records is reclaimed by compacting the buffers
+ * when the garbage exceeds the live data.
+ *
+ * @author Josef Cacek
+ */
+public class OffHeapMasterTable implements MasterTable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(OffHeapMasterTable.class);
+
+    private static final int INITIAL_SEGMENT_SIZE = 1 << 20;
+    private static final int MAX_SEGMENT_SIZE = 1 << 26;
+    private static final int MIN_COMPACTION_GARBAGE = 1 << 20;
+
+    private final String name;
+    private final EntrySerializer serializer;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Comparator<Tuple<String, Entry>> tupleComparator = (t1, t2) -> UuidComparator.INSTANCE
+            .compare(t1.getKey(), t2.getKey());
+
+    private List<ByteBuffer> segments = new ArrayList<>();
+    private final IdMap ids = new IdMap();
+    private long liveBytes;
+    private long garbageBytes;
+
+    public OffHeapMasterTable(String name, SchemaManager schemaManager) {
+        this.name = name;
+        this.serializer = new EntrySerializer(schemaManager);
+    }
+
+    @Override
+    public String getNextId(Entry entry) throws Exception {
+        return UUID.randomUUID().toString();
+    }
+
+    @Override
+    public Comparator<String> getKeyComparator() {
+        return UuidComparator.INSTANCE;
+    }
+
+    @Override
+    public Comparator<Entry> getValueComparator() {
+        return null;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean isDupsEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean has(String key) throws Exception {
+        if (key == null) {
+            return false;
+        }
+        lock.readLock().lock();
+        try {
+            return getAddress(key) >= 0L;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean has(String key, Entry value) throws Exception {
+        Entry entry = get(key);
+        return entry != null && entry.equals(value);
+    }
+
+    @Override
+    public boolean hasGreaterOrEqual(String key) throws Exception {
+        return key != null && countKeys(key, true) > 0L;
+    }
+
+    @Override
+    public boolean hasLessOrEqual(String key) throws Exception {
+        return key != null && countKeys(key, false) > 0L;
+    }
+
+    @Override
+    public boolean hasGreaterOrEqual(String key, Entry val) throws Exception {
+        throw new UnsupportedOperationException("The master table doesn't allow duplicate keys");
+    }
+
+    @Override
+    public boolean hasLessOrEqual(String key, Entry val) throws Exception {
+        throw new UnsupportedOperationException("The master table doesn't allow duplicate keys");
+    }
+
+    @Override
+    public Entry get(String key) throws Exception {
+        if (key == null) {
+            return null;
+        }
+        byte[] bytes;
+        lock.readLock().lock();
+        try {
+            long address = getAddress(key);
+            if (address < 0L) {
+                return null;
+            }
+            ByteBuffer record = getRecord(address);
+            record.position(record.position() + 2 + (record.getShort(record.position()) & 0xFFFF));
+            bytes = new byte[record.remaining()];
+            record.get(bytes);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return (Entry) serializer.deserialize(bytes);
+    }
+
+    @Override
+    public void put(String key, Entry value) throws Exception {
+        UUID uuid = UUID.fromString(key);
+        byte[] keyBytes = key.getBytes(US_ASCII);
+        byte[] entryBytes = serializer.serialize(value);
+        int length = 2 + keyBytes.length + entryBytes.length;
+        lock.writeLock().lock();
+        try {
+            ByteBuffer segment = allocate(4 + length);
+            long address = ((long) (segments.size() - 1) << 32) | segment.position();
+            segment.putInt(length).putShort((short) keyBytes.length).put(keyBytes).put(entryBytes);
+            long oldAddress = ids.put(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), address);
+            liveBytes += 4 + length;
+            if (oldAddress >= 0L) {
+                release(oldAddress);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(String key) throws Exception {
+        if (key == null) {
+            return;
+        }
+        UUID uuid = UUID.fromString(key);
+        lock.writeLock().lock();
+        try {
+            long oldAddress = ids.remove(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            if (oldAddress >= 0L) {
+                release(oldAddress);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(String key, Entry value) throws Exception {
+        if (has(key, value)) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Returns a cursor over all the entries ordered by the ID. The cursor works on a snapshot of the IDs, the entries are
+     * deserialized when the tuple value is read.
+     */
+    @Override
+    public Cursor<Tuple<String, Entry>> cursor() throws Exception {
+        List<Tuple<String, Entry>> tuples = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < ids.capacity(); slot++) {
+                long address = ids.addressAt(slot);
+                if (address >= 0L) {
+                    tuples.add(new LazyTuple(readKey(address)));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        tuples.sort(tupleComparator);
+        return new ListCursor<>(tupleComparator, tuples);
+    }
+
+    @Override
+    public Cursor<Tuple<String, Entry>> cursor(String key) throws Exception {
+        if (!has(key)) {
+            return new EmptyCursor<>();
+        }
+        return new SingletonCursor<>(new LazyTuple(key), tupleComparator);
+    }
+
+    @Override
+    public Cursor<Entry> valueCursor(String key) throws Exception {
+        Entry entry = get(key);
+        return entry != null ? new SingletonCursor<>(entry) : new EmptyCursor<>();
+    }
+
+    @Override
+    public long count() throws Exception {
+        lock.readLock().lock();
+        try {
+            return ids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long count(String key) throws Exception {
+        return has(key) ? 1L : 0L;
+    }
+
+    @Override
+    public long greaterThanCount(String key) throws Exception {
+        return countKeys(key, true);
+    }
+
+    @Override
+    public long lessThanCount(String key) throws Exception {
+        return countKeys(key, false);
+    }
+
+    @Override
+    public void close() throws Exception {
+        lock.writeLock().lock();
+        try {
+            LOGGER.debug("Closing off-heap master table {} with {} entries in {} bytes", name, ids.size(), liveBytes);
+            // the direct buffers are freed when garbage collected
+            segments = new ArrayList<>();
+            ids.clear();
+            liveBytes = 0L;
+            garbageBytes = 0L;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns number of bytes used by the stored entries.
+     */
+    public long getDataSize() {
+        lock.readLock().lock();
+        try {
+            return liveBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns number of bytes allocated in the direct buffers.
+     */
+    public long getAllocatedSize() {
+        lock.readLock().lock();
+        try {
+            long size = 0L;
+            for (ByteBuffer segment : segments) {
+                size += segment.capacity();
+            }
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long getAddress(String key) {
+        UUID uuid = UUID.fromString(key);
+        return ids.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Counts the stored IDs greater or equal (or less or equal) to the given one.
+     */
+    private long countKeys(String key, boolean greater) {
+        long count = 0L;
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < ids.capacity(); slot++) {
+                long address = ids.addressAt(slot);
+                if (address >= 0L) {
+                    int cmp = UuidComparator.INSTANCE.compare(readKey(address), key);
+                    if (greater ? cmp >= 0 : cmp <= 0) {
+                        count++;
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the record content (without the length) positioned in a buffer view.
+     */
+    private ByteBuffer getRecord(long address) {
+        ByteBuffer record = segments.get((int) (address >>> 32)).duplicate();
+        int offset = (int) address;
+        record.limit(offset + 4 + record.getInt(offset)).position(offset + 4);
+        return record;
+    }
+
+    private String readKey(long address) {
+        ByteBuffer record = getRecord(address);
+        byte[] keyBytes = new byte[record.getShort() & 0xFFFF];
+        record.get(keyBytes);
+        return new String(keyBytes, US_ASCII);
+    }
+
+    /**
+     * Returns the last segment with at least the given free space, a new segment is added when needed.
+     */
+    private ByteBuffer allocate(int size) {
+        ByteBuffer last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (last == null || last.remaining() < size) {
+            int segmentSize = last == null ? INITIAL_SEGMENT_SIZE : Math.min(last.capacity() * 2, MAX_SEGMENT_SIZE);
+            last = ByteBuffer.allocateDirect(Math.max(segmentSize, size));
+            segments.add(last);
+        }
+        return last;
+    }
+
+    /**
+     * Marks the record as garbage and compacts the segments when there is more garbage than live data.
+     */
+    private void release(long address) {
+        ByteBuffer segment = segments.get((int) (address >>> 32));
+        int recordSize = 4 + segment.getInt((int) address);
+        liveBytes -= recordSize;
+        garbageBytes += recordSize;
+        if (garbageBytes > MIN_COMPACTION_GARBAGE && garbageBytes > liveBytes) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        long startTime = System.currentTimeMillis();
+        List<ByteBuffer> oldSegments = segments;
+        segments = new ArrayList<>();
+        for (int slot = 0; slot < ids.capacity(); slot++) {
+            long address = ids.addressAt(slot);
+            if (address >= 0L) {
+                ByteBuffer record = oldSegments.get((int) (address >>> 32)).duplicate();
+                int offset = (int) address;
+                record.limit(offset + 4 + record.getInt(offset)).position(offset);
+                ByteBuffer segment = allocate(record.remaining());
+                ids.setAddressAt(slot, ((long) (segments.size() - 1) << 32) | segment.position());
+                segment.put(record);
+            }
+        }
+        garbageBytes = 0L;
+        LOGGER.debug("Compacted off-heap master table {} to {} bytes in {}ms", name, liveBytes,
+                System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Tuple which deserializes the entry on the first access.
+     */
+    private class LazyTuple extends Tuple<String, Entry> {
+        private boolean loaded;
+
+        LazyTuple(String key) {
+            super(key, null);
+        }
+
+        @Override
+        public Entry getValue() {
+            if (!loaded) {
+                try {
+                    setValue(get(getKey()));
+                } catch (Exception e) {
+                    throw new IllegalStateException("Reading entry " + getKey() + " failed", e);
+                }
+                loaded = true;
+            }
+            return super.getValue();
+        }
+    }
+
+    /**
+     * Open addressing (linear probing) hash table mapping 128-bit IDs to record addresses. Empty slots have negative address.
+     */
+    private static class IdMap {
+        private long[] msbs;
+        private long[] lsbs;
+        private long[] addresses;
+        private int size;
+
+        IdMap() {
+            clear();
+        }
+
+        void clear() {
+            msbs = new long[16];
+            lsbs = new long[16];
+            addresses = new long[16];
+            Arrays.fill(addresses, -1L);
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int capacity() {
+            return addresses.length;
+        }
+
+        long addressAt(int slot) {
+            return addresses[slot];
+        }
+
+        void setAddressAt(int slot, long address) {
+            addresses[slot] = address;
+        }
+
+        long get(long msb, long lsb) {
+            int mask = addresses.length - 1;
+            for (int slot = hash(msb, lsb) & mask; addresses[slot] >= 0L; slot = (slot + 1) & mask) {
+                if (msbs[slot] == msb && lsbs[slot] == lsb) {
+                    return addresses[slot];
+                }
+            }
+            return -1L;
+        }
+
+        /**
+         * Stores the address and returns the previous one (or -1).
+         */
+        long put(long msb, long lsb, long address) {
+            if ((size + 1) * 4L > addresses.length * 3L) {
+                resize(addresses.length * 2);
+            }
+            int mask = addresses.length - 1;
+            int slot = hash(msb, lsb) & mask;
+            for (; addresses[slot] >= 0L; slot = (slot + 1) & mask) {
+                if (msbs[slot] == msb && lsbs[slot] == lsb) {
+                    long oldAddress = addresses[slot];
+                    addresses[slot] = address;
+                    return oldAddress;
+                }
+            }
+            msbs[slot] = msb;
+            lsbs[slot] = lsb;
+            addresses[slot] = address;
+            size++;
+            return -1L;
+        }
+
+        /**
+         * Removes the ID and returns its address (or -1). The following entries of the probe sequence are shifted back, so no
+         * tombstones are needed.
+         */
+        long remove(long msb, long lsb) {
+            int mask = addresses.length - 1;
+            int slot = hash(msb, lsb) & mask;
+            for (; addresses[slot] >= 0L; slot = (slot + 1) & mask) {
+                if (msbs[slot] == msb && lsbs[slot] == lsb) {
+                    break;
+                }
+            }
+            long oldAddress = addresses[slot];
+            if (oldAddress < 0L) {
+                return -1L;
+            }
+            int free = slot;
+            for (int next = (free + 1) & mask; addresses[next] >= 0L; next = (next + 1) & mask) {
+                int home = hash(msbs[next], lsbs[next]) & mask;
+                boolean stays = free <= next ? (free < home && home <= next) : (free < home || home <= next);
+                if (!stays) {
+                    msbs[free] = msbs[next];
+                    lsbs[free] = lsbs[next];
+                    addresses[free] = addresses[next];
+                    free = next;
+                }
+            }
+            addresses[free] = -1L;
+            size--;
+            return oldAddress;
+        }
+
+        private void resize(int newCapacity) {
+            long[] oldMsbs = msbs;
+            long[] oldLsbs = lsbs;
+            long[] oldAddresses = addresses;
+            msbs = new long[newCapacity];
+            lsbs = new long[newCapacity];
+            addresses = new long[newCapacity];
+            Arrays.fill(addresses, -1L);
+            size = 0;
+            for (int i = 0; i < oldAddresses.length; i++) {
+                if (oldAddresses[i] >= 0L) {
+                    put(oldMsbs[i], oldLsbs[i], oldAddresses[i]);
+                }
+            }
+        }
+
+        private static int hash(long msb, long lsb) {
+            long h = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.kwart.kerberos;
+
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+
+/**
+ * In-memory partition which stores the entries off-heap in an {@link OffHeapMasterTable}. The indexes are the AVL ones (they
+ * hold only the IDs and the indexed values), so the heap usage doesn't grow with the size of the Kerberos keys and other
+ * non-indexed attributes.
+ *
+ * @author Josef Cacek
+ */
+public class OffHeapPartition extends AvlPartition {
+
+    public OffHeapPartition(SchemaManager schemaManager, DnFactory dnFactory) {
+        super(schemaManager, dnFactory);
+    }
+
+    @Override
+    protected void doInit() throws Exception {
+        if (!initialized) {
+            super.doInit();
+            // replace the AVL master table created by the parent, there are no entries in it yet
+            master = new OffHeapMasterTable(id, schemaManager);
+        }
+    }
+
+    /**
+     * Returns the table holding the entries (or {@code null} if the partition is not initialized).
+     */
+    public OffHeapMasterTable getOffHeapMasterTable() {
+        return (OffHeapMasterTable) master;
+    }
+}
@@ -0,0 +1,27 @@
+package com.github.kwart.kerberos;
+
+import java.io.File;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.factory.AvlPartitionFactory;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+
+/**
+ * Factory for the {@link OffHeapPartition} instances.
+ *
+ * @author Josef Cacek
+ */
+public class OffHeapPartitionFactory extends AvlPartitionFactory {
+
+    @Override
+    public AvlPartition createPartition(SchemaManager schemaManager, DnFactory dnFactory, String id, String suffix,
+            int cacheSize, File workingDirectory) throws Exception {
+        OffHeapPartition partition = new OffHeapPartition(schemaManager, dnFactory);
+        partition.setId(id);
+        partition.setSuffixDn(new Dn(schemaManager, suffix));
+        partition.setCacheSize(cacheSize);
+        return partition;
+    }
+}
@@ -0,0 +1,211 @@
+package com.github.kwart.kerberos;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.directory.api.asn1.EncoderException;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.kerberos.shared.crypto.encryption.KerberosKeyFactory;
+import org.apache.directory.server.kerberos.shared.crypto.encryption.RandomKeyFactory;
+import org.apache.directory.shared.kerberos.KerberosAttribute;
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+import org.apache.directory.shared.kerberos.components.EncryptionKey;
+import org.apache.directory.shared.kerberos.exceptions.KerberosException;
+
+/**
+ * Derives Kerberos keys for many principals in parallel on a dedicated {@link ForkJoinPool}. The derivation follows the
+ * {@link org.apache.directory.server.core.kerberos.KeyDerivationInterceptor} logic, so the entries get the same
+ * <code>krb5Key</code> and <code>krb5KeyVersionNumber</code> values as if they were processed by the interceptor. Entries
+ * prepared by this class should be added through {@link BulkKeyDerivationInterceptor#addWithDerivedKeys}.
+ *
+ * @author Josef Cacek
+ */
+public class ParallelKeyDerivation implements AutoCloseable {
+
+    /**
+     * Number of entries processed by a single fork-join task. The string-to-key is expensive, so the chunks are small.
+     */
+    private static final int CHUNK_SIZE = 4;
+
+    private final ForkJoinPool pool;
+    private final Set<EncryptionType> encryptionTypes;
+
+    /**
+     * Creates a new instance which derives keys for all default encryption types.
+     *
+     * @param parallelism number of threads, values lower than 2 mean the keys are derived in the calling thread
+     */
+    public ParallelKeyDerivation(int parallelism) {
+        this(parallelism, KerberosKeyFactory.DEFAULT_CIPHERS.keySet());
+    }
+
+    /**
+     * Creates a new instance which derives keys for the given encryption types.
+     *
+     * @param parallelism number of threads, values lower than 2 mean the keys are derived in the calling thread
+     * @param encryptionTypes encryption types to derive keys for
+     */
+    public ParallelKeyDerivation(int parallelism, Set<EncryptionType> encryptionTypes) {
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        this.encryptionTypes = encryptionTypes;
+    }
+
+    /**
+     * Derives the keys for all entries in the list which contain both the <code>userPassword</code> and the
+     * <code>krb5PrincipalName</code> attributes. The <code>krb5Key</code> attribute of such entries is replaced and the
+     * <code>krb5KeyVersionNumber</code> is set to 0. The entries have to be schema aware.
+     *
+     * @param entries entries to process
+     */
+    public void deriveKeys(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (pool == null || entries.size() == 1) {
+            deriveKeys(entries, 0, entries.size());
+        } else {
+            pool.invoke(new DeriveKeysTask(entries, 0, entries.size()));
+        }
+    }
+
+    /**
+     * Derives keys for the given principal and passphrase. The "randomKey" passphrase results in random keys (the same
+     * behavior as in the <code>KeyDerivationInterceptor</code>).
+     */
+    public Map<EncryptionType, EncryptionKey> getKeys(String principalName, String passPhrase) {
+        if ("randomKey".equalsIgnoreCase(passPhrase)) {
+            try {
+                return RandomKeyFactory.getRandomKeys(encryptionTypes);
+            } catch (KerberosException e) {
+                throw new IllegalStateException("Random key generation failed for " + principalName, e);
+            }
+        }
+        return KerberosKeyFactory.getKerberosKeys(principalName, passPhrase, encryptionTypes);
+    }
+
+    /**
+     * Derives keys for the given principals in parallel.
+     *
+     * @return keys in the order of the given principals
+     */
+    public List<Map<EncryptionType, EncryptionKey>> getKeys(List<KeytabPrincipalPassphrase> principals) {
+        @SuppressWarnings("unchecked")
+        Map<EncryptionType, EncryptionKey>[] keys = new Map[principals.size()];
+        if (pool == null || principals.size() == 1) {
+            getKeys(principals, keys, 0, keys.length);
+        } else {
+            pool.invoke(new GetKeysTask(principals, keys, 0, keys.length));
+        }
+        return Arrays.asList(keys);
+    }
+
+    /**
+     * Returns true if the given entry contains attributes needed for the key derivation.
+     */
+    public static boolean isKeyDerivationCandidate(Entry entry) {
+        return entry.get(SchemaConstants.USER_PASSWORD_AT) != null
+                && entry.get(KerberosAttribute.KRB5_PRINCIPAL_NAME_AT) != null;
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private void deriveKeys(List<Entry> entries, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Entry entry = entries.get(i);
+            if (isKeyDerivationCandidate(entry)) {
+                try {
+                    deriveKeys(entry);
+                } catch (LdapException | EncoderException e) {
+                    throw new IllegalStateException("Key derivation failed for " + entry.getDn(), e);
+                }
+            }
+        }
+    }
+
+    private void getKeys(List<KeytabPrincipalPassphrase> principals, Map<EncryptionType, EncryptionKey>[] keys, int from,
+            int to) {
+        for (int i = from; i < to; i++) {
+            KeytabPrincipalPassphrase principal = principals.get(i);
+            keys[i] = getKeys(principal.getPrincipalName(), principal.getPassPhrase());
+        }
+    }
+
+    private void deriveKeys(Entry entry) throws LdapException, EncoderException {
+        String passPhrase = entry.get(SchemaConstants.USER_PASSWORD_AT).get().getString();
+        String principalName = entry.get(KerberosAttribute.KRB5_PRINCIPAL_NAME_AT).getString();
+        Map<EncryptionType, EncryptionKey> keys = getKeys(principalName, passPhrase);
+
+        byte[][] encodedKeys = new byte[keys.size()][];
+        int i = 0;
+        for (EncryptionKey encryptionKey : keys.values()) {
+            ByteBuffer buffer = ByteBuffer.allocate(encryptionKey.computeLength());
+            encryptionKey.encode(buffer);
+            encodedKeys[i++] = buffer.array();
+        }
+        entry.put(KerberosAttribute.KRB5_KEY_AT, encodedKeys);
+        // Set the KVNO to 0 as it's a new entry
+        entry.put(KerberosAttribute.KRB5_KEY_VERSION_NUMBER_AT, "0");
+    }
+
+    private class DeriveKeysTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Entry> entries;
+        private final int from;
+        private final int to;
+
+        DeriveKeysTask(List<Entry> entries, int from, int to) {
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK_SIZE) {
+                deriveKeys(entries, from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new DeriveKeysTask(entries, from, middle), new DeriveKeysTask(entries, middle, to));
+            }
+        }
+    }
+
+    private class GetKeysTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<KeytabPrincipalPassphrase> principals;
+        private final Map<EncryptionType, EncryptionKey>[] keys;
+        private final int from;
+        private final int to;
+
+        GetKeysTask(List<KeytabPrincipalPassphrase> principals, Map<EncryptionType, EncryptionKey>[] keys, int from, int to) {
+            this.principals = principals;
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK_SIZE) {
+                getKeys(principals, keys, from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new GetKeysTask(principals, keys, from, middle), new GetKeysTask(principals, keys, middle, to));
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.kwart.kerberos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.shared.kerberos.KerberosAttribute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates synthetic principals for load tests. The entries are built directly as schema aware entries (no LDIF is
+ * written or parsed) and they are added through the {@link LdifImporter} batches, so the keys are derived in parallel.
+ * <p>
+ * The <code>{n}</code> placeholder in the name and password patterns is replaced by the principal number. Names containing
+ * '/' are service principals and they are created under <code>ou=Services</code>, the other ones under
+ * <code>ou=Users</code> of the realm base DN. The organizational units are created when they don't exist.
+ *
+ * @author Josef Cacek
+ */
+public class PrincipalGenerator {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(PrincipalGenerator.class);
+
+    public static final String PLACEHOLDER_NUMBER = "{n}";
+    public static final String DEFAULT_PRINCIPAL_PATTERN = "user" + PLACEHOLDER_NUMBER;
+
+    private final DirectoryService directoryService;
+    private final LdifImporter importer;
+    private final Dn baseDn;
+    private final String realm;
+
+    /**
+     * Creates a generator for one realm.
+     *
+     * @param directoryService the directory service
+     * @param importer importer used to add the entries (its key derivation and batch size are used)
+     * @param baseDn base DN of the realm
+     * @param realm realm name appended to the principal names without a realm
+     */
+    public PrincipalGenerator(DirectoryService directoryService, LdifImporter importer, String baseDn, String realm)
+            throws Exception {
+        this.directoryService = directoryService;
+        this.importer = importer;
+        this.baseDn = directoryService.getDnFactory().create(baseDn);
+        this.realm = realm;
+    }
+
+    /**
+     * Generates principals from the given patterns.
+     *
+     * @param namePattern principal name pattern (e.g. <code>user{n}</code> or <code>HTTP/host{n}.example</code>)
+     * @param passwordPattern password pattern
+     * @param count number of the generated principals, they are numbered from 0
+     * @return number of the added entries
+     */
+    public long generate(String namePattern, String passwordPattern, int count) throws Exception {
+        long startTime = System.nanoTime();
+        SchemaManager schemaManager = directoryService.getSchemaManager();
+        boolean service = namePattern.contains("/");
+        Dn parentDn = baseDn.add(new Rdn(schemaManager, SchemaConstants.OU_AT, service ? "Services" : "Users"));
+        if (!directoryService.getAdminSession().exists(parentDn)) {
+            Entry ou = new DefaultEntry(schemaManager, parentDn);
+            ou.add(SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.TOP_OC, SchemaConstants.ORGANIZATIONAL_UNIT_OC);
+            ou.add(SchemaConstants.OU_AT, parentDn.getRdn().getValue());
+            directoryService.getAdminSession().add(ou);
+        }
+        String realmSuffix = namePattern.contains("@") ? "" : "@" + realm;
+        int batchSize = Math.max(1, importer.getBatchSize());
+        List<Entry> batch = new ArrayList<>(Math.min(batchSize, count));
+        long added = 0;
+        for (int i = 0; i < count; i++) {
+            String number = String.valueOf(i);
+            String name = namePattern.replace(PLACEHOLDER_NUMBER, number);
+            Entry entry = new DefaultEntry(schemaManager,
+                    parentDn.add(new Rdn(schemaManager, SchemaConstants.UID_AT, name)));
+            entry.add(SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.TOP_OC, SchemaConstants.PERSON_OC,
+                    SchemaConstants.INET_ORG_PERSON_OC, "krb5principal", "krb5kdcentry");
+            entry.add(SchemaConstants.CN_AT, name);
+            entry.add(SchemaConstants.SN_AT, service ? "Service" : name);
+            entry.add(SchemaConstants.UID_AT, name);
+            entry.add(SchemaConstants.USER_PASSWORD_AT, passwordPattern.replace(PLACEHOLDER_NUMBER, number));
+            entry.add(KerberosAttribute.KRB5_PRINCIPAL_NAME_AT, name + realmSuffix);
+            entry.add(KerberosAttribute.KRB5_KEY_VERSION_NUMBER_AT, "0");
+            batch.add(entry);
+            if (batch.size() >= batchSize) {
+                added += importer.addEntries(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            added += importer.addEntries(batch);
+        }
+        long nanos = System.nanoTime() - startTime;
+        LOGGER.info("Generated {} principals from '{}' in {}ms ({} principals/s)", added, namePattern,
+                TimeUnit.NANOSECONDS.toMillis(nanos), nanos > 0 ? added * TimeUnit.SECONDS.toNanos(1) / nanos : 0);
+        return added;
+    }
+}
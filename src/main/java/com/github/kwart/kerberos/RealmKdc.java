@@ -0,0 +1,266 @@
+package com.github.kwart.kerberos;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.kerberos.KerberosConfig;
+import org.apache.directory.server.kerberos.kdc.DirectoryPrincipalStore;
+import org.apache.directory.server.kerberos.shared.crypto.encryption.CipherTextHandler;
+import org.apache.directory.server.kerberos.shared.crypto.encryption.KeyUsage;
+import org.apache.directory.server.kerberos.shared.crypto.encryption.RandomKeyFactory;
+import org.apache.directory.server.kerberos.shared.store.PrincipalStore;
+import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntry;
+import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.apache.directory.server.protocol.shared.transport.Transport;
+import org.apache.directory.server.protocol.shared.transport.UdpTransport;
+import org.apache.directory.shared.kerberos.KerberosTime;
+import org.apache.directory.shared.kerberos.KerberosUtils;
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+import org.apache.directory.shared.kerberos.codec.types.PrincipalNameType;
+import org.apache.directory.shared.kerberos.components.EncTicketPart;
+import org.apache.directory.shared.kerberos.components.EncryptionKey;
+import org.apache.directory.shared.kerberos.components.PrincipalName;
+import org.apache.directory.shared.kerberos.components.TransitedEncoding;
+import org.apache.directory.shared.kerberos.exceptions.ErrorType;
+import org.apache.directory.shared.kerberos.exceptions.KerberosException;
+import org.apache.directory.shared.kerberos.flags.TicketFlag;
+import org.apache.directory.shared.kerberos.flags.TicketFlags;
+import org.apache.directory.shared.kerberos.messages.Ticket;
+
+/**
+ * KDC of one Kerberos realm. The realms served by a {@link KerberosServer} share the directory service (and the schema), each
+ * realm has its own KDC port and the principals stored under its base DN.
+ *
+ * @author Josef Cacek
+ */
+public class RealmKdc {
+
+    /**
+     * Number of attempts to find a port free for both UDP and TCP when the port 0 is configured.
+     */
+    private static final int FREE_PORT_ATTEMPTS = 10;
+
+    private final String realm;
+    private final String bindAddress;
+    private volatile int port;
+    private final String baseDn;
+    private final DirectoryService directoryService;
+    private final boolean principalIndex;
+    private final ConfigurableKdcServer kdcServer;
+    private IndexedPrincipalStore principalStore;
+
+    RealmKdc(KerberosOptions options, String realm, int port, String baseDn, DirectoryService directoryService) {
+        this.realm = realm;
+        this.bindAddress = options.getBindAddress();
+        this.port = port;
+        this.baseDn = baseDn;
+        this.directoryService = directoryService;
+        this.principalIndex = !options.isDisablePrincipalIndex();
+
+        kdcServer = new ConfigurableKdcServer();
+        kdcServer.setServiceName("KerberosServer");
+        kdcServer.setSearchBaseDn(baseDn);
+        KerberosConfig config = kdcServer.getConfig();
+        config.setServicePrincipal("krbtgt/" + realm + "@" + realm);
+        config.setPrimaryRealm(realm);
+        config.setMaximumTicketLifetime(TimeUnit.DAYS.toMillis(1));
+        config.setMaximumRenewableLifetime(TimeUnit.DAYS.toMillis(7));
+
+        config.setPaEncTimestampRequired(false);
+        if (options.getKdcEncryptionTypes() != null && !options.getKdcEncryptionTypes().isEmpty()) {
+            config.setEncryptionTypes(CreateKeytab.parseEncryptionTypes(options.getKdcEncryptionTypes()));
+        }
+
+        kdcServer.setReplayCacheDisabled(options.isDisableReplayCache());
+        if (options.getReplayCacheType() == KerberosOptions.ReplayCacheType.STRIPED) {
+            long window = options.getReplayCacheWindow() > 0 ? TimeUnit.SECONDS.toMillis(options.getReplayCacheWindow())
+                    : config.getAllowableClockSkew();
+            kdcServer.setReplayCache(new StripedReplayCache(window, options.getReplayCacheSize()));
+        }
+
+        kdcServer.addTransports(new UdpTransport(options.getBindAddress(), port),
+                new TcpTransport(options.getBindAddress(), port, options.getKdcIoThreads(), options.getTcpBacklog()));
+        kdcServer.setDirectoryService(directoryService);
+    }
+
+    /**
+     * Returns the default base DN for the given realm name (e.g. "dc=other,dc=example" for "OTHER.EXAMPLE").
+     */
+    public static String getDefaultBaseDn(String realm) {
+        StringBuilder sb = new StringBuilder();
+        for (String label : realm.toLowerCase(Locale.ENGLISH).split("\\.")) {
+            if (!label.isEmpty()) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append("dc=").append(label);
+            }
+        }
+        return sb.toString();
+    }
+
+    public void start() throws Exception {
+        if (principalIndex) {
+            principalStore = new IndexedPrincipalStore(directoryService, directoryService.getDnFactory().create(baseDn));
+            kdcServer.setPrincipalStore(principalStore);
+        }
+        if (port == 0) {
+            startOnFreePort();
+        } else {
+            kdcServer.start();
+        }
+    }
+
+    /**
+     * Starts the KDC on an ephemeral port which is free for both UDP and TCP (the clients use the same port number for both).
+     */
+    private void startOnFreePort() throws Exception {
+        IOException failure = null;
+        for (int attempt = 0; attempt < FREE_PORT_ATTEMPTS; attempt++) {
+            int freePort = findFreePort();
+            if (freePort < 0) {
+                continue;
+            }
+            for (Transport transport : kdcServer.getTransports()) {
+                transport.setPort(freePort);
+                transport.getAcceptor().setDefaultLocalAddress(new InetSocketAddress(bindAddress, freePort));
+            }
+            try {
+                kdcServer.start();
+                port = freePort;
+                return;
+            } catch (IOException e) {
+                // the port was taken in the meantime
+                failure = e;
+                for (Transport transport : kdcServer.getTransports()) {
+                    transport.getAcceptor().unbind();
+                }
+            }
+        }
+        throw failure != null ? failure : new IOException("No free KDC port found for realm " + realm);
+    }
+
+    /**
+     * Returns an ephemeral TCP port which is also free for UDP, or -1.
+     */
+    private int findFreePort() throws IOException {
+        InetAddress address = InetAddress.getByName(bindAddress);
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, address)) {
+            try (DatagramSocket datagramSocket = new DatagramSocket(serverSocket.getLocalPort(), address)) {
+                return datagramSocket.getLocalPort();
+            } catch (SocketException e) {
+                return -1;
+            }
+        }
+    }
+
+    public void stop() {
+        kdcServer.stop();
+        if (principalStore != null) {
+            principalStore.close();
+            principalStore = null;
+        }
+    }
+
+    /**
+     * Issues a TGT for the given client principal of this realm without the AS exchange, i.e. the same ticket as the KDC
+     * issues for a pre-authenticated AS request with the forwardable and renewable options. The returned ticket contains its
+     * {@link EncTicketPart} with the session key, so it can be stored in a credential cache (see
+     * {@link CredentialsCacheWriter}).
+     */
+    public Ticket issueTicketGrantingTicket(String clientPrincipal) throws Exception {
+        KerberosConfig config = kdcServer.getConfig();
+        PrincipalStore store = principalStore != null ? principalStore
+                : new DirectoryPrincipalStore(directoryService, directoryService.getDnFactory().create(baseDn));
+        KerberosPrincipal client = new KerberosPrincipal(clientPrincipal);
+        PrincipalStoreEntry clientEntry = KerberosUtils.getEntry(client, store, ErrorType.KDC_ERR_C_PRINCIPAL_UNKNOWN);
+        if (clientEntry.isDisabled() || clientEntry.isLockedOut()) {
+            throw new KerberosException(ErrorType.KDC_ERR_CLIENT_REVOKED, clientPrincipal);
+        }
+        KerberosPrincipal server = config.getServicePrincipal();
+        Map<EncryptionType, EncryptionKey> serverKeys = KerberosUtils
+                .getEntry(server, store, ErrorType.KDC_ERR_S_PRINCIPAL_UNKNOWN).getKeyMap();
+        EncryptionType encryptionType = KerberosUtils.getBestEncryptionType(serverKeys.keySet(),
+                config.getEncryptionTypes());
+        if (encryptionType == null) {
+            throw new KerberosException(ErrorType.KDC_ERR_ETYPE_NOSUPP, server.getName());
+        }
+
+        EncTicketPart encTicketPart = new EncTicketPart();
+        TicketFlags ticketFlags = new TicketFlags();
+        ticketFlags.setFlag(TicketFlag.INITIAL);
+        ticketFlags.setFlag(TicketFlag.PRE_AUTHENT);
+        if (config.isForwardableAllowed()) {
+            ticketFlags.setFlag(TicketFlag.FORWARDABLE);
+        }
+        KerberosTime now = new KerberosTime();
+        if (config.isRenewableAllowed()) {
+            ticketFlags.setFlag(TicketFlag.RENEWABLE);
+            encTicketPart.setRenewTill(new KerberosTime(now.getTime() + config.getMaximumRenewableLifetime()));
+        }
+        encTicketPart.setFlags(ticketFlags);
+        encTicketPart.setKey(RandomKeyFactory.getRandomKey(encryptionType));
+        encTicketPart.setCName(new PrincipalName(client));
+        encTicketPart.setCRealm(client.getRealm());
+        encTicketPart.setTransited(new TransitedEncoding());
+        encTicketPart.setAuthTime(now);
+        encTicketPart.setStartTime(now);
+        encTicketPart.setEndTime(new KerberosTime(now.getTime() + config.getMaximumTicketLifetime()));
+
+        PrincipalName serverName = new PrincipalName(server);
+        serverName.setNameType(PrincipalNameType.KRB_NT_SRV_INST);
+        Ticket ticket = new Ticket(serverName, new CipherTextHandler().seal(serverKeys.get(encryptionType), encTicketPart,
+                KeyUsage.AS_OR_TGS_REP_TICKET_WITH_SRVKEY));
+        ticket.setRealm(realm);
+        ticket.setEncTicketPart(encTicketPart);
+        return ticket;
+    }
+
+    /**
+     * Refreshes the principal index entries of the given DNs (when the index is used).
+     */
+    void refreshPrincipals(List<Dn> dns) {
+        IndexedPrincipalStore store = principalStore;
+        if (store != null) {
+            store.refresh(dns);
+        }
+    }
+
+    public String getRealm() {
+        return realm;
+    }
+
+    /**
+     * Returns the KDC port. When the port 0 was configured, it's the bound port after the KDC start.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    public String getBaseDn() {
+        return baseDn;
+    }
+
+    public ConfigurableKdcServer getKdcServer() {
+        return kdcServer;
+    }
+
+    /**
+     * Returns the principal index or {@code null} when the index is disabled or the KDC is not started.
+     */
+    IndexedPrincipalStore getPrincipalStore() {
+        return principalStore;
+    }
+}
@@ -0,0 +1,235 @@
+package com.github.kwart.kerberos;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.ResourceMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prebuilt binary image of the schema LDIF files shipped in the ApacheDS jars. The image is generated during the build (see
+ * {@link #main(String[])}) and both the {@link ImageSchemaLoader} and the {@link InMemorySchemaPartition} are fed from it,
+ * so the schema is read in one pass instead of scanning the classpath and parsing ~1,300 LDIF files twice.
+ *
+ * @author Josef Cacek
+ */
+public class SchemaImage {
+
+    private static Logger LOG = LoggerFactory.getLogger(SchemaImage.class);
+
+    public static final String RESOURCE_NAME = "kerberos-server-schema.bin";
+
+    private static final int MAGIC = 0x4b534931; // "KSI1"
+
+    /**
+     * Schema entries keyed by their resource path (always using '/' as separator), in the order of the sorted paths.
+     */
+    private final Map<String, Entry> entries;
+
+    private SchemaImage(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Generates the schema image. The only argument is the output file path.
+     *
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args == null || args.length != 1) {
+            System.out.println("Usage:");
+            System.out.println("java -classpath kerberos-server.jar " + SchemaImage.class.getName() + " <outputFile>");
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        SchemaImage image = fromClasspathLdifs();
+        File outputFile = new File(args[0]);
+        File parent = outputFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (OutputStream os = new FileOutputStream(outputFile)) {
+            image.write(os);
+        }
+        System.out.println("Schema image with " + image.size() + " entries written to " + outputFile.getAbsolutePath()
+                + " in " + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    /**
+     * Loads the prebuilt image from the classpath.
+     *
+     * @return the image or <code>null</code> if it's not available (e.g. when running from classes not processed by Maven)
+     */
+    public static SchemaImage load() {
+        InputStream is = SchemaImage.class.getResourceAsStream("/" + RESOURCE_NAME);
+        if (is == null) {
+            LOG.info("Schema image {} not found on the classpath, loading the LDIF schema files", RESOURCE_NAME);
+            return null;
+        }
+        try {
+            return read(is);
+        } catch (IOException | LdapException e) {
+            LOG.warn("Unable to read the schema image, falling back to the LDIF schema files", e);
+            return null;
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                LOG.debug("Closing the schema image stream failed", e);
+            }
+        }
+    }
+
+    /**
+     * Builds the image by scanning the classpath for schema LDIF files - the same way as the {@link InMemorySchemaPartition}
+     * originally did it.
+     */
+    public static SchemaImage fromClasspathLdifs() throws IOException, LdapException {
+        final Map<String, Boolean> resMap = ResourceMap.getResources(Pattern.compile("schema[/\\Q\\\\E]ou=schema.*"));
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        for (String resourcePath : new TreeSet<String>(resMap.keySet())) {
+            if (resourcePath.endsWith(".ldif")) {
+                URL resource = DefaultSchemaLdifExtractor.getUniqueResource(resourcePath, "Schema LDIF file");
+                try (LdifReader reader = new LdifReader(resource.openStream())) {
+                    LdifEntry ldifEntry = reader.next();
+                    entries.put(resourcePath.replace('\\', '/'), ldifEntry.getEntry());
+                }
+            }
+        }
+        return new SchemaImage(entries);
+    }
+
+    /**
+     * Reads the image from the given stream. The stream is not closed.
+     */
+    public static SchemaImage read(InputStream is) throws IOException, LdapException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(is, 64 * 1024));
+        if (dis.readInt() != MAGIC) {
+            throw new IOException("Not a schema image");
+        }
+        int count = dis.readInt();
+        Map<String, Entry> entries = new LinkedHashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            String path = readString(dis);
+            Entry entry = new DefaultEntry(new Dn(readString(dis)));
+            int attrCount = dis.readInt();
+            for (int a = 0; a < attrCount; a++) {
+                String upId = readString(dis);
+                boolean humanReadable = dis.readBoolean();
+                int valueCount = dis.readInt();
+                if (humanReadable) {
+                    String[] values = new String[valueCount];
+                    for (int v = 0; v < valueCount; v++) {
+                        values[v] = readString(dis);
+                    }
+                    entry.add(upId, values);
+                } else {
+                    byte[][] values = new byte[valueCount][];
+                    for (int v = 0; v < valueCount; v++) {
+                        values[v] = readBytes(dis);
+                    }
+                    entry.add(upId, values);
+                }
+            }
+            entries.put(path, entry);
+        }
+        return new SchemaImage(entries);
+    }
+
+    /**
+     * Writes the image to the given stream. The stream is not closed.
+     */
+    public void write(OutputStream os) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(os, 64 * 1024));
+        dos.writeInt(MAGIC);
+        dos.writeInt(entries.size());
+        for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            writeString(dos, mapEntry.getKey());
+            writeString(dos, entry.getDn().getName());
+            dos.writeInt(entry.size());
+            for (Attribute attribute : entry) {
+                writeString(dos, attribute.getUpId());
+                boolean humanReadable = attribute.isHumanReadable();
+                dos.writeBoolean(humanReadable);
+                dos.writeInt(attribute.size());
+                for (Value<?> value : attribute) {
+                    if (humanReadable) {
+                        writeString(dos, value.getString());
+                    } else {
+                        writeBytes(dos, value.getBytes());
+                    }
+                }
+            }
+        }
+        dos.flush();
+    }
+
+    /**
+     * Returns number of entries in the image.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns all the schema entries (i.e. content of the "ou=schema" partition) in the sorted resource path order.
+     */
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Returns the schema entries keyed by their resource path (with '/' used as the separator), e.g.
+     * <code>schema/ou=schema/cn=core/ou=attributetypes/m-oid=2.5.4.3.ldif</code>.
+     */
+    public Map<String, Entry> getEntriesByPath() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    private static void writeString(DataOutputStream dos, String str) throws IOException {
+        writeBytes(dos, str.getBytes(UTF_8));
+    }
+
+    private static void writeBytes(DataOutputStream dos, byte[] bytes) throws IOException {
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    private static String readString(DataInputStream dis) throws IOException {
+        return new String(readBytes(dis), UTF_8);
+    }
+
+    private static byte[] readBytes(DataInputStream dis) throws IOException {
+        byte[] bytes = new byte[dis.readInt()];
+        dis.readFully(bytes);
+        return bytes;
+    }
+}
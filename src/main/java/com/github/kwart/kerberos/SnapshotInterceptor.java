@@ -0,0 +1,313 @@
+package com.github.kwart.kerberos;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionNexus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Interceptor which allows to revert the directory content to a snapshot. It works as a copy-on-write journal: taking the
+ * snapshot just starts a new (empty) journal and the interceptor stores the original version of an entry when the entry
+ * is changed for the first time after the snapshot. So neither the snapshot nor the reset copy the whole directory, their
+ * cost depends only on the number of entries changed in between.
+ * <p>
+ * The reset writes the original entries directly to the partitions (i.e. it bypasses the interceptor chain, so the
+ * Kerberos keys are not derived again and no events are fired). The caller gets the reverted DNs, so it can refresh the
+ * data derived from them (e.g. {@link IndexedPrincipalStore}). The deleted (or moved) entries are re-created with a new
+ * <code>entryUUID</code>. The schema partition is not journaled.
+ * <p>
+ * The journal is inactive (and the interceptor only passes the operations through) until the first {@link #snapshot()}.
+ * The first change of an entry is captured by {@link ConcurrentMap#putIfAbsent}, so the interceptor adds no lock of its
+ * own to the write operations.
+ *
+ * @author Josef Cacek
+ */
+public class SnapshotInterceptor extends BaseInterceptor {
+
+    public static final String NAME = "snapshotInterceptor";
+
+    private static Logger LOGGER = LoggerFactory.getLogger(SnapshotInterceptor.class);
+
+    /**
+     * Attributes maintained by the partition itself, they are not reverted.
+     */
+    private static final Set<String> PARTITION_ATTRIBUTES = new HashSet<>();
+    static {
+        PARTITION_ATTRIBUTES.add(SchemaConstants.ENTRY_UUID_AT_OID);
+        PARTITION_ATTRIBUTES.add(SchemaConstants.ENTRY_DN_AT_OID);
+        PARTITION_ATTRIBUTES.add(ApacheSchemaConstants.ENTRY_PARENT_ID_OID);
+    }
+
+    /**
+     * Normalized DN to the original version of the changed entry.
+     */
+    private final ConcurrentMap<String, Original> journal = new ConcurrentHashMap<>();
+    private volatile boolean active;
+
+    public SnapshotInterceptor() {
+        super(NAME);
+    }
+
+    /**
+     * Takes a new snapshot of the directory content, i.e. the current content becomes the state restored by {@link #reset()}.
+     * The journaling starts with the first snapshot.
+     */
+    public void snapshot() {
+        OperationManager operationManager = directoryService.getOperationManager();
+        operationManager.lockWrite();
+        try {
+            journal.clear();
+            active = true;
+        } finally {
+            operationManager.unlockWrite();
+        }
+    }
+
+    /**
+     * Returns {@code true} when a snapshot was taken, i.e. the changes are journaled.
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Returns number of the entries changed since the snapshot.
+     */
+    public int getChangedEntries() {
+        return journal.size();
+    }
+
+    /**
+     * Reverts the directory content to the last snapshot. The directory write operations are blocked during the reset.
+     *
+     * @return DNs of the reverted entries
+     * @throws IllegalStateException when no snapshot was taken
+     */
+    public List<Dn> reset() throws LdapException {
+        OperationManager operationManager = directoryService.getOperationManager();
+        operationManager.lockWrite();
+        try {
+            if (!active) {
+                throw new IllegalStateException("No snapshot was taken");
+            }
+            List<Original> originals = new ArrayList<>(journal.values());
+            journal.clear();
+            revert(originals);
+            List<Dn> result = new ArrayList<>(originals.size());
+            for (Original original : originals) {
+                result.add(original.dn);
+            }
+            return result;
+        } finally {
+            operationManager.unlockWrite();
+        }
+    }
+
+    @Override
+    public void add(AddOperationContext addContext) throws LdapException {
+        if (active) {
+            record(addContext.getDn());
+        }
+        next(addContext);
+    }
+
+    @Override
+    public void delete(DeleteOperationContext deleteContext) throws LdapException {
+        if (active) {
+            record(deleteContext.getDn());
+        }
+        next(deleteContext);
+    }
+
+    @Override
+    public void modify(ModifyOperationContext modifyContext) throws LdapException {
+        if (active) {
+            record(modifyContext.getDn());
+        }
+        next(modifyContext);
+    }
+
+    @Override
+    public void move(MoveOperationContext moveContext) throws LdapException {
+        if (active) {
+            Dn dn = moveContext.getDn();
+            recordSubtree(dn, moveContext.getNewSuperior().add(dn.getRdn()));
+        }
+        next(moveContext);
+    }
+
+    @Override
+    public void moveAndRename(MoveAndRenameOperationContext moveAndRenameContext) throws LdapException {
+        if (active) {
+            recordSubtree(moveAndRenameContext.getDn(),
+                    moveAndRenameContext.getNewSuperiorDn().add(moveAndRenameContext.getNewRdn()));
+        }
+        next(moveAndRenameContext);
+    }
+
+    @Override
+    public void rename(RenameOperationContext renameContext) throws LdapException {
+        if (active) {
+            Dn dn = renameContext.getDn();
+            Rdn newRdn = renameContext.getNewRdn();
+            recordSubtree(dn, dn.getParent().add(newRdn));
+        }
+        next(renameContext);
+    }
+
+    /**
+     * Stores the original version of the entry, if it's the first change of the entry since the snapshot. The entry is
+     * captured before the operation proceeds, so the first captured version wins even for concurrent writes.
+     */
+    private void record(Dn dn) throws LdapException {
+        if (isJournaled(dn)) {
+            journal.putIfAbsent(dn.getNormName(), new Original(dn, lookup(dn)));
+        }
+    }
+
+    /**
+     * Stores the original versions of the renamed/moved subtree entries, both under the old and the new DN.
+     */
+    private void recordSubtree(Dn oldDn, Dn newDn) throws LdapException {
+        newDn = dnFactory.create(newDn.getName());
+        CoreSession session = directoryService.getAdminSession();
+        SearchOperationContext searchContext = new SearchOperationContext(session, oldDn, SearchScope.SUBTREE,
+                new PresenceNode(schemaManager.getAttributeType(SchemaConstants.OBJECT_CLASS_AT)),
+                SchemaConstants.ALL_ATTRIBUTES_ARRAY);
+        searchContext.setAliasDerefMode(AliasDerefMode.NEVER_DEREF_ALIASES);
+        List<Dn> dns = new ArrayList<>();
+        try (Cursor<Entry> cursor = directoryService.getPartitionNexus().search(searchContext)) {
+            while (cursor.next()) {
+                dns.add(cursor.get().getDn());
+            }
+        } catch (LdapException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new LdapException(e);
+        }
+        for (Dn dn : dns) {
+            record(dn);
+            record(dnFactory.create(newDn.add(dn.getDescendantOf(oldDn)).getName()));
+        }
+    }
+
+    private boolean isJournaled(Dn dn) {
+        return !journal.containsKey(dn.getNormName()) && !dn.isDescendantOf(SchemaConstants.OU_SCHEMA);
+    }
+
+    private Entry lookup(Dn dn) throws LdapException {
+        try {
+            Entry entry = directoryService.getPartitionNexus()
+                    .lookup(new LookupOperationContext(directoryService.getAdminSession(), dn));
+            return entry != null ? entry.clone() : null;
+        } catch (LdapNoSuchObjectException e) {
+            return null;
+        }
+    }
+
+    private void revert(List<Original> originals) throws LdapException {
+        PartitionNexus nexus = directoryService.getPartitionNexus();
+        CoreSession session = directoryService.getAdminSession();
+        // remove the new entries, children first
+        originals.sort(Comparator.comparingInt((Original o) -> o.dn.size()).reversed());
+        for (Original original : originals) {
+            if (original.entry == null && lookup(original.dn) != null) {
+                nexus.delete(new DeleteOperationContext(session, original.dn));
+            }
+        }
+        // restore the original entries, parents first
+        originals.sort(Comparator.comparingInt((Original o) -> o.dn.size()));
+        for (Original original : originals) {
+            if (original.entry == null) {
+                continue;
+            }
+            Entry current = lookup(original.dn);
+            if (current == null) {
+                Entry entry = original.entry.clone();
+                entry.removeAttributes(SchemaConstants.ENTRY_DN_AT);
+                // the partition caches are keyed by the entryUUID, so the re-created entry has to get a new one
+                entry.put(SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString());
+                nexus.add(new AddOperationContext(session, entry));
+            } else {
+                List<Modification> modifications = getModifications(current, original.entry);
+                if (!modifications.isEmpty()) {
+                    nexus.modify(new ModifyOperationContext(session, original.dn, modifications));
+                }
+            }
+        }
+        LOGGER.debug("Reverted {} entries to the snapshot", originals.size());
+    }
+
+    /**
+     * Returns modifications which replace the current attributes by the original ones.
+     */
+    private static List<Modification> getModifications(Entry current, Entry original) {
+        List<Modification> modifications = new ArrayList<>();
+        for (Attribute attribute : original) {
+            if (!isPartitionAttribute(attribute) && !attribute.equals(current.get(attribute.getAttributeType()))) {
+                modifications.add(new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, attribute.clone()));
+            }
+        }
+        for (Attribute attribute : current) {
+            AttributeType attributeType = attribute.getAttributeType();
+            if (!isPartitionAttribute(attribute) && original.get(attributeType) == null) {
+                modifications.add(
+                        new DefaultModification(ModificationOperation.REMOVE_ATTRIBUTE, new DefaultAttribute(attributeType)));
+            }
+        }
+        return modifications;
+    }
+
+    private static boolean isPartitionAttribute(Attribute attribute) {
+        return attribute.getAttributeType() == null || PARTITION_ATTRIBUTES.contains(attribute.getAttributeType().getOid());
+    }
+
+    private static class Original {
+        private final Dn dn;
+        /**
+         * The entry in the snapshot or {@code null} when it didn't exist.
+         */
+        private final Entry entry;
+
+        Original(Dn dn, Entry entry) {
+            this.dn = dn;
+            this.entry = entry;
+        }
+    }
+}
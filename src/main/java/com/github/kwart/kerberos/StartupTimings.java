@@ -0,0 +1,52 @@
+package com.github.kwart.kerberos;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Durations of the server startup phases. The phases can be measured from more threads, they are kept in the order in which
+ * they finished.
+ *
+ * @author Josef Cacek
+ */
+final class StartupTimings {
+
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    /**
+     * Runs the task and records its duration under the given phase name.
+     */
+    <T> T time(String phase, Callable<T> task) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return task.call();
+        } finally {
+            record(phase, (System.nanoTime() - start) / 1_000_000L);
+        }
+    }
+
+    synchronized void record(String phase, long millis) {
+        phases.put(phase, millis);
+    }
+
+    /**
+     * Returns the phase durations in milliseconds.
+     */
+    synchronized Map<String, Long> getPhases() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(phases));
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(phase.getKey()).append("=").append(phase.getValue()).append("ms");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,278 @@
+package com.github.kwart.kerberos;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.server.kerberos.shared.replay.ReplayCache;
+import org.apache.directory.shared.kerberos.KerberosTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ReplayCache} optimized for high request rates. The authenticators are stored as 64bit fingerprints (of the
+ * principal names, client time and microseconds) in primitive hash sets, so no objects are created per request.
+ * <p>
+ * The sets are split into lock stripes (by the fingerprint) and each stripe into time buckets (by the client time). Only
+ * the authenticators with the client time within the window (the allowed clock skew) around the current time are stored,
+ * other ones are rejected by the KDC anyway. A bucket is cleared as a whole when its time slot moves out of the window, so
+ * there is no per-entry expiration.
+ * <p>
+ * When a stripe is full (see the {@code maxEntries} constructor argument), the new authenticators are not stored and a
+ * warning is logged.
+ *
+ * @author Josef Cacek
+ */
+public class StripedReplayCache implements ReplayCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1_000_000;
+
+    private static Logger LOGGER = LoggerFactory.getLogger(StripedReplayCache.class);
+
+    private static final int STRIPE_COUNT = 64;
+    private static final int BUCKETS_PER_WINDOW = 16;
+
+    private final long window;
+    private final long bucketWidth;
+    private final int bucketCount;
+    private final int maxStripeEntries;
+    private final LongSupplier clock;
+    private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+
+    /**
+     * Constructor.
+     *
+     * @param window the window (allowed clock skew) in milliseconds
+     * @param maxEntries maximal number of stored authenticators
+     */
+    public StripedReplayCache(long window, int maxEntries) {
+        this(window, maxEntries, System::currentTimeMillis);
+    }
+
+    StripedReplayCache(long window, int maxEntries, LongSupplier clock) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("The replay cache window has to be positive");
+        }
+        this.window = window;
+        this.bucketWidth = Math.max(1L, window / BUCKETS_PER_WINDOW);
+        // the buckets cover the time range <now-window, now+window>
+        this.bucketCount = (int) (2 * window / bucketWidth) + 2;
+        this.maxStripeEntries = Math.max(1, maxEntries / STRIPE_COUNT);
+        this.clock = clock;
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe(bucketCount);
+        }
+    }
+
+    @Override
+    public boolean isReplay(KerberosPrincipal serverPrincipal, KerberosPrincipal clientPrincipal, KerberosTime clientTime,
+            int clientMicroSeconds) {
+        long time = clientTime.getTime();
+        if (!isInWindow(time)) {
+            return false;
+        }
+        long fingerprint = fingerprint(serverPrincipal, clientPrincipal, time, clientMicroSeconds);
+        long slot = Math.floorDiv(time, bucketWidth);
+        Stripe stripe = stripes[stripeIndex(fingerprint)];
+        synchronized (stripe) {
+            int bucket = (int) Math.floorMod(slot, (long) bucketCount);
+            return stripe.slots[bucket] == slot && stripe.sets[bucket].contains(fingerprint);
+        }
+    }
+
+    @Override
+    public void save(KerberosPrincipal serverPrincipal, KerberosPrincipal clientPrincipal, KerberosTime clientTime,
+            int clientMicroSeconds) {
+        long time = clientTime.getTime();
+        if (!isInWindow(time)) {
+            return;
+        }
+        long fingerprint = fingerprint(serverPrincipal, clientPrincipal, time, clientMicroSeconds);
+        long slot = Math.floorDiv(time, bucketWidth);
+        Stripe stripe = stripes[stripeIndex(fingerprint)];
+        synchronized (stripe) {
+            int bucket = (int) Math.floorMod(slot, (long) bucketCount);
+            if (stripe.slots[bucket] > slot) {
+                // a newer slot already uses the bucket, so the client time is too old
+                return;
+            }
+            if (stripe.slots[bucket] < slot) {
+                stripe.clearBucket(bucket);
+                stripe.slots[bucket] = slot;
+            }
+            if (stripe.size >= maxStripeEntries) {
+                stripe.expire(Math.floorDiv(clock.getAsLong() - window, bucketWidth));
+                if (stripe.size >= maxStripeEntries) {
+                    if (!stripe.fullReported) {
+                        stripe.fullReported = true;
+                        LOGGER.warn("Replay cache is full, authenticators are not stored. Consider increasing its size.");
+                    }
+                    return;
+                }
+            }
+            if (stripe.sets[bucket].add(fingerprint)) {
+                stripe.size++;
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (int i = 0; i < bucketCount; i++) {
+                    stripe.clearBucket(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns number of stored authenticators. The buckets out of the window are cleared first.
+     */
+    public int size() {
+        long oldestSlot = Math.floorDiv(clock.getAsLong() - window, bucketWidth);
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.expire(oldestSlot);
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    private boolean isInWindow(long time) {
+        return Math.abs(clock.getAsLong() - time) <= window;
+    }
+
+    private static int stripeIndex(long fingerprint) {
+        return (int) (fingerprint >>> 58) & (STRIPE_COUNT - 1);
+    }
+
+    static long fingerprint(KerberosPrincipal serverPrincipal, KerberosPrincipal clientPrincipal, long time,
+            int microSeconds) {
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, serverPrincipal == null ? null : serverPrincipal.getName());
+        hash = hash(hash, clientPrincipal == null ? null : clientPrincipal.getName());
+        hash = mix(hash ^ time);
+        hash = mix(hash ^ microSeconds);
+        // zero is used as the empty slot marker in the sets
+        return hash == 0L ? 1L : hash;
+    }
+
+    private static long hash(long hash, String value) {
+        if (value == null) {
+            return mix(hash ^ 0x9e3779b97f4a7c15L);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        // separator, so "ab"+"c" differs from "a"+"bc"
+        return mix(hash ^ value.length());
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    private static class Stripe {
+        private final long[] slots;
+        private final LongHashSet[] sets;
+        private int size;
+        private boolean fullReported;
+
+        Stripe(int bucketCount) {
+            slots = new long[bucketCount];
+            Arrays.fill(slots, Long.MIN_VALUE);
+            sets = new LongHashSet[bucketCount];
+            for (int i = 0; i < bucketCount; i++) {
+                sets[i] = new LongHashSet();
+            }
+        }
+
+        void clearBucket(int bucket) {
+            size -= sets[bucket].size;
+            sets[bucket].clear();
+            slots[bucket] = Long.MIN_VALUE;
+            fullReported = false;
+        }
+
+        void expire(long oldestSlot) {
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] != Long.MIN_VALUE && slots[i] < oldestSlot) {
+                    clearBucket(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Open addressing hash set of non-zero longs. The table is kept when the set is cleared, so the buckets don't
+     * reallocate once they reach their working size.
+     */
+    static class LongHashSet {
+        private long[] table = new long[16];
+        private int size;
+
+        boolean contains(long value) {
+            int mask = table.length - 1;
+            for (int i = (int) value & mask;; i = (i + 1) & mask) {
+                long item = table[i];
+                if (item == value) {
+                    return true;
+                }
+                if (item == 0L) {
+                    return false;
+                }
+            }
+        }
+
+        boolean add(long value) {
+            if ((size + 1) * 2 > table.length) {
+                resize();
+            }
+            int mask = table.length - 1;
+            for (int i = (int) value & mask;; i = (i + 1) & mask) {
+                long item = table[i];
+                if (item == value) {
+                    return false;
+                }
+                if (item == 0L) {
+                    table[i] = value;
+                    size++;
+                    return true;
+                }
+            }
+        }
+
+        void clear() {
+            if (size > 0) {
+                Arrays.fill(table, 0L);
+                size = 0;
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void resize() {
+            long[] oldTable = table;
+            table = new long[oldTable.length * 2];
+            int mask = table.length - 1;
+            for (long value : oldTable) {
+                if (value != 0L) {
+                    int i = (int) value & mask;
+                    while (table[i] != 0L) {
+                        i = (i + 1) & mask;
+                    }
+                    table[i] = value;
+                }
+            }
+        }
+    }
+}
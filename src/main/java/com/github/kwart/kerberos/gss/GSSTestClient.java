@@ -1,5 +1,7 @@
 package com.github.kwart.kerberos.gss;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -32,6 +34,7 @@ public class GSSTestClient {
     private final String host;
     private final int port;
     private final String spn;
+    private boolean verbose = true;
 
     /**
      * Create a new GSSTestClient.
@@ -48,6 +51,15 @@ public class GSSTestClient {
 
     // Public methods --------------------------------------------------------
 
+    /**
+     * Enables or disables printing of the progress messages to the standard output (enabled by default).
+     *
+     * @param verbose
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
     /**
      * Retrieves the name of calling identity (based on given gssCredential) retrieved from {@link GSSTestServer}.
      *
@@ -57,15 +69,57 @@ public class GSSTestClient {
      * @throws GSSException
      */
     public String getName(final GSSCredential gssCredential) throws IOException, GSSException {
-        // Create an unbound socket
-        System.out.println("GSSCredential used:\n" + gssCredential);
-        final Socket socket = new Socket();
-        GSSContext gssContext = null;
+        try (Session session = connect(gssCredential)) {
+            return session.getName();
+        }
+    }
+
+    /**
+     * Connects to the {@link GSSTestServer} and establishes the GSS context (the {@link GSSTestServer#CMD_NAME} command).
+     * More commands can be then sent through the returned session.
+     *
+     * @param gssCredential
+     * @return the session which has to be closed by the caller
+     * @throws IOException
+     * @throws GSSException
+     */
+    public Session connect(final GSSCredential gssCredential) throws IOException, GSSException {
+        if (verbose) {
+            System.out.println("GSSCredential used:\n" + gssCredential);
+        }
+        Session session = new Session();
         try {
+            session.establish(gssCredential);
+        } catch (IOException | GSSException | RuntimeException e) {
+            session.close();
+            throw e;
+        }
+        return session;
+    }
+
+    /**
+     * A connection to the {@link GSSTestServer} with an established GSS context.
+     */
+    public class Session implements AutoCloseable {
+
+        // Create an unbound socket
+        private final Socket socket = new Socket();
+        private GSSContext gssContext;
+        private DataOutputStream dos;
+        private DataInputStream dis;
+        private String name;
+
+        private Session() {
+        }
+
+        private void establish(GSSCredential gssCredential) throws IOException, GSSException {
             socket.connect(new InetSocketAddress(host, port), GSSTestServer.SOCKET_TIMEOUT);
-            DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-            DataInputStream dis = new DataInputStream(socket.getInputStream());
-            System.out.println("Sending NAME command.");
+            socket.setTcpNoDelay(true);
+            dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            dis = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            if (verbose) {
+                System.out.println("Sending NAME command.");
+            }
             dos.writeInt(GSSTestServer.CMD_NAME);
             dos.flush();
 
@@ -82,22 +136,69 @@ public class GSSTestClient {
             while (!gssContext.isEstablished()) {
                 token = gssContext.initSecContext(token, 0, token.length);
                 if (token != null) {
-                    dos.writeInt(token.length);
-                    dos.write(token);
-                    dos.flush();
+                    writeToken(token);
                 }
                 if (!gssContext.isEstablished()) {
-                    token = new byte[dis.readInt()];
-                    dis.readFully(token);
+                    token = readToken();
                 }
             }
+            name = unwrap(readToken());
+        }
 
-            token = new byte[dis.readInt()];
-            dis.readFully(token);
+        /**
+         * Returns the client name returned by the server when the context was established.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Sends the wrapped message to the server ({@link GSSTestServer#CMD_ECHO}) and returns the unwrapped reply.
+         */
+        public String echo(String message) throws IOException, GSSException {
+            return new String(echo(message.getBytes(GSSTestServer.CHAR_ENC), true), GSSTestServer.CHAR_ENC);
+        }
+
+        /**
+         * Sends the wrapped message to the server ({@link GSSTestServer#CMD_ECHO}) and returns the unwrapped reply.
+         *
+         * @param message the message
+         * @param confidential {@code true} if the message should be encrypted, otherwise only its integrity is protected
+         */
+        public byte[] echo(byte[] message, boolean confidential) throws IOException, GSSException {
+            dos.writeInt(GSSTestServer.CMD_ECHO);
+            writeToken(gssContext.wrap(message, 0, message.length, new MessageProp(confidential)));
+            final byte[] token = readToken();
+            return gssContext.unwrap(token, 0, token.length, new MessageProp(false));
+        }
+
+        /**
+         * Returns the encryption type (algorithm) of the context session key.
+         */
+        public String getEncryptionType() {
+            return GSSTestServer.getEncryptionType(gssContext);
+        }
+
+        private String unwrap(byte[] token) throws GSSException, IOException {
             MessageProp msgProp = new MessageProp(false);
-            final byte[] nameBytes = gssContext.unwrap(token, 0, token.length, msgProp);
-            return new String(nameBytes, GSSTestServer.CHAR_ENC);
-        } finally {
+            final byte[] bytes = gssContext.unwrap(token, 0, token.length, msgProp);
+            return new String(bytes, GSSTestServer.CHAR_ENC);
+        }
+
+        private byte[] readToken() throws IOException {
+            byte[] token = new byte[dis.readInt()];
+            dis.readFully(token);
+            return token;
+        }
+
+        private void writeToken(byte[] token) throws IOException {
+            dos.writeInt(token.length);
+            dos.write(token);
+            dos.flush();
+        }
+
+        @Override
+        public void close() {
             try {
                 socket.close();
             } catch (IOException e) {
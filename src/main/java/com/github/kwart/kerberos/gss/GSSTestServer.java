@@ -1,5 +1,7 @@
 package com.github.kwart.kerberos.gss;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
@@ -8,10 +10,18 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.security.Key;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedActionException;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.security.auth.Subject;
 import javax.security.auth.login.AppConfigurationEntry;
@@ -20,12 +30,16 @@ import javax.security.auth.login.LoginContext;
 import javax.security.auth.login.LoginException;
 
 import org.apache.directory.api.util.IOUtils;
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
 import org.ietf.jgss.GSSContext;
 import org.ietf.jgss.GSSCredential;
 import org.ietf.jgss.GSSException;
 import org.ietf.jgss.GSSManager;
 import org.ietf.jgss.MessageProp;
 
+import com.sun.security.jgss.ExtendedGSSContext;
+import com.sun.security.jgss.InquireType;
+
 /**
  * A sample server application for testing Kerberos identity propagation.
  *
@@ -36,17 +50,35 @@ public class GSSTestServer {
     public static final String PROPERTY_PORT = "gsstestserver.port";
     public static final String PROPERTY_PRINCIPAL = "gsstestserver.principal";
     public static final String PROPERTY_PASSWORD = "gsstestserver.password";
+    public static final String PROPERTY_THREADS = "gsstestserver.threads";
+    public static final String PROPERTY_VERBOSE = "gsstestserver.verbose";
+    public static final String PROPERTY_SOCKET_TIMEOUT = "gsstestserver.socketTimeout";
 
     public static final int PORT = Integer.getInteger(PROPERTY_PORT, 10961);
     public static final String PRINCIPAL = System.getProperty(PROPERTY_PRINCIPAL, "gsstestserver/xxx@JBOSS.ORG");
     public static final String PASSWORD = System.getProperty(PROPERTY_PASSWORD, "gsstestpwd");
+    public static final int THREADS = Integer.getInteger(PROPERTY_THREADS, 4 * Runtime.getRuntime().availableProcessors());
+    public static final boolean VERBOSE = Boolean.parseBoolean(System.getProperty(PROPERTY_VERBOSE, "true"));
 
     public static final String CHAR_ENC = "UTF-8";
     public static final int CMD_NOOP = 0;
     public static final int CMD_NAME = 1;
     public static final int CMD_STOP = 2;
+    /**
+     * Unwraps the message sent by the client and sends it back wrapped. Requires the context established by {@link #CMD_NAME}
+     * on the same connection.
+     */
+    public static final int CMD_ECHO = 3;
+
+    public static final int BACKLOG = 1024;
+
+    /**
+     * Timeout in milliseconds for connecting and for the idle client connections (0 means no timeout). A connection without
+     * a command within the timeout is closed.
+     */
+    public static final int SOCKET_TIMEOUT = Integer.getInteger(PROPERTY_SOCKET_TIMEOUT, 30 * 1000); // 30s
 
-    public static final int SOCKET_TIMEOUT = 30 * 1000; // 30s
+    private static final InquireType SESSION_KEY_INQUIRE_TYPE = getSessionKeyInquireType();
 
     // Public methods --------------------------------------------------------
 
@@ -118,99 +150,264 @@ public class GSSTestServer {
         lc.login();
         System.out.println("Authentication succeed");
         // 2. Perform the work as authenticated Subject.
-        final String finishMsg = Subject.doAs(lc.getSubject(), new ServerAction());
+        final String finishMsg = Subject.doAs(lc.getSubject(), new ServerAction(lc.getSubject()));
         System.out.println("Server stopped with result: " + (finishMsg == null ? "OK" : finishMsg));
         lc.logout();
 
     }
 
     /**
-     * A ServerAction which creates a ServerSocket and waits for clients. It sends back the authenticated client name.
+     * Returns the encryption type (algorithm) of the session key of an established context.
+     */
+    public static String getEncryptionType(GSSContext gssContext) {
+        try {
+            final Key key = (Key) ((ExtendedGSSContext) gssContext).inquireSecContext(SESSION_KEY_INQUIRE_TYPE);
+            final String algorithm = key.getAlgorithm();
+            // newer JDKs return the numeric encryption type
+            return algorithm.matches("\\d+") ? EncryptionType.getTypeByValue(Integer.parseInt(algorithm)).getName()
+                    : algorithm;
+        } catch (GSSException | RuntimeException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * Returns {@code KRB5_GET_SESSION_KEY_EX} when the JDK provides it (it's looked up by name, as Java 8 doesn't have it).
+     */
+    private static InquireType getSessionKeyInquireType() {
+        try {
+            return InquireType.valueOf("KRB5_GET_SESSION_KEY_EX");
+        } catch (IllegalArgumentException e) {
+            return getLegacySessionKeyInquireType();
+        }
+    }
+
+    @SuppressWarnings("deprecation") // the only session key inquiry on Java 8
+    private static InquireType getLegacySessionKeyInquireType() {
+        return InquireType.KRB5_GET_SESSION_KEY;
+    }
+
+    /**
+     * Statistics of the {@link #CMD_ECHO} commands processed on a single connection.
+     */
+    static class EchoStats {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private long bytes;
+        private long firstNanos;
+        private long lastNanos;
+        private boolean confidential;
+
+        void record(long startNanos, int messageSize, boolean confidential) {
+            lastNanos = System.nanoTime();
+            if (histogram.getTotalCount() == 0) {
+                firstNanos = startNanos;
+            }
+            histogram.record(TimeUnit.NANOSECONDS.toMicros(lastNanos - startNanos));
+            bytes += messageSize;
+            this.confidential = confidential;
+        }
+
+        void print(String clientName, String encryptionType) {
+            if (histogram.getTotalCount() == 0) {
+                return;
+            }
+            final long nanos = Math.max(1L, lastNanos - firstNanos);
+            System.out.println(String.format(Locale.ROOT,
+                    "Wrap/unwrap %s (%s, %s): %d messages, %.1f MB/s, latency (us) mean %.1f, p50 %d, p99 %d, max %d",
+                    clientName, encryptionType, confidential ? "confidentiality" : "integrity only",
+                    histogram.getTotalCount(), bytes * 1e3 / nanos, histogram.getMean(),
+                    histogram.getValueAtPercentile(50d), histogram.getValueAtPercentile(99d), histogram.getMax()));
+        }
+    }
+
+    /**
+     * A ServerAction which creates a ServerSocket and waits for clients. The connections are served concurrently by a pool
+     * of {@link #THREADS} workers. Each connection has its own {@link GSSContext} which is established by the first
+     * {@link #CMD_NAME} command; the client can then send more commands on the same connection until it closes it.
      *
      * @author Josef Cacek
      */
     static class ServerAction implements PrivilegedAction<String> {
 
+        private final Subject subject;
+        private final int port;
+        private final GSSManager gssManager = GSSManager.getInstance();
+        private final AtomicInteger workerCounter = new AtomicInteger();
+        private volatile boolean stopped;
+        private volatile ServerSocket serverSocket;
+
+        ServerAction(Subject subject) {
+            this(subject, PORT);
+        }
+
+        /**
+         * Creates the action listening on the given port (0 for an ephemeral port, see {@link #getLocalPort()}).
+         */
+        ServerAction(Subject subject, int port) {
+            this.subject = subject;
+            this.port = port;
+        }
+
+        /**
+         * Returns the port the server listens on, or -1 if the server socket is not bound yet.
+         */
+        int getLocalPort() {
+            final ServerSocket socket = serverSocket;
+            return socket != null ? socket.getLocalPort() : -1;
+        }
+
         @Override
         public String run() {
-            final GSSManager gssManager = GSSManager.getInstance();
-            ServerSocket serverSocket = null;
+            final ExecutorService workers = Executors.newFixedThreadPool(THREADS, r -> {
+                Thread thread = new Thread(r, "gsstestserver-worker-" + workerCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
             try {
-                serverSocket = new ServerSocket(PORT);
-                System.out.println("Server started on port " + PORT);
-                int command = CMD_NOOP;
-                do {
-                    Socket socket = null;
-                    GSSContext gssContext = null;
+                serverSocket = new ServerSocket(port, BACKLOG);
+                System.out.println("Server started on port " + serverSocket.getLocalPort() + " with " + THREADS + " worker threads");
+                while (!stopped) {
+                    final Socket socket;
                     try {
-                        System.out.println("Waiting for client connection");
                         socket = serverSocket.accept();
-                        System.out.println("Client connected");
-                        gssContext = gssManager.createContext((GSSCredential) null);
-                        final DataInputStream dataInputStream = new DataInputStream(socket.getInputStream());
-                        final DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
+                    } catch (SocketException e) {
+                        if (stopped) {
+                            break;
+                        }
+                        throw e;
+                    }
+                    workers.execute(() -> Subject.doAs(subject, (PrivilegedAction<Void>) () -> {
+                        serve(socket);
+                        return null;
+                    }));
+                }
+                System.out.println("Stop command received.");
+            } catch (IOException e) {
+                e.printStackTrace();
+                return e.getMessage();
+            } finally {
+                IOUtils.closeQuietly(serverSocket);
+                workers.shutdown();
+                try {
+                    workers.awaitTermination(SOCKET_TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return null;
+        }
 
+        /**
+         * Processes the commands of a single client connection.
+         */
+        private void serve(Socket socket) {
+            GSSContext gssContext = null;
+            final EchoStats echoStats = new EchoStats();
+            try {
+                socket.setSoTimeout(SOCKET_TIMEOUT);
+                socket.setTcpNoDelay(true);
+                if (VERBOSE) {
+                    System.out.println("Client connected");
+                }
+                gssContext = gssManager.createContext((GSSCredential) null);
+                final DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                final DataOutputStream dataOutputStream = new DataOutputStream(
+                        new BufferedOutputStream(socket.getOutputStream()));
+                while (!stopped) {
+                    final int command;
+                    try {
                         command = dataInputStream.readInt();
+                    } catch (EOFException e) {
+                        // the client closed the connection
+                        break;
+                    } catch (SocketTimeoutException e) {
+                        if (VERBOSE) {
+                            System.out.println("Closing the connection idle for " + SOCKET_TIMEOUT + "ms");
+                        }
+                        break;
+                    }
+                    if (VERBOSE) {
                         System.out.println("Command code: " + command);
-                        if (command == CMD_NAME) {
-                            while (!gssContext.isEstablished()) {
-                                final byte[] inToken = new byte[dataInputStream.readInt()];
-                                dataInputStream.readFully(inToken);
-                                final byte[] outToken = gssContext.acceptSecContext(inToken, 0, inToken.length);
-
-                                if (outToken != null) {
-                                    dataOutputStream.writeInt(outToken.length);
-                                    dataOutputStream.write(outToken);
-                                    dataOutputStream.flush();
-                                }
-                            }
-                            final String clientName = gssContext.getSrcName().toString();
-                            System.out.println("Context Established with Client " + clientName);
-
-                            // encrypt
-                            final MessageProp msgProp = new MessageProp(true);
-                            final byte[] clientNameBytes = clientName.getBytes(CHAR_ENC);
-                            final byte[] outToken = gssContext.wrap(clientNameBytes, 0, clientNameBytes.length, msgProp);
-
-                            dataOutputStream.writeInt(outToken.length);
-                            dataOutputStream.write(outToken);
-                            dataOutputStream.flush();
+                    }
+                    if (command == CMD_STOP) {
+                        stopped = true;
+                        IOUtils.closeQuietly(serverSocket);
+                    } else if (command == CMD_NAME) {
+                        establishContext(gssContext, dataInputStream, dataOutputStream);
+                        final String clientName = gssContext.getSrcName().toString();
+                        // encrypt
+                        final byte[] clientNameBytes = clientName.getBytes(CHAR_ENC);
+                        writeToken(dataOutputStream,
+                                gssContext.wrap(clientNameBytes, 0, clientNameBytes.length, new MessageProp(true)));
+                        if (VERBOSE) {
                             System.out.println("Client name was returned as the token value.");
                         }
-                    } catch (EOFException e) {
-                        System.err.println("Client didn't send a correct message.");
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    } catch (GSSException e) {
-                        e.printStackTrace();
-                    } finally {
-                        if (gssContext != null) {
-                            try {
-                                gssContext.dispose();
-                            } catch (GSSException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                        if (socket != null) {
-                            try {
-                                socket.close();
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
+                    } else if (command == CMD_ECHO) {
+                        if (!gssContext.isEstablished()) {
+                            throw new IOException("The ECHO command requires the context established by the NAME command");
                         }
-
+                        final byte[] inToken = readToken(dataInputStream);
+                        final long startNanos = System.nanoTime();
+                        final MessageProp msgProp = new MessageProp(true);
+                        final byte[] message = gssContext.unwrap(inToken, 0, inToken.length, msgProp);
+                        // the reply uses the same protection as the request
+                        final byte[] outToken = gssContext.wrap(message, 0, message.length, msgProp);
+                        echoStats.record(startNanos, message.length, msgProp.getPrivacy());
+                        writeToken(dataOutputStream, outToken);
+                    } else if (command != CMD_NOOP) {
+                        throw new IOException("Unknown command: " + command);
                     }
-                } while (command != CMD_STOP);
-                System.out.println("Stop command received.");
+                }
+            } catch (EOFException e) {
+                System.err.println("Client didn't send a correct message.");
             } catch (IOException e) {
                 e.printStackTrace();
-                return e.getMessage();
+            } catch (GSSException e) {
+                e.printStackTrace();
             } finally {
-                IOUtils.closeQuietly(serverSocket);
+                if (gssContext != null) {
+                    try {
+                        if (gssContext.isEstablished()) {
+                            echoStats.print(gssContext.getSrcName().toString(), getEncryptionType(gssContext));
+                        }
+                        gssContext.dispose();
+                    } catch (GSSException e) {
+                        e.printStackTrace();
+                    }
+                }
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
-            return null;
         }
 
+        private static void establishContext(GSSContext gssContext, DataInputStream dataInputStream,
+                DataOutputStream dataOutputStream) throws IOException, GSSException {
+            while (!gssContext.isEstablished()) {
+                final byte[] inToken = readToken(dataInputStream);
+                final byte[] outToken = gssContext.acceptSecContext(inToken, 0, inToken.length);
+                if (outToken != null) {
+                    writeToken(dataOutputStream, outToken);
+                }
+                if (VERBOSE && gssContext.isEstablished()) {
+                    System.out.println("Context Established with Client " + gssContext.getSrcName());
+                }
+            }
+        }
+
+        private static byte[] readToken(DataInputStream dataInputStream) throws IOException {
+            final byte[] token = new byte[dataInputStream.readInt()];
+            dataInputStream.readFully(token);
+            return token;
+        }
+
+        private static void writeToken(DataOutputStream dataOutputStream, byte[] token) throws IOException {
+            dataOutputStream.writeInt(token.length);
+            dataOutputStream.write(token);
+            dataOutputStream.flush();
+        }
     }
 
 }
\ No newline at end of file
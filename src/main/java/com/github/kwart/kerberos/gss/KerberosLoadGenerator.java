@@ -0,0 +1,430 @@
+package com.github.kwart.kerberos.gss;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosTicket;
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.Configuration;
+import javax.security.auth.login.LoginContext;
+
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.Oid;
+
+import com.beust.jcommander.JCommander;
+import com.github.kwart.kerberos.gss.LoadGeneratorOptions.Mode;
+
+/**
+ * Multi-threaded load generator for the KDC. The workers run AS exchanges, TGS exchanges, full GSS context establishments
+ * or wrap/unwrap round trips (against the {@link GSSTestServer}) for the configured principals, either flat out or at a
+ * target rate. Throughput and the latency percentiles are printed at the end.
+ * <p>
+ * When a target rate is used, the latency is measured from the time the operation was scheduled, so a slow KDC is not
+ * hidden by the workers waiting for each other (coordinated omission).
+ *
+ * @author Josef Cacek
+ */
+public class KerberosLoadGenerator {
+
+    private static final String JAAS_NAME = "kerberos-load-generator";
+
+    private static final Oid KRB5_OID;
+    static {
+        try {
+            KRB5_OID = new Oid("1.2.840.113554.1.2.2");
+        } catch (GSSException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final LoadGeneratorOptions options;
+    private final List<String[]> principals;
+
+    private final AtomicLong principalCounter = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicReference<Exception> firstError = new AtomicReference<>();
+    private final AtomicReference<String> encryptionType = new AtomicReference<>();
+
+    public static void main(String[] args) throws Exception {
+        LoadGeneratorOptions opts = new LoadGeneratorOptions();
+        JCommander jcmd = JCommander.newBuilder()
+                .programName("java -classpath kerberos-server.jar " + KerberosLoadGenerator.class.getName()).addObject(opts)
+                .build();
+        jcmd.parse(args);
+
+        if (opts.isHelp()) {
+            jcmd.usage();
+            return;
+        }
+        KerberosLoadGenerator loadGenerator = new KerberosLoadGenerator(opts);
+        loadGenerator.run().print(System.out);
+    }
+
+    public KerberosLoadGenerator(LoadGeneratorOptions options) throws IOException {
+        this.options = options;
+        this.principals = loadPrincipals(options);
+        if (principals.isEmpty()) {
+            throw new IllegalArgumentException("No principal configured");
+        }
+        if (options.getThreads() < 1) {
+            throw new IllegalArgumentException("At least one worker thread is required");
+        }
+    }
+
+    /**
+     * Runs the load and returns the results.
+     */
+    public Report run() throws Exception {
+        File krb5conf = options.getKrb5conf();
+        if (options.getEncryptionType() != null) {
+            krb5conf = withTgsEncryptionType(krb5conf, options.getEncryptionType());
+        }
+        if (krb5conf != null) {
+            System.setProperty("java.security.krb5.conf", krb5conf.getAbsolutePath());
+        }
+        Configuration.setConfiguration(new Configuration() {
+            @Override
+            public AppConfigurationEntry[] getAppConfigurationEntry(String name) {
+                final Map<String, Object> options = new HashMap<String, Object>();
+                options.put("storeKey", "false");
+                return new AppConfigurationEntry[] { new AppConfigurationEntry("com.sun.security.auth.module.Krb5LoginModule",
+                        AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, options) };
+            }
+        });
+
+        final int threads = options.getThreads();
+        System.out.println("Running " + options.getMode() + " load with " + threads + " workers and " + principals.size()
+                + " principals" + (options.getRate() > 0 ? " at " + options.getRate() + " ops/s" : " flat out") + " ("
+                + options.getWarmup() + "s warm-up, " + options.getDuration() + "s measurement)");
+
+        final long startTime = System.nanoTime();
+        final long measurementStart = startTime + TimeUnit.SECONDS.toNanos(options.getWarmup());
+        final long endTime = measurementStart + TimeUnit.SECONDS.toNanos(options.getDuration());
+        final long interval = options.getRate() > 0 ? TimeUnit.SECONDS.toNanos(threads) / options.getRate() : 0L;
+
+        List<Worker> workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker(startTime + i * interval / threads, measurementStart, endTime, interval);
+            worker.setName("load-worker-" + i);
+            workers.add(worker);
+        }
+        for (Worker worker : workers) {
+            worker.start();
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (Worker worker : workers) {
+            worker.join();
+            histogram.add(worker.histogram);
+        }
+        long measuredNanos = Math.min(System.nanoTime(), endTime) - measurementStart;
+        Report report = new Report(options.getMode(), histogram, errorCount.get(), firstError.get(), measuredNanos);
+        if (options.getMode() == Mode.WRAP) {
+            report.setPayloadSize(options.getPayloadSize());
+            report.setEncryptionType(encryptionType.get());
+        }
+        return report;
+    }
+
+    /**
+     * Returns a temporary copy of the krb5.conf with the given encryption type of the service tickets, so the GSS contexts
+     * use session keys of this type.
+     */
+    private static File withTgsEncryptionType(File krb5conf, String encryptionType) throws IOException {
+        if (krb5conf == null && System.getProperty("java.security.krb5.conf") != null) {
+            krb5conf = new File(System.getProperty("java.security.krb5.conf"));
+        }
+        if (krb5conf == null) {
+            throw new IllegalArgumentException("The encryption type selection requires the krb5.conf file");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String line : Files.readAllLines(krb5conf.toPath(), UTF_8)) {
+            if (line.trim().startsWith("default_tgs_enctypes")) {
+                continue;
+            }
+            sb.append(line).append("\n");
+            if (line.trim().equals("[libdefaults]")) {
+                sb.append("    default_tgs_enctypes = ").append(encryptionType).append("\n");
+            }
+        }
+        File result = File.createTempFile("krb5-" + encryptionType, ".conf");
+        result.deleteOnExit();
+        Files.write(result.toPath(), sb.toString().getBytes(UTF_8));
+        return result;
+    }
+
+    private String[] nextPrincipal() {
+        return principals.get((int) (principalCounter.getAndIncrement() % principals.size()));
+    }
+
+    private static List<String[]> loadPrincipals(LoadGeneratorOptions options) throws IOException {
+        List<String[]> result = new ArrayList<>();
+        for (String principal : options.getPrincipals()) {
+            int pos = principal.indexOf('=');
+            if (pos < 0) {
+                throw new IllegalArgumentException("Principal has to be in format principal=password: " + principal);
+            }
+            result.add(new String[] { principal.substring(0, pos), principal.substring(pos + 1) });
+        }
+        File principalsFile = options.getPrincipalsFile();
+        if (principalsFile != null) {
+            for (String line : Files.readAllLines(principalsFile.toPath(), UTF_8)) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+", 2);
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Line has to be in format 'principal password': " + line);
+                }
+                result.add(parts);
+            }
+        }
+        String pattern = options.getPrincipalPattern();
+        if (pattern != null) {
+            for (int i = 0; i < options.getPrincipalCount(); i++) {
+                String number = String.valueOf(options.getPrincipalStart() + i);
+                result.add(new String[] { pattern.replace(LoadGeneratorOptions.PLACEHOLDER_NUMBER, number),
+                        options.getPasswordPattern().replace(LoadGeneratorOptions.PLACEHOLDER_NUMBER, number) });
+            }
+        }
+        if (result.isEmpty()) {
+            result.add(new String[] { "hnelson", "secret" });
+        }
+        return result;
+    }
+
+    private static Subject login(String principal, String password) throws Exception {
+        LoginContext lc = new LoginContext(JAAS_NAME, new UsernamePasswordHandler(principal, password.toCharArray()));
+        lc.login();
+        return lc.getSubject();
+    }
+
+    private class Worker extends Thread {
+
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final Map<String, KerberosTicket> tgtCache = new HashMap<>();
+        private final GSSTestClient gssClient;
+        private final byte[] payload = new byte[options.getPayloadSize()];
+        private GSSTestClient.Session gssSession;
+        private final long firstStart;
+        private final long measurementStart;
+        private final long endTime;
+        private final long interval;
+
+        Worker(long firstStart, long measurementStart, long endTime, long interval) {
+            this.firstStart = firstStart;
+            this.measurementStart = measurementStart;
+            this.endTime = endTime;
+            this.interval = interval;
+            this.gssClient = new GSSTestClient(options.getGssHost(), options.getGssPort(), options.getService());
+            gssClient.setVerbose(false);
+        }
+
+        @Override
+        public void run() {
+            try {
+                runLoop();
+            } finally {
+                if (gssSession != null) {
+                    gssSession.close();
+                }
+            }
+        }
+
+        private void runLoop() {
+            long scheduled = firstStart;
+            long measuredOperations = 0L;
+            while (options.getOperations() <= 0 || measuredOperations < options.getOperations()) {
+                long now = System.nanoTime();
+                if (interval > 0) {
+                    if (scheduled >= endTime) {
+                        break;
+                    }
+                    if (scheduled > now) {
+                        LockSupport.parkNanos(scheduled - now);
+                    } else if (scheduled < measurementStart) {
+                        // don't carry the warm-up backlog (e.g. initial logins, class loading) to the measurement
+                        scheduled = now;
+                    }
+                } else {
+                    if (now >= endTime) {
+                        break;
+                    }
+                    scheduled = now;
+                }
+                boolean success = execute(nextPrincipal());
+                if (scheduled >= measurementStart) {
+                    measuredOperations++;
+                    if (success) {
+                        histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduled));
+                    } else {
+                        errorCount.incrementAndGet();
+                    }
+                }
+                scheduled += interval;
+            }
+        }
+
+        private boolean execute(String[] principal) {
+            try {
+                switch (options.getMode()) {
+                    case AS:
+                        login(principal[0], principal[1]);
+                        break;
+                    case TGS:
+                        Subject.doAs(subjectWithTgt(principal), (PrivilegedExceptionAction<byte[]>) () -> {
+                            GSSManager manager = GSSManager.getInstance();
+                            GSSContext context = manager.createContext(manager.createName(options.getService(), null),
+                                    KRB5_OID, null, GSSContext.DEFAULT_LIFETIME);
+                            try {
+                                return context.initSecContext(new byte[0], 0, 0);
+                            } finally {
+                                context.dispose();
+                            }
+                        });
+                        break;
+                    case GSS:
+                        Subject.doAs(subjectWithTgt(principal),
+                                (PrivilegedExceptionAction<String>) () -> gssClient.getName(null));
+                        break;
+                    case WRAP:
+                        if (gssSession == null) {
+                            // one context per worker, the principals are not rotated
+                            gssSession = Subject.doAs(subjectWithTgt(principal),
+                                    (PrivilegedExceptionAction<GSSTestClient.Session>) () -> gssClient.connect(null));
+                            encryptionType.compareAndSet(null, gssSession.getEncryptionType());
+                        }
+                        byte[] reply = gssSession.echo(payload, !options.isIntegrityOnly());
+                        if (reply.length != payload.length) {
+                            throw new IllegalStateException("Unexpected reply length " + reply.length);
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("Unsupported mode " + options.getMode());
+                }
+                return true;
+            } catch (Exception e) {
+                firstError.compareAndSet(null, e);
+                if (gssSession != null) {
+                    // the connection state is unknown, the next operation reconnects
+                    gssSession.close();
+                    gssSession = null;
+                }
+                return false;
+            }
+        }
+
+        /**
+         * Returns a new Subject with just the principal's TGT, so the service ticket is never reused from a previous call.
+         */
+        private Subject subjectWithTgt(String[] principal) throws Exception {
+            KerberosTicket tgt = tgtCache.get(principal[0]);
+            if (tgt == null || !tgt.isCurrent()) {
+                tgt = login(principal[0], principal[1]).getPrivateCredentials(KerberosTicket.class).iterator().next();
+                tgtCache.put(principal[0], tgt);
+            }
+            Subject subject = new Subject();
+            subject.getPrivateCredentials().add(tgt);
+            return subject;
+        }
+    }
+
+    /**
+     * Load generator results.
+     */
+    public static class Report {
+        private final Mode mode;
+        private final LatencyHistogram histogram;
+        private final long errors;
+        private final Exception firstError;
+        private final long nanos;
+        private int payloadSize;
+        private String encryptionType;
+
+        Report(Mode mode, LatencyHistogram histogram, long errors, Exception firstError, long nanos) {
+            this.mode = mode;
+            this.histogram = histogram;
+            this.errors = errors;
+            this.firstError = firstError;
+            this.nanos = nanos;
+        }
+
+        void setPayloadSize(int payloadSize) {
+            this.payloadSize = payloadSize;
+        }
+
+        void setEncryptionType(String encryptionType) {
+            this.encryptionType = encryptionType;
+        }
+
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public Exception getFirstError() {
+            return firstError;
+        }
+
+        /**
+         * Returns number of successful operations per second.
+         */
+        public double getThroughput() {
+            return nanos > 0 ? histogram.getTotalCount() * (double) TimeUnit.SECONDS.toNanos(1) / nanos : 0d;
+        }
+
+        /**
+         * Returns the payload throughput in MB/s (WRAP mode only).
+         */
+        public double getMegabytesPerSecond() {
+            return getThroughput() * payloadSize / 1e6;
+        }
+
+        public void print(java.io.PrintStream out) {
+            out.println();
+            out.println("Mode:        " + mode);
+            out.println("Operations:  " + histogram.getTotalCount());
+            out.println("Errors:      " + errors);
+            out.println(String.format(Locale.ROOT, "Duration:    %.3f s", nanos / 1e9));
+            out.println(String.format(Locale.ROOT, "Throughput:  %.1f ops/s", getThroughput()));
+            if (payloadSize > 0) {
+                out.println(String.format(Locale.ROOT, "Payload:     %d bytes, %.2f MB/s", payloadSize, getMegabytesPerSecond()));
+                out.println("Enctype:     " + encryptionType);
+            }
+            out.println("Latency (ms):");
+            out.println(String.format(Locale.ROOT, "  min    %10.3f", histogram.getMin() / 1000d));
+            out.println(String.format(Locale.ROOT, "  mean   %10.3f", histogram.getMean() / 1000d));
+            for (double percentile : new double[] { 50d, 90d, 99d, 99.9d }) {
+                out.println(String.format(Locale.ROOT, "  p%-5s %10.3f", formatPercentile(percentile),
+                        histogram.getValueAtPercentile(percentile) / 1000d));
+            }
+            out.println(String.format(Locale.ROOT, "  max    %10.3f", histogram.getMax() / 1000d));
+            if (firstError != null) {
+                out.println("First error: " + firstError);
+            }
+        }
+
+        private static String formatPercentile(double percentile) {
+            return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.github.kwart.kerberos.gss;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.converters.FileConverter;
+
+/**
+ * Options of the {@link KerberosLoadGenerator}.
+ */
+public class LoadGeneratorOptions {
+
+    /**
+     * Load generator modes.
+     */
+    public enum Mode {
+        /**
+         * Initial authentication (AS exchange) through the JAAS Krb5LoginModule.
+         */
+        AS,
+        /**
+         * Service ticket requests (TGS exchange) using TGTs obtained before the measurement.
+         */
+        TGS,
+        /**
+         * Full GSS context establishment against the {@link GSSTestServer}.
+         */
+        GSS,
+        /**
+         * Wrap/unwrap round trips ({@link GSSTestServer#CMD_ECHO}) over one GSS context per worker.
+         */
+        WRAP
+    }
+
+    public static final String PLACEHOLDER_NUMBER = "{n}";
+
+    @Parameter(names = { "--help", "-h" }, description = "shows this help and exits", help = true)
+    private boolean help;
+
+    @Parameter(names = { "--mode", "-m" }, description = "takes the load [mode] as argument")
+    private Mode mode = Mode.AS;
+
+    @Parameter(names = { "--threads", "-t" }, description = "takes number of concurrent workers as argument")
+    private int threads = 4;
+
+    @Parameter(names = { "--duration", "-d" }, description = "takes the measurement duration in seconds as argument")
+    private int duration = 30;
+
+    @Parameter(names = { "--warmup", "-w" }, description = "takes the warm-up duration in seconds as argument (results are not recorded)")
+    private int warmup = 5;
+
+    @Parameter(names = { "--rate", "-r" }, description = "takes the target rate (operations per second of all workers) as argument; 0 means flat out")
+    private int rate;
+
+    @Parameter(names = { "--principal", "-p" }, description = "takes [principal=password] as argument. Can be used multiple times.")
+    private List<String> principals = new ArrayList<>();
+
+    @Parameter(names = { "--principals-file", "-pf" }, description = "takes a file with the [principal password] lines as argument",
+            converter = FileConverter.class)
+    private File principalsFile;
+
+    @Parameter(names = { "--principal-pattern", "-pp" }, description = "takes the principal name pattern as argument, the " + PLACEHOLDER_NUMBER
+            + " placeholder is replaced by the principal number (e.g. user{n}@KERBEROS.EXAMPLE)")
+    private String principalPattern;
+
+    @Parameter(names = { "--password-pattern", "-pwp" }, description = "takes the password pattern used together with the --principal-pattern")
+    private String passwordPattern = "secret";
+
+    @Parameter(names = { "--principal-count", "-pc" }, description = "takes the number of principals generated from the --principal-pattern")
+    private int principalCount = 1;
+
+    @Parameter(names = { "--principal-start" }, description = "takes the first principal number used in the --principal-pattern")
+    private int principalStart;
+
+    @Parameter(names = { "--service", "-s" }, description = "takes the service principal name used in TGS and GSS modes")
+    private String service = "gsstestserver/xxx";
+
+    @Parameter(names = { "--gss-host" }, description = "takes the GSSTestServer host as argument")
+    private String gssHost = "localhost";
+
+    @Parameter(names = { "--gss-port" }, description = "takes the GSSTestServer port as argument")
+    private int gssPort = GSSTestServer.PORT;
+
+    @Parameter(names = { "--operations", "-n" }, description = "takes the number of operations per worker as argument; 0 means the workers run for the whole duration")
+    private long operations;
+
+    @Parameter(names = { "--payload-size" }, description = "takes the message size in bytes used in WRAP mode")
+    private int payloadSize = 1024;
+
+    @Parameter(names = { "--integrity-only" }, description = "disables the confidentiality (encryption) of the messages in WRAP mode")
+    private boolean integrityOnly;
+
+    @Parameter(names = { "--enctype", "-e" }, description = "takes the encryption type of the service tickets as argument (e.g. aes128-cts-hmac-sha1-96), it's set as default_tgs_enctypes in a copy of the krb5.conf")
+    private String encryptionType;
+
+    @Parameter(names = { "--krb5-conf", "-c" }, description = "takes the [krb5.conf] file path as argument (sets the java.security.krb5.conf system property)",
+            converter = FileConverter.class)
+    private File krb5conf;
+
+    public boolean isHelp() {
+        return help;
+    }
+
+    public void setHelp(boolean help) {
+        this.help = help;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getDuration() {
+        return duration;
+    }
+
+    public void setDuration(int duration) {
+        this.duration = duration;
+    }
+
+    public int getWarmup() {
+        return warmup;
+    }
+
+    public void setWarmup(int warmup) {
+        this.warmup = warmup;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    public void setRate(int rate) {
+        this.rate = rate;
+    }
+
+    public List<String> getPrincipals() {
+        return principals;
+    }
+
+    public void setPrincipals(List<String> principals) {
+        this.principals = principals;
+    }
+
+    public File getPrincipalsFile() {
+        return principalsFile;
+    }
+
+    public void setPrincipalsFile(File principalsFile) {
+        this.principalsFile = principalsFile;
+    }
+
+    public String getPrincipalPattern() {
+        return principalPattern;
+    }
+
+    public void setPrincipalPattern(String principalPattern) {
+        this.principalPattern = principalPattern;
+    }
+
+    public String getPasswordPattern() {
+        return passwordPattern;
+    }
+
+    public void setPasswordPattern(String passwordPattern) {
+        this.passwordPattern = passwordPattern;
+    }
+
+    public int getPrincipalCount() {
+        return principalCount;
+    }
+
+    public void setPrincipalCount(int principalCount) {
+        this.principalCount = principalCount;
+    }
+
+    public int getPrincipalStart() {
+        return principalStart;
+    }
+
+    public void setPrincipalStart(int principalStart) {
+        this.principalStart = principalStart;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public void setService(String service) {
+        this.service = service;
+    }
+
+    public String getGssHost() {
+        return gssHost;
+    }
+
+    public void setGssHost(String gssHost) {
+        this.gssHost = gssHost;
+    }
+
+    public int getGssPort() {
+        return gssPort;
+    }
+
+    public void setGssPort(int gssPort) {
+        this.gssPort = gssPort;
+    }
+
+    public long getOperations() {
+        return operations;
+    }
+
+    public void setOperations(long operations) {
+        this.operations = operations;
+    }
+
+    public int getPayloadSize() {
+        return payloadSize;
+    }
+
+    public void setPayloadSize(int payloadSize) {
+        this.payloadSize = payloadSize;
+    }
+
+    public boolean isIntegrityOnly() {
+        return integrityOnly;
+    }
+
+    public void setIntegrityOnly(boolean integrityOnly) {
+        this.integrityOnly = integrityOnly;
+    }
+
+    public String getEncryptionType() {
+        return encryptionType;
+    }
+
+    public void setEncryptionType(String encryptionType) {
+        this.encryptionType = encryptionType;
+    }
+
+    public File getKrb5conf() {
+        return krb5conf;
+    }
+
+    public void setKrb5conf(File krb5conf) {
+        this.krb5conf = krb5conf;
+    }
+}
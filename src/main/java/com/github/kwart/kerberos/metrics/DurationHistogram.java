@@ -0,0 +1,70 @@
+package com.github.kwart.kerberos.metrics;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe histogram of durations with fixed bucket bounds (100µs - 10s). The buckets are striped counters
+ * ({@link LongAdder}), so recording doesn't allocate and concurrent threads don't contend on a single memory location.
+ *
+ * @author Josef Cacek
+ */
+public class DurationHistogram {
+
+    static final long[] BOUNDS_NANOS = { 100_000L, 250_000L, 500_000L, 1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L,
+            25_000_000L, 50_000_000L, 100_000_000L, 250_000_000L, 500_000_000L, 1_000_000_000L, 2_500_000_000L,
+            5_000_000_000L, 10_000_000_000L };
+
+    static final String[] BOUNDS_SECONDS = new String[BOUNDS_NANOS.length];
+    static {
+        for (int i = 0; i < BOUNDS_NANOS.length; i++) {
+            BOUNDS_SECONDS[i] = BigDecimal.valueOf(BOUNDS_NANOS[i], 9).stripTrailingZeros().toPlainString();
+        }
+    }
+
+    // the last bucket holds the values above the highest bound
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public DurationHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int i = 0;
+        while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Returns the cumulative counts, i.e. the number of values lower or equal to the bucket bound. The last item is the
+     * total count.
+     */
+    public long[] getCumulativeCounts() {
+        long[] result = new long[buckets.length];
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i].sum();
+            result[i] = cumulative;
+        }
+        return result;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public double getSumSeconds() {
+        return sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+}
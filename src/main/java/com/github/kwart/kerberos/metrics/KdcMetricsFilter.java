@@ -0,0 +1,130 @@
+package com.github.kwart.kerberos.metrics;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.directory.shared.kerberos.KerberosMessageType;
+import org.apache.directory.shared.kerberos.components.KdcReq;
+import org.apache.directory.shared.kerberos.exceptions.ErrorType;
+import org.apache.directory.shared.kerberos.messages.KrbError;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.WriteRequest;
+
+/**
+ * MINA filter which counts the AS and TGS requests (per result code) and records their durations. It has to be placed
+ * after the codec filter, so it sees the decoded requests and the replies before they are encoded.
+ * <p>
+ * The KDC handler writes the reply from the thread which received the request, so the request start is kept in a thread
+ * local and the recording doesn't allocate (the counter for a result code is only created when the code is seen for the
+ * first time).
+ *
+ * @author Josef Cacek
+ */
+public class KdcMetricsFilter extends IoFilterAdapter {
+
+    public static final String REQUESTS = "kerberos_kdc_requests_total";
+    public static final String DURATION = "kerberos_kdc_request_duration_seconds";
+
+    private static final int TYPE_NONE = -1;
+    private static final int TYPE_AS = 0;
+    private static final int TYPE_TGS = 1;
+    private static final String[] TYPE_NAMES = { "as", "tgs" };
+
+    private static final int RESULT_OK = 0;
+    private static final String[] RESULT_NAMES = new String[128];
+    static {
+        RESULT_NAMES[RESULT_OK] = "OK";
+        for (Field field : ErrorType.class.getFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && field.getType() == ErrorType.class) {
+                try {
+                    int value = ((ErrorType) field.get(null)).getValue();
+                    if (value > 0 && value < RESULT_NAMES.length) {
+                        RESULT_NAMES[value] = field.getName();
+                    }
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    // [0] request start (nanos), [1] request type
+    private static final ThreadLocal<long[]> CURRENT_REQUEST = ThreadLocal.withInitial(() -> new long[] { 0L, TYPE_NONE });
+
+    private final MetricsRegistry registry;
+    private final String realm;
+    private final String transport;
+    private final DurationHistogram[] durations = new DurationHistogram[TYPE_NAMES.length];
+    private final AtomicReferenceArray<LongAdder> requests = new AtomicReferenceArray<>(
+            TYPE_NAMES.length * RESULT_NAMES.length);
+
+    /**
+     * Constructor.
+     *
+     * @param registry metrics registry
+     * @param realm Kerberos realm name used as the label value
+     * @param transport transport name used as the label value (e.g. "udp")
+     */
+    public KdcMetricsFilter(MetricsRegistry registry, String realm, String transport) {
+        this.registry = registry;
+        this.realm = realm;
+        this.transport = transport;
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            durations[type] = registry.histogram(DURATION, "Duration of the KDC requests",
+                    "realm=\"" + realm + "\",type=\"" + TYPE_NAMES[type] + "\",transport=\"" + transport + "\"");
+            requests.set(type * RESULT_NAMES.length + RESULT_OK, registerCounter(type, RESULT_OK));
+        }
+    }
+
+    @Override
+    public void messageReceived(NextFilter nextFilter, IoSession session, Object message) throws Exception {
+        long[] current = CURRENT_REQUEST.get();
+        current[1] = TYPE_NONE;
+        if (message instanceof KdcReq) {
+            KerberosMessageType messageType = ((KdcReq) message).getMessageType();
+            if (messageType == KerberosMessageType.AS_REQ) {
+                current[1] = TYPE_AS;
+            } else if (messageType == KerberosMessageType.TGS_REQ) {
+                current[1] = TYPE_TGS;
+            }
+            current[0] = System.nanoTime();
+        }
+        nextFilter.messageReceived(session, message);
+    }
+
+    @Override
+    public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+        long[] current = CURRENT_REQUEST.get();
+        int type = (int) current[1];
+        if (type != TYPE_NONE) {
+            current[1] = TYPE_NONE;
+            durations[type].record(System.nanoTime() - current[0]);
+            Object reply = writeRequest.getMessage();
+            int result = RESULT_OK;
+            if (reply instanceof KrbError) {
+                ErrorType errorCode = ((KrbError) reply).getErrorCode();
+                result = errorCode != null ? errorCode.getValue() : ErrorType.KRB_ERR_GENERIC.getValue();
+                if (result <= 0 || result >= RESULT_NAMES.length || RESULT_NAMES[result] == null) {
+                    result = ErrorType.KRB_ERR_GENERIC.getValue();
+                }
+            }
+            int index = type * RESULT_NAMES.length + result;
+            LongAdder counter = requests.get(index);
+            if (counter == null) {
+                counter = registerCounter(type, result);
+                requests.set(index, counter);
+            }
+            counter.increment();
+        }
+        nextFilter.filterWrite(session, writeRequest);
+    }
+
+    private LongAdder registerCounter(int type, int result) {
+        return registry.counter(REQUESTS, "Number of the KDC requests by result",
+                "realm=\"" + realm + "\",type=\"" + TYPE_NAMES[type] + "\",transport=\"" + transport + "\",result=\""
+                        + RESULT_NAMES[result] + "\"");
+    }
+}
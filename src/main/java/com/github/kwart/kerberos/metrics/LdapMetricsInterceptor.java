@@ -0,0 +1,261 @@
+package com.github.kwart.kerberos.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.CompareOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+
+/**
+ * Interceptor which counts the directory operations (per result) and records their durations. It should be the first
+ * interceptor in the chain, so the durations cover the whole chain. The search duration covers just the cursor creation,
+ * not the iteration over the results.
+ * <p>
+ * The one-level and subtree searches are also counted by the index usage. The search is indexed when the partition
+ * optimizer found an index for the filter, otherwise all the entries in the search scope are evaluated.
+ * <p>
+ * The directory service only calls interceptor methods which are declared directly in the interceptor class, so each
+ * operation has its own method here.
+ *
+ * @author Josef Cacek
+ */
+public class LdapMetricsInterceptor extends BaseInterceptor {
+
+    public static final String NAME = "metricsInterceptor";
+
+    public static final String OPERATIONS = "kerberos_ldap_operations_total";
+    public static final String DURATION = "kerberos_ldap_operation_duration_seconds";
+    public static final String SEARCHES = "kerberos_ldap_searches_total";
+
+    private final Operation add;
+    private final Operation bind;
+    private final Operation compare;
+    private final Operation delete;
+    private final Operation hasEntry;
+    private final Operation lookup;
+    private final Operation modify;
+    private final Operation move;
+    private final Operation moveAndRename;
+    private final Operation rename;
+    private final Operation search;
+    private final Operation unbind;
+    private final LongAdder indexedSearches;
+    private final LongAdder unindexedSearches;
+
+    public LdapMetricsInterceptor(MetricsRegistry registry) {
+        super(NAME);
+        add = new Operation(registry, "add");
+        bind = new Operation(registry, "bind");
+        compare = new Operation(registry, "compare");
+        delete = new Operation(registry, "delete");
+        hasEntry = new Operation(registry, "hasEntry");
+        lookup = new Operation(registry, "lookup");
+        modify = new Operation(registry, "modify");
+        move = new Operation(registry, "move");
+        moveAndRename = new Operation(registry, "moveAndRename");
+        rename = new Operation(registry, "rename");
+        search = new Operation(registry, "search");
+        unbind = new Operation(registry, "unbind");
+        String help = "Number of the one-level and subtree searches by the index usage";
+        indexedSearches = registry.counter(SEARCHES, help, "index=\"used\"");
+        unindexedSearches = registry.counter(SEARCHES, help, "index=\"none\"");
+    }
+
+    @Override
+    public void add(AddOperationContext addContext) throws LdapException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            next(addContext);
+            success = true;
+        } finally {
+            add.record(start, success);
+        }
+    }
+
+    @Override
+    public void bind(BindOperationContext bindContext) throws LdapException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            next(bindContext);
+            success = true;
+        } finally {
+            bind.record(start, success);
+        }
+    }
+
+    @Override
+    public boolean compare(CompareOperationContext compareContext) throws LdapException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            boolean result = next(compareContext);
+            success = true;
+            return result;
+        } finally {
+            compare.record(start, success);
+        }
+    }
+
+    @Override
+    public void delete(DeleteOperationContext deleteContext) throws LdapException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            next(deleteContext);
+            success = true;
+        } finally {
+            delete.record(start, success);
+        }
+    }
+
+    @Override
+    public boolean hasEntry(HasEntryOperationContext hasEntryContext) throws LdapException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            boolean result = next(hasEntryContext);
+            success = true;
+            return result;
+        } finally {
+            hasEntry.record(start, success);
+        }
+    }
+
+    @Override
+    public Entry lookup(LookupOperationContext lookupContext) throws LdapException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            Entry result = next(lookupContext);
+            success = true;
+            return result;
+        } finally {
+            lookup.record(start, success);
+        }
+    }
+
+    @Override
+    public void modify(ModifyOperationContext modifyContext) throws LdapException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            next(modifyContext);
+            success = true;
+        } finally {
+            modify.record(start, success);
+        }
+    }
+
+    @Override
+    public void move(MoveOperationContext moveContext) throws LdapException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            next(moveContext);
+            success = true;
+        } finally {
+            move.record(start, success);
+        }
+    }
+
+    @Override
+    public void moveAndRename(MoveAndRenameOperationContext moveAndRenameContext) throws LdapException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            next(moveAndRenameContext);
+            success = true;
+        } finally {
+            moveAndRename.record(start, success);
+        }
+    }
+
+    @Override
+    public void rename(RenameOperationContext renameContext) throws LdapException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            next(renameContext);
+            success = true;
+        } finally {
+            rename.record(start, success);
+        }
+    }
+
+    @Override
+    public EntryFilteringCursor search(SearchOperationContext searchContext) throws LdapException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            EntryFilteringCursor result = next(searchContext);
+            success = true;
+            recordIndexUsage(searchContext);
+            return result;
+        } finally {
+            search.record(start, success);
+        }
+    }
+
+    @Override
+    public void unbind(UnbindOperationContext unbindContext) throws LdapException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            next(unbindContext);
+            success = true;
+        } finally {
+            unbind.record(start, success);
+        }
+    }
+
+    /**
+     * Counts the search by the scan count the optimizer annotated the filter with (it's the maximal value when no index can
+     * be used). The searches with the presence filter on objectClass are served by the scope indexes, they are not counted.
+     */
+    private void recordIndexUsage(SearchOperationContext searchContext) {
+        ExprNode filter = searchContext.getFilter();
+        if (searchContext.getScope() == SearchScope.OBJECT || filter == null || filter instanceof ObjectClassNode) {
+            return;
+        }
+        Object count = filter.get("count");
+        if (count instanceof Long) {
+            ((Long) count < Long.MAX_VALUE ? indexedSearches : unindexedSearches).increment();
+        }
+    }
+
+    private static class Operation {
+        private final LongAdder successes;
+        private final LongAdder errors;
+        private final DurationHistogram duration;
+
+        Operation(MetricsRegistry registry, String name) {
+            String help = "Number of the directory operations by result";
+            successes = registry.counter(OPERATIONS, help, "operation=\"" + name + "\",result=\"success\"");
+            errors = registry.counter(OPERATIONS, help, "operation=\"" + name + "\",result=\"error\"");
+            duration = registry.histogram(DURATION, "Duration of the directory operations", "operation=\"" + name + "\"");
+        }
+
+        void record(long start, boolean success) {
+            duration.record(System.nanoTime() - start);
+            (success ? successes : errors).increment();
+        }
+    }
+}
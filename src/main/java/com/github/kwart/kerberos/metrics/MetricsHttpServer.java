@@ -0,0 +1,66 @@
+package com.github.kwart.kerberos.metrics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Simple HTTP server which publishes the metrics in the Prometheus text exposition format on the {@value #PATH} path.
+ *
+ * @author Josef Cacek
+ */
+public class MetricsHttpServer implements AutoCloseable {
+
+    public static final String PATH = "/metrics";
+
+    private static Logger LOGGER = LoggerFactory.getLogger(MetricsHttpServer.class);
+
+    private final HttpServer httpServer;
+
+    public MetricsHttpServer(MetricsRegistry registry, String bindAddress, int port) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        httpServer.createContext(PATH, exchange -> handle(registry, exchange));
+        httpServer.start();
+        LOGGER.debug("Metrics HTTP server started on {}", httpServer.getAddress());
+    }
+
+    public InetSocketAddress getAddress() {
+        return httpServer.getAddress();
+    }
+
+    @Override
+    public void close() {
+        httpServer.stop(0);
+    }
+
+    private static void handle(MetricsRegistry registry, HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            StringBuilder sb = new StringBuilder();
+            registry.writeText(sb);
+            byte[] body = sb.toString().getBytes(UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.kwart.kerberos.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Read-only dynamic MBean which publishes the {@link MetricsRegistry} values as attributes. The attribute names are the
+ * {@link MetricsRegistry#snapshot()} keys (e.g.
+ * {@code kerberos_kdc_requests_total{realm="KERBEROS.EXAMPLE",type="as",transport="udp",result="OK"}}).
+ * The {@value #TEXT_ATTRIBUTE} attribute contains all the metrics in the Prometheus text format.
+ *
+ * @author Josef Cacek
+ */
+public class MetricsMBean implements DynamicMBean {
+
+    public static final String TEXT_ATTRIBUTE = "PrometheusText";
+
+    private final MetricsRegistry registry;
+
+    public MetricsMBean(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        if (TEXT_ATTRIBUTE.equals(attribute)) {
+            return getText();
+        }
+        Number value = registry.snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> snapshot = registry.snapshot();
+        AttributeList result = new AttributeList();
+        for (String attribute : attributes) {
+            if (TEXT_ATTRIBUTE.equals(attribute)) {
+                result.add(new Attribute(attribute, getText()));
+            } else if (snapshot.containsKey(attribute)) {
+                result.add(new Attribute(attribute, snapshot.get(attribute)));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("The metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Map.Entry<String, Number> entry : registry.snapshot().entrySet()) {
+            attributes.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(), true,
+                    false, false));
+        }
+        attributes.add(new MBeanAttributeInfo(TEXT_ATTRIBUTE, String.class.getName(),
+                "All the metrics in the Prometheus text format", true, false, false));
+        return new MBeanInfo(getClass().getName(), "Kerberos server metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, new MBeanOperationInfo[0], null);
+    }
+
+    private String getText() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            registry.writeText(sb);
+        } catch (IOException e) {
+            // StringBuilder doesn't throw IOException
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+}
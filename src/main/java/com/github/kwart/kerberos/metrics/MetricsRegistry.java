@@ -0,0 +1,157 @@
+package com.github.kwart.kerberos.metrics;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the server metrics (counters, gauges and duration histograms). The metrics are identified by name and labels
+ * (e.g. {@code operation="search",result="success"}). The registration is synchronized, the recording goes directly to
+ * the returned {@link LongAdder} or {@link DurationHistogram} instances.
+ * <p>
+ * The metrics can be written in the Prometheus text exposition format ({@link #writeText(Appendable)}) or read as a flat
+ * map ({@link #snapshot()}).
+ *
+ * @author Josef Cacek
+ */
+public class MetricsRegistry {
+
+    private enum Type {
+        COUNTER, GAUGE, HISTOGRAM
+    }
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * Returns the counter with given name and labels. The counter is created if it doesn't exist yet.
+     */
+    public LongAdder counter(String name, String help, String labels) {
+        return (LongAdder) getOrCreate(name, help, Type.COUNTER, labels, LongAdder::new);
+    }
+
+    /**
+     * Registers a counter which value is provided by the given supplier (e.g. statistics of a third party component).
+     */
+    public void counter(String name, String help, String labels, LongSupplier supplier) {
+        getOrCreate(name, help, Type.COUNTER, labels, () -> supplier);
+    }
+
+    /**
+     * Returns the histogram with given name and labels. The histogram is created if it doesn't exist yet.
+     */
+    public DurationHistogram histogram(String name, String help, String labels) {
+        return (DurationHistogram) getOrCreate(name, help, Type.HISTOGRAM, labels, DurationHistogram::new);
+    }
+
+    /**
+     * Registers a gauge, i.e. a value which is computed by the given supplier when the metrics are read.
+     */
+    public void gauge(String name, String help, String labels, LongSupplier supplier) {
+        getOrCreate(name, help, Type.GAUGE, labels, () -> supplier);
+    }
+
+    /**
+     * Writes all the metrics in the Prometheus text exposition format.
+     */
+    public synchronized void writeText(Appendable out) throws IOException {
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type.name().toLowerCase(Locale.ROOT))
+                    .append('\n');
+            for (Map.Entry<String, Object> sample : family.samples.entrySet()) {
+                String labels = sample.getKey();
+                switch (family.type) {
+                    case COUNTER:
+                    case GAUGE:
+                        writeSample(out, family.name, labels, null, longValue(sample.getValue()));
+                        break;
+                    case HISTOGRAM:
+                        DurationHistogram histogram = (DurationHistogram) sample.getValue();
+                        long[] counts = histogram.getCumulativeCounts();
+                        for (int i = 0; i < counts.length; i++) {
+                            String le = i < DurationHistogram.BOUNDS_SECONDS.length ? DurationHistogram.BOUNDS_SECONDS[i]
+                                    : "+Inf";
+                            writeSample(out, family.name + "_bucket", labels, "le=\"" + le + "\"", counts[i]);
+                        }
+                        writeSample(out, family.name + "_sum", labels, null, histogram.getSumSeconds());
+                        writeSample(out, family.name + "_count", labels, null, counts[counts.length - 1]);
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns current values of all the metrics. The keys are in form {@code name{labels}}, the histograms are represented
+     * by the {@code _count} and {@code _sum} (seconds) values.
+     */
+    public synchronized Map<String, Number> snapshot() {
+        Map<String, Number> result = new LinkedHashMap<>();
+        for (Family family : families.values()) {
+            for (Map.Entry<String, Object> sample : family.samples.entrySet()) {
+                String labels = sample.getKey().isEmpty() ? "" : "{" + sample.getKey() + "}";
+                switch (family.type) {
+                    case COUNTER:
+                    case GAUGE:
+                        result.put(family.name + labels, longValue(sample.getValue()));
+                        break;
+                    case HISTOGRAM:
+                        DurationHistogram histogram = (DurationHistogram) sample.getValue();
+                        result.put(family.name + "_count" + labels, histogram.getCount());
+                        result.put(family.name + "_sum" + labels, histogram.getSumSeconds());
+                        break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private synchronized Object getOrCreate(String name, String help, Type type, String labels,
+            Supplier<Object> factory) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = new Family(name, help, type);
+            families.put(name, family);
+        } else if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.type);
+        }
+        return family.samples.computeIfAbsent(labels == null ? "" : labels, k -> factory.get());
+    }
+
+    private static long longValue(Object value) {
+        return value instanceof LongAdder ? ((LongAdder) value).sum() : ((LongSupplier) value).getAsLong();
+    }
+
+    private static void writeSample(Appendable out, String name, String labels, String extraLabel, Number value)
+            throws IOException {
+        out.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            out.append('{').append(labels);
+            if (extraLabel != null) {
+                if (!labels.isEmpty()) {
+                    out.append(',');
+                }
+                out.append(extraLabel);
+            }
+            out.append('}');
+        }
+        out.append(' ').append(String.valueOf(value)).append('\n');
+    }
+
+    private static class Family {
+        private final String name;
+        private final String help;
+        private final Type type;
+        private final Map<String, Object> samples = new LinkedHashMap<>();
+
+        Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.kwart.kerberos;
+
+import static com.github.kwart.kerberos.KerberosServerTest.assertNoLeakedThreads;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.PrivilegedExceptionAction;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosTicket;
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.Configuration;
+import javax.security.auth.login.LoginContext;
+
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.GSSName;
+import org.ietf.jgss.Oid;
+import org.junit.Test;
+
+public class CredentialsCacheWriterTest {
+
+    @Test
+    public void testPreIssuedTgt() throws Exception {
+        Set<Thread> expectedThreads = Thread.getAllStackTraces().keySet();
+        File dir = Files.createTempDirectory("ccache").toFile();
+        File krb5Conf = new File(dir, "krb5.conf");
+        KerberosServer ks = KerberosServer.builder().bindAddress("127.0.0.1").ephemeralPorts().krb5Conf(krb5Conf)
+                .options(o -> o.setCcachePrincipals(Arrays.asList("hnelson", "jd*@KERBEROS.EXAMPLE"))).start();
+        String oldKrb5Conf = System.getProperty("java.security.krb5.conf");
+        Configuration oldConfiguration = Configuration.getConfiguration();
+        try {
+            File ccache = new File(dir, "krb5cc_hnelson@KERBEROS.EXAMPLE");
+            assertTrue(ccache.isFile());
+            assertTrue(new File(dir, "krb5cc_jduke@KERBEROS.EXAMPLE").isFile());
+            if (Files.getFileStore(ccache.toPath()).supportsFileAttributeView("posix")) {
+                assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(ccache.toPath()));
+                // an overwritten cache is restricted too
+                Files.setPosixFilePermissions(ccache.toPath(), PosixFilePermissions.fromString("rw-r--r--"));
+                ks.writeCredentialsCaches(dir, Collections.singletonList("hnelson"));
+                assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(ccache.toPath()));
+            }
+            List<File> files = ks.writeCredentialsCaches(dir, Collections.singletonList("hz/*"));
+            assertEquals(Collections.singletonList(new File(dir, "krb5cc_hz_127.0.0.1@KERBEROS.EXAMPLE")), files);
+
+            System.setProperty("java.security.krb5.conf", krb5Conf.getAbsolutePath());
+            Configuration.setConfiguration(new Configuration() {
+                @Override
+                public AppConfigurationEntry[] getAppConfigurationEntry(String name) {
+                    Map<String, String> options = new HashMap<>();
+                    options.put("refreshKrb5Config", "true");
+                    options.put("useTicketCache", "true");
+                    options.put("ticketCache", ccache.getAbsolutePath());
+                    options.put("doNotPrompt", "true");
+                    return new AppConfigurationEntry[] { new AppConfigurationEntry(
+                            "com.sun.security.auth.module.Krb5LoginModule",
+                            AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, options) };
+                }
+            });
+            LoginContext lc = new LoginContext("test");
+            lc.login();
+            Subject subject = lc.getSubject();
+            KerberosTicket tgt = subject.getPrivateCredentials(KerberosTicket.class).iterator().next();
+            assertEquals("hnelson@KERBEROS.EXAMPLE", tgt.getClient().getName());
+            assertEquals("krbtgt/KERBEROS.EXAMPLE@KERBEROS.EXAMPLE", tgt.getServer().getName());
+            assertTrue(tgt.isRenewable());
+
+            // the TGS exchange proves the KDC accepts the ticket
+            byte[] token = Subject.doAs(subject, (PrivilegedExceptionAction<byte[]>) () -> {
+                GSSManager manager = GSSManager.getInstance();
+                GSSContext context = manager.createContext(
+                        manager.createName("gsstestserver/xxx@KERBEROS.EXAMPLE", GSSName.NT_USER_NAME),
+                        new Oid("1.2.840.113554.1.2.2"), null, GSSContext.DEFAULT_LIFETIME);
+                try {
+                    return context.initSecContext(new byte[0], 0, 0);
+                } finally {
+                    context.dispose();
+                }
+            });
+            assertNotNull(token);
+            lc.logout();
+        } finally {
+            Configuration.setConfiguration(oldConfiguration);
+            if (oldKrb5Conf != null) {
+                System.setProperty("java.security.krb5.conf", oldKrb5Conf);
+            } else {
+                System.clearProperty("java.security.krb5.conf");
+            }
+            ks.stop();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+        assertNoLeakedThreads(expectedThreads);
+    }
+}
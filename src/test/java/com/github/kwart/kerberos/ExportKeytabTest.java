@@ -0,0 +1,53 @@
+package com.github.kwart.kerberos;
+
+import static com.github.kwart.kerberos.KerberosServerTest.assertNoLeakedThreads;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.server.kerberos.shared.crypto.encryption.KerberosKeyFactory;
+import org.apache.directory.server.kerberos.shared.keytab.Keytab;
+import org.apache.directory.server.kerberos.shared.keytab.KeytabEntry;
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+import org.junit.Test;
+
+public class ExportKeytabTest {
+
+    @Test
+    public void testExportStoredKeys() throws Exception {
+        Set<Thread> expectedThreads = Thread.getAllStackTraces().keySet();
+        File keytabFile = File.createTempFile("export", ".keytab");
+        KerberosServer ks = KerberosServer.builder().bindAddress("127.0.0.1").ephemeralPorts().start();
+        try {
+            assertEquals(1L, ks.exportKeytab(keytabFile, null, "hnelson@*"));
+            assertKeys(keytabFile, "hnelson@KERBEROS.EXAMPLE", "secret");
+
+            ExportKeytabOptions opts = new ExportKeytabOptions();
+            opts.setLdapUrl("ldap://127.0.0.1:" + ks.getLdapPort());
+            opts.setPrincipal("jduke@KERBEROS.EXAMPLE");
+            opts.setOutput(keytabFile);
+            assertEquals(1L, ExportKeytab.export(opts));
+            assertKeys(keytabFile, "jduke@KERBEROS.EXAMPLE", "theduke");
+        } finally {
+            ks.stop();
+            keytabFile.delete();
+        }
+        assertNoLeakedThreads(expectedThreads);
+    }
+
+    private static void assertKeys(File keytabFile, String principal, String password) throws Exception {
+        List<KeytabEntry> entries = Keytab.read(keytabFile).getEntries();
+        assertEquals(KerberosKeyFactory.DEFAULT_CIPHERS.size(), entries.size());
+        for (KeytabEntry entry : entries) {
+            assertEquals(principal, entry.getPrincipalName());
+            assertEquals(0, entry.getKeyVersion());
+            EncryptionType encryptionType = entry.getKey().getKeyType();
+            assertArrayEquals(KerberosKeyFactory.getKerberosKeys(principal, password, Collections.singleton(encryptionType))
+                    .get(encryptionType).getKeyValue(), entry.getKey().getKeyValue());
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.kwart.kerberos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntry;
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class IndexedPrincipalStoreTest {
+
+    private static final String REALM = KerberosOptions.DEFAULT_KERBEROS_REALM;
+
+    private static KerberosServer kerberosServer;
+    private static DirectoryService directoryService;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        KerberosOptions ko = new KerberosOptions();
+        ko.setLdapPort(5711);
+        ko.setKerberosPort(5713);
+        kerberosServer = new KerberosServer(ko);
+        directoryService = kerberosServer.getDirectoryService();
+    }
+
+    @AfterClass
+    public static void afterClass() throws Exception {
+        directoryService.shutdown();
+    }
+
+    @Test
+    public void testIndexFollowsDirectoryChanges() throws Exception {
+        CoreSession session = directoryService.getAdminSession();
+        Dn usersDn = directoryService.getDnFactory().create("ou=Users,dc=kerberos,dc=example");
+        try (IndexedPrincipalStore store = new IndexedPrincipalStore(directoryService,
+                directoryService.getDnFactory().create("dc=kerberos,dc=example"))) {
+            int initialSize = store.size();
+            assertNotNull(store.getPrincipal(principal("hnelson")));
+            assertNull(store.getPrincipal(principal("alice")));
+
+            Dn aliceDn = directoryService.getDnFactory().create("uid=alice,ou=Users,dc=kerberos,dc=example");
+            session.add(new DefaultEntry(directoryService.getSchemaManager(), aliceDn,
+                    "objectClass: top", "objectClass: person", "objectClass: inetOrgPerson",
+                    "objectClass: krb5principal", "objectClass: krb5kdcentry", "cn: Alice", "sn: Alice", "uid: alice",
+                    "userPassword: secret", "krb5PrincipalName: alice@" + REALM, "krb5KeyVersionNumber: 0"));
+            PrincipalStoreEntry alice = store.getPrincipal(principal("alice"));
+            assertNotNull(alice);
+            assertEquals(0, alice.getKeyVersionNumber());
+            assertNotNull(alice.getKeyMap().get(EncryptionType.AES128_CTS_HMAC_SHA1_96));
+            assertFalse(alice.isDisabled());
+
+            session.modify(aliceDn, new DefaultModification(ModificationOperation.ADD_ATTRIBUTE, "krb5AccountDisabled",
+                    "TRUE"));
+            assertTrue(store.getPrincipal(principal("alice")).isDisabled());
+
+            session.rename(aliceDn, new Rdn(directoryService.getSchemaManager(), "uid=alice2"), true);
+            alice = store.getPrincipal(principal("alice"));
+            assertEquals(usersDn.add("uid=alice2").getName(), alice.getDistinguishedName());
+
+            session.delete(directoryService.getDnFactory().create("uid=alice2,ou=Users,dc=kerberos,dc=example"));
+            assertNull(store.getPrincipal(principal("alice")));
+            assertEquals(initialSize, store.size());
+        }
+    }
+
+    @Test
+    public void testPrincipalVisibleDuringModification() throws Exception {
+        CoreSession session = directoryService.getAdminSession();
+        Dn hnelsonDn = directoryService.getDnFactory().create("uid=hnelson,ou=Users,dc=kerberos,dc=example");
+        ExecutorService lookups = Executors.newFixedThreadPool(2);
+        try (IndexedPrincipalStore store = new IndexedPrincipalStore(directoryService,
+                directoryService.getDnFactory().create("dc=kerberos,dc=example"))) {
+            AtomicBoolean modifying = new AtomicBoolean(true);
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                results.add(lookups.submit(() -> {
+                    int missing = 0;
+                    while (modifying.get()) {
+                        if (store.getPrincipal(principal("hnelson")) == null) {
+                            missing++;
+                        }
+                    }
+                    return missing;
+                }));
+            }
+            try {
+                for (int i = 0; i < 50; i++) {
+                    session.modify(hnelsonDn,
+                            new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, "userPassword", "secret" + i));
+                }
+            } finally {
+                modifying.set(false);
+            }
+            for (Future<Integer> result : results) {
+                assertEquals("Principal disappeared during the modification", Integer.valueOf(0),
+                        result.get(30, TimeUnit.SECONDS));
+            }
+            assertNotNull(store.getPrincipal(principal("hnelson")));
+        } finally {
+            lookups.shutdownNow();
+            session.modify(hnelsonDn,
+                    new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, "userPassword", "secret"));
+        }
+    }
+
+    @Test
+    public void testDuplicatePrincipalNameKeptOnRemove() throws Exception {
+        CoreSession session = directoryService.getAdminSession();
+        try (IndexedPrincipalStore store = new IndexedPrincipalStore(directoryService,
+                directoryService.getDnFactory().create("dc=kerberos,dc=example"))) {
+            Dn bob1Dn = directoryService.getDnFactory().create("uid=bob1,ou=Users,dc=kerberos,dc=example");
+            Dn bob2Dn = directoryService.getDnFactory().create("uid=bob2,ou=Users,dc=kerberos,dc=example");
+            for (Dn dn : new Dn[] { bob1Dn, bob2Dn }) {
+                String uid = dn.getRdn().getValue();
+                session.add(new DefaultEntry(directoryService.getSchemaManager(), dn, "objectClass: top",
+                        "objectClass: person", "objectClass: inetOrgPerson", "objectClass: krb5principal",
+                        "objectClass: krb5kdcentry", "cn: " + uid, "sn: " + uid, "uid: " + uid, "userPassword: secret",
+                        "krb5PrincipalName: bob@" + REALM, "krb5KeyVersionNumber: 0"));
+            }
+            assertEquals(bob2Dn.getName(), store.getPrincipal(principal("bob")).getDistinguishedName());
+
+            // the name belongs to the bob2 entry, removing bob1 must not drop it
+            session.delete(bob1Dn);
+            assertEquals(bob2Dn.getName(), store.getPrincipal(principal("bob")).getDistinguishedName());
+
+            session.delete(bob2Dn);
+            assertNull(store.getPrincipal(principal("bob")));
+        }
+    }
+
+    private static KerberosPrincipal principal(String name) {
+        return new KerberosPrincipal(name + "@" + REALM);
+    }
+}
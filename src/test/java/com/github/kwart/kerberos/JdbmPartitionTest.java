@@ -0,0 +1,97 @@
+package com.github.kwart.kerberos;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmPartition;
+import org.junit.Test;
+
+public class JdbmPartitionTest {
+
+    @Test
+    public void testDataReopened() throws Exception {
+        File dataDir = File.createTempFile("kerberos-data", "");
+        dataDir.delete();
+        try {
+            KerberosOptions ko = new KerberosOptions();
+            ko.setLdapPort(5741);
+            ko.setKerberosPort(5743);
+            ko.setPartitionType(KerberosOptions.PartitionType.JDBM);
+            ko.setDataDir(dataDir);
+
+            KerberosServer ks = new KerberosServer(ko);
+            ks.start();
+            try {
+                DirectoryService directoryService = ks.getDirectoryService();
+                Dn jdukeDn = directoryService.getDnFactory().create("uid=jduke,ou=Users,dc=kerberos,dc=example");
+                assertTrue(directoryService.getPartitionNexus().getPartition(jdukeDn) instanceof JdbmPartition);
+                directoryService.getAdminSession().modify(jdukeDn,
+                        new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, "cn", "Changed Duke"));
+            } finally {
+                ks.stop();
+            }
+
+            ks = new KerberosServer(ko);
+            ks.start();
+            try {
+                DirectoryService directoryService = ks.getDirectoryService();
+                Dn jdukeDn = directoryService.getDnFactory().create("uid=jduke,ou=Users,dc=kerberos,dc=example");
+                assertEquals("Changed Duke", directoryService.getAdminSession().lookup(jdukeDn).get("cn").getString());
+            } finally {
+                ks.stop();
+            }
+        } finally {
+            FileUtils.deleteDirectory(dataDir);
+        }
+    }
+
+    @Test
+    public void testFailedImportRepeated() throws Exception {
+        File dataDir = File.createTempFile("kerberos-data", "");
+        dataDir.delete();
+        File ldif = File.createTempFile("broken", ".ldif");
+        try {
+            // the partition and the first entry are written before the import fails
+            Files.write(ldif.toPath(), ("dn: dc=kerberos,dc=example\nobjectClass: top\nobjectClass: domain\ndc: kerberos\n\n"
+                    + "dn: ou=Users,dc=kerberos,dc=example\nobjectClass: top\nobjectClass: organizationalUnit\nou: Users\n\n"
+                    + "dn: uid=broken,ou=Users,dc=kerberos,dc=example\nobjectClass: top\nobjectClass: unknownObjectClass\n"
+                    + "uid: broken\n").getBytes(UTF_8));
+            KerberosOptions ko = new KerberosOptions();
+            ko.setLdapPort(5741);
+            ko.setKerberosPort(5743);
+            ko.setPartitionType(KerberosOptions.PartitionType.JDBM);
+            ko.setDataDir(dataDir);
+            ko.setLdifFiles(Collections.singletonList(ldif.toPath()));
+            assertThrows(Exception.class, () -> new KerberosServer(ko));
+            assertFalse(new File(dataDir, "partitions.txt").exists());
+
+            // the default data is imported into the same data directory
+            ko.setLdifFiles(Collections.emptyList());
+            KerberosServer ks = new KerberosServer(ko);
+            ks.start();
+            try {
+                DirectoryService directoryService = ks.getDirectoryService();
+                Dn jdukeDn = directoryService.getDnFactory().create("uid=jduke,ou=Users,dc=kerberos,dc=example");
+                assertTrue(directoryService.getAdminSession().exists(jdukeDn));
+            } finally {
+                ks.stop();
+            }
+            assertTrue(new File(dataDir, "partitions.txt").exists());
+        } finally {
+            ldif.delete();
+            FileUtils.deleteDirectory(dataDir);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.github.kwart.kerberos;
+
+import static com.github.kwart.kerberos.KerberosServerTest.assertNoLeakedThreads;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.Configuration;
+import javax.security.auth.login.LoginContext;
+
+import org.junit.Test;
+
+import com.github.kwart.kerberos.gss.UsernamePasswordHandler;
+
+public class KerberosServerBuilderTest {
+
+    @Test
+    public void testEphemeralPorts() throws Exception {
+        File krb5Conf = File.createTempFile("krb5", ".conf");
+        KerberosServer ks = KerberosServer.builder().bindAddress("127.0.0.1").ephemeralPorts()
+                .additionalRealm("OTHER.EXAMPLE", 0).krb5Conf(krb5Conf).startAsync().get(60, TimeUnit.SECONDS);
+        String oldKrb5Conf = System.getProperty("java.security.krb5.conf");
+        Configuration oldConfiguration = Configuration.getConfiguration();
+        try {
+            int kdcPort = ks.getKerberosPort();
+            int otherKdcPort = ks.getRealms().get(1).getPort();
+            assertNotEquals(0, kdcPort);
+            assertNotEquals(0, otherKdcPort);
+            assertNotEquals(kdcPort, otherKdcPort);
+            assertNotEquals(0, ks.getLdapPort());
+            assertTrue(ks.getStartupTimings().toString(), ks.getStartupTimings().keySet()
+                    .containsAll(Arrays.asList("directory-service", "canonical-host", "data", "transports", "bind")));
+            String content = new String(Files.readAllBytes(krb5Conf.toPath()), UTF_8);
+            assertEquals(ks.getKrb5Conf(), content);
+            assertTrue(content, content.contains("kdc = 127.0.0.1:" + kdcPort + "\n"));
+            assertTrue(content, content.contains("kdc = 127.0.0.1:" + otherKdcPort + "\n"));
+
+            System.setProperty("java.security.krb5.conf", krb5Conf.getAbsolutePath());
+            Configuration.setConfiguration(new Configuration() {
+                @Override
+                public AppConfigurationEntry[] getAppConfigurationEntry(String name) {
+                    Map<String, String> options = new HashMap<>();
+                    options.put("refreshKrb5Config", "true");
+                    return new AppConfigurationEntry[] { new AppConfigurationEntry(
+                            "com.sun.security.auth.module.Krb5LoginModule",
+                            AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, options) };
+                }
+            });
+            LoginContext lc = new LoginContext("test", new UsernamePasswordHandler("hnelson", "secret".toCharArray()));
+            lc.login();
+            lc.logout();
+        } finally {
+            Configuration.setConfiguration(oldConfiguration);
+            if (oldKrb5Conf != null) {
+                System.setProperty("java.security.krb5.conf", oldKrb5Conf);
+            } else {
+                System.clearProperty("java.security.krb5.conf");
+            }
+            ks.stop();
+            krb5Conf.delete();
+        }
+    }
+
+    @Test
+    public void testStoppedWhenStartFails() throws Exception {
+        Set<Thread> expectedThreads = Thread.getAllStackTraces().keySet();
+        try (ServerSocket occupied = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"))) {
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> KerberosServer.builder().bindAddress("127.0.0.1").ephemeralPorts()
+                            .ldapPort(occupied.getLocalPort()).startAsync().get(60, TimeUnit.SECONDS));
+            assertNotNull(e.getCause());
+        }
+        assertNoLeakedThreads(expectedThreads);
+    }
+}
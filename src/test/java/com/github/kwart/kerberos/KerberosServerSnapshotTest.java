@@ -0,0 +1,85 @@
+package com.github.kwart.kerberos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.junit.Test;
+
+public class KerberosServerSnapshotTest {
+
+    private static final String REALM = KerberosOptions.DEFAULT_KERBEROS_REALM;
+
+    @Test
+    public void testResetToSnapshot() throws Exception {
+        KerberosOptions ko = new KerberosOptions();
+        ko.setBindAddress("127.0.0.1");
+        ko.setLdapPort(5731);
+        ko.setKerberosPort(5733);
+        ko.setSnapshot(true);
+        KerberosServer ks = new KerberosServer(ko);
+        ks.start();
+        try {
+            DirectoryService directoryService = ks.getDirectoryService();
+            CoreSession session = directoryService.getAdminSession();
+            IndexedPrincipalStore store = ks.getRealms().get(0).getPrincipalStore();
+            Dn hnelsonDn = dn(directoryService, "uid=hnelson,ou=Users,dc=kerberos,dc=example");
+            Dn jdukeDn = dn(directoryService, "uid=jduke,ou=Users,dc=kerberos,dc=example");
+            Dn aliceDn = dn(directoryService, "uid=alice,ou=Users,dc=kerberos,dc=example");
+            Entry hnelson = session.lookup(hnelsonDn, "*", "+");
+            int principals = store.size();
+            Object hnelsonKeys = store.getPrincipal(principal("hnelson")).getKeyMap();
+
+            for (int i = 0; i < 2; i++) {
+                session.add(new DefaultEntry(directoryService.getSchemaManager(), aliceDn, "objectClass: top",
+                        "objectClass: person", "objectClass: inetOrgPerson", "objectClass: krb5principal",
+                        "objectClass: krb5kdcentry", "cn: Alice", "sn: Alice", "uid: alice", "userPassword: secret",
+                        "krb5PrincipalName: alice@" + REALM, "krb5KeyVersionNumber: 0"));
+                session.modify(hnelsonDn,
+                        new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, "userPassword", "changed"));
+                session.rename(jdukeDn, new Rdn(directoryService.getSchemaManager(), "uid=jduke2"), true);
+                assertNotNull(store.getPrincipal(principal("alice")));
+                assertNotEquals(hnelson.get("userPassword"), session.lookup(hnelsonDn, "*").get("userPassword"));
+
+                ks.resetToSnapshot();
+
+                assertFalse(session.exists(aliceDn));
+                assertTrue(session.exists(jdukeDn));
+                assertFalse(session.exists(dn(directoryService, "uid=jduke2,ou=Users,dc=kerberos,dc=example")));
+                Entry restored = session.lookup(hnelsonDn, "*", "+");
+                assertEquals(hnelson.get("userPassword"), restored.get("userPassword"));
+                assertEquals(hnelson.get("krb5Key"), restored.get("krb5Key"));
+                assertEquals(hnelson.get("krb5KeyVersionNumber"), restored.get("krb5KeyVersionNumber"));
+                assertEquals(hnelson.get("entryUUID"), restored.get("entryUUID"));
+
+                assertNull(store.getPrincipal(principal("alice")));
+                assertEquals(hnelsonKeys, store.getPrincipal(principal("hnelson")).getKeyMap());
+                assertEquals(jdukeDn.getName(), store.getPrincipal(principal("jduke")).getDistinguishedName());
+                assertEquals(principals, store.size());
+            }
+        } finally {
+            ks.stop();
+        }
+    }
+
+    private static Dn dn(DirectoryService directoryService, String dn) throws Exception {
+        return directoryService.getDnFactory().create(dn);
+    }
+
+    private static KerberosPrincipal principal(String name) {
+        return new KerberosPrincipal(name + "@" + REALM);
+    }
+}
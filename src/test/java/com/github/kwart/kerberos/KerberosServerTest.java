@@ -4,6 +4,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.fail;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -83,6 +85,19 @@ public class KerberosServerTest {
         fail("assertTrueEventually() failed without AssertionError! " + message);
     }
 
+    /**
+     * Asserts that all the threads started after the given snapshot of the running threads are eventually stopped.
+     */
+    public static void assertNoLeakedThreads(Set<Thread> before) throws Exception {
+        assertTrueEventually("threads were not stopped", () -> {
+            Set<Thread> threads = new HashSet<>(Thread.getAllStackTraces().keySet());
+            threads.removeAll(before);
+            // the MINA UDP session expirer is a JVM wide singleton
+            threads.removeIf(t -> t.getName().startsWith("ExpiringMapExpirer"));
+            assertEquals(Collections.emptySet(), threads);
+        }, 90);
+    }
+
     public static void sleepMillis(int millis) {
         try {
             TimeUnit.MILLISECONDS.sleep(millis);
@@ -0,0 +1,50 @@
+package com.github.kwart.kerberos;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.server.kerberos.shared.crypto.encryption.KerberosKeyFactory;
+import org.apache.directory.server.kerberos.shared.keytab.Keytab;
+import org.apache.directory.server.kerberos.shared.keytab.KeytabEntry;
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+import org.junit.Test;
+
+public class KeytabWriterTest {
+
+    @Test
+    public void testChunkedKeytab() throws Exception {
+        File keytabFile = File.createTempFile("test", ".keytab");
+        try {
+            Set<EncryptionType> encryptionTypes = CreateKeytab
+                    .parseEncryptionTypes(Arrays.asList("aes128-cts-hmac-sha1-96,rc4-hmac"));
+            try (KeytabWriter keytabWriter = new KeytabWriter(keytabFile, encryptionTypes, 2, 3)) {
+                for (int i = 0; i < 10; i++) {
+                    keytabWriter.add(new KeytabPrincipalPassphrase("user" + i + "@KERBEROS.EXAMPLE", "secret" + i));
+                }
+                keytabWriter.flush();
+                assertEquals(10L, keytabWriter.getPrincipalCount());
+                assertEquals(20L, keytabWriter.getEntryCount());
+            }
+
+            List<KeytabEntry> entries = Keytab.read(keytabFile).getEntries();
+            assertEquals(20, entries.size());
+            for (int i = 0; i < 10; i++) {
+                for (KeytabEntry entry : entries.subList(2 * i, 2 * i + 2)) {
+                    assertEquals("user" + i + "@KERBEROS.EXAMPLE", entry.getPrincipalName());
+                    EncryptionType encryptionType = entry.getKey().getKeyType();
+                    assertArrayEquals(KerberosKeyFactory.getKerberosKeys(entry.getPrincipalName(), "secret" + i,
+                            Collections.singleton(encryptionType)).get(encryptionType).getKeyValue(),
+                            entry.getKey().getKeyValue());
+                }
+            }
+        } finally {
+            keytabFile.delete();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.kwart.kerberos;
+
+import static com.github.kwart.kerberos.KerberosServerTest.assertNoLeakedThreads;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.shared.kerberos.KerberosAttribute;
+import org.junit.Test;
+
+public class LdifImporterTest {
+
+    @Test
+    public void testApplyChangeRecords() throws Exception {
+        Set<Thread> expectedThreads = Thread.getAllStackTraces().keySet();
+        Path ldif = Files.createTempFile("changes", ".ldif");
+        KerberosServer ks = KerberosServer.builder().bindAddress("127.0.0.1").ephemeralPorts().start();
+        try {
+            SchemaManager schemaManager = ks.getDirectoryService().getSchemaManager();
+            CoreSession session = ks.getDirectoryService().getAdminSession();
+            Dn jdukeDn = new Dn(schemaManager, "uid=jduke,ou=Users,dc=kerberos,dc=example");
+            Dn hnelsonDn = new Dn(schemaManager, "uid=hnelson,ou=Users,dc=kerberos,dc=example");
+            Dn aliceDn = new Dn(schemaManager, "uid=alice,ou=Users,dc=kerberos,dc=example");
+            Dn bobDn = new Dn(schemaManager, "uid=bob,ou=Services,dc=kerberos,dc=example");
+            Entry jduke = session.lookup(jdukeDn, "*");
+
+            String changes = "dn: uid=alice,ou=Users,${baseDn}\nchangetype: add\nobjectClass: top\nobjectClass: person\n"
+                    + "objectClass: inetOrgPerson\nobjectClass: krb5principal\nobjectClass: krb5kdcentry\ncn: Alice\n"
+                    + "sn: Alice\nuid: alice\nuserPassword: alicepwd\nkrb5PrincipalName: alice@${realm}\n\n"
+                    + "dn: uid=jduke,ou=Users,${baseDn}\nchangetype: modify\nreplace: cn\ncn: Duke\n-\n"
+                    + "replace: userPassword\nuserPassword: newduke\n-\n\n"
+                    + "dn: uid=hnelson,ou=Users,${baseDn}\nchangetype: delete\n\n"
+                    + "dn: uid=alice,ou=Users,${baseDn}\nchangetype: moddn\nnewrdn: uid=bob\ndeleteoldrdn: 1\n"
+                    + "newsuperior: ou=Services,${baseDn}\n";
+            Files.write(ldif, changes.getBytes(UTF_8));
+            LdifImporter.ImportStats stats = ks.applyLdif(ldif);
+
+            assertEquals(1, stats.getEntries());
+            assertEquals(1, stats.getChanges(ChangeType.Add));
+            assertEquals(1, stats.getChanges(ChangeType.Modify));
+            assertEquals(1, stats.getChanges(ChangeType.Delete));
+            assertEquals(1, stats.getChanges(ChangeType.ModDn));
+            assertEquals(0, stats.getChanges(ChangeType.ModRdn));
+            assertEquals("Duke", session.lookup(jdukeDn, "cn").get("cn").getString());
+            assertNotEquals(jduke.get(KerberosAttribute.KRB5_KEY_AT),
+                    session.lookup(jdukeDn, "*").get(KerberosAttribute.KRB5_KEY_AT));
+            assertFalse(session.exists(hnelsonDn));
+            assertFalse(session.exists(aliceDn));
+            assertTrue(session.exists(bobDn));
+            assertNotNull(session.lookup(bobDn, "*").get(KerberosAttribute.KRB5_KEY_AT));
+        } finally {
+            ks.stop();
+            Files.delete(ldif);
+        }
+        assertNoLeakedThreads(expectedThreads);
+    }
+}
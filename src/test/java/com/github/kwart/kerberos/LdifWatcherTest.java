@@ -0,0 +1,68 @@
+package com.github.kwart.kerberos;
+
+import static com.github.kwart.kerberos.KerberosServerTest.assertNoLeakedThreads;
+import static com.github.kwart.kerberos.KerberosServerTest.assertTrueEventually;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.IOUtils;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.shared.kerberos.KerberosAttribute;
+import org.junit.Test;
+
+public class LdifWatcherTest {
+
+    @Test
+    public void testApplyChanges() throws Exception {
+        Set<Thread> expectedThreads = Thread.getAllStackTraces().keySet();
+        Path dir = Files.createTempDirectory("ldif");
+        Path ldif = dir.resolve("users.ldif");
+        String content = IOUtils.toString(getClass().getResourceAsStream("/default.ldif"), UTF_8);
+        Files.write(ldif, content.getBytes(UTF_8));
+        KerberosServer ks = KerberosServer.builder().bindAddress("127.0.0.1").ephemeralPorts().ldif(ldif)
+                .options(o -> o.setWatchLdif(true)).start();
+        try {
+            CoreSession session = ks.getDirectoryService().getAdminSession();
+            Dn jdukeDn = new Dn(ks.getDirectoryService().getSchemaManager(), "uid=jduke,ou=Users,dc=kerberos,dc=example");
+            Dn hnelsonDn = new Dn(ks.getDirectoryService().getSchemaManager(), "uid=hnelson,ou=Users,dc=kerberos,dc=example");
+            Dn aliceDn = new Dn(ks.getDirectoryService().getSchemaManager(), "uid=alice,ou=Users,dc=kerberos,dc=example");
+            Dn krbtgtDn = new Dn(ks.getDirectoryService().getSchemaManager(), "uid=krbtgt,ou=Services,dc=kerberos,dc=example");
+            Entry jduke = session.lookup(jdukeDn, "*");
+            Entry krbtgt = session.lookup(krbtgtDn, "*");
+
+            int hnelsonStart = content.indexOf("dn: uid=hnelson");
+            int hnelsonEnd = content.indexOf("dn: ", hnelsonStart + 1);
+            String changed = content.substring(0, hnelsonStart) + content.substring(hnelsonEnd)
+                    .replace("cn: Java Duke", "cn: Duke").replace("userPassword: theduke", "userPassword: newduke")
+                    + "\ndn: uid=alice,ou=Users,${baseDn}\nobjectClass: top\nobjectClass: person\n"
+                    + "objectClass: inetOrgPerson\nobjectClass: krb5principal\nobjectClass: krb5kdcentry\ncn: Alice\n"
+                    + "sn: Alice\nuid: alice\nuserPassword: alicepwd\nkrb5PrincipalName: alice@${realm}\n";
+            Files.write(ldif, changed.getBytes(UTF_8));
+
+            assertTrueEventually("changes were not applied", () -> {
+                assertTrue(session.exists(aliceDn));
+                assertFalse(session.exists(hnelsonDn));
+                assertEquals("Duke", session.lookup(jdukeDn, "cn").get("cn").getString());
+            }, 30);
+            assertNotNull(session.lookup(aliceDn, "*").get(KerberosAttribute.KRB5_KEY_AT));
+            assertNotEquals(jduke.get(KerberosAttribute.KRB5_KEY_AT),
+                    session.lookup(jdukeDn, "*").get(KerberosAttribute.KRB5_KEY_AT));
+            assertEquals(krbtgt, session.lookup(krbtgtDn, "*"));
+        } finally {
+            ks.stop();
+            Files.delete(ldif);
+            Files.delete(dir);
+        }
+        assertNoLeakedThreads(expectedThreads);
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.kwart.kerberos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.junit.Test;
+
+public class OffHeapPartitionTest {
+
+    @Test
+    public void testEntriesStoredOffHeap() throws Exception {
+        KerberosOptions ko = new KerberosOptions();
+        ko.setLdapPort(5751);
+        ko.setKerberosPort(5753);
+        ko.setPartitionType(KerberosOptions.PartitionType.OFF_HEAP);
+        DirectoryService directoryService = new KerberosServer(ko).getDirectoryService();
+        try {
+            CoreSession session = directoryService.getAdminSession();
+            Dn baseDn = directoryService.getDnFactory().create("dc=kerberos,dc=example");
+            Dn hnelsonDn = directoryService.getDnFactory().create("uid=hnelson,ou=Users,dc=kerberos,dc=example");
+            OffHeapPartition partition = (OffHeapPartition) directoryService.getPartitionNexus().getPartition(baseDn);
+            OffHeapMasterTable table = partition.getOffHeapMasterTable();
+            long entries = table.count();
+            assertEquals(entries, count(session, baseDn, "(objectClass=*)"));
+            assertEquals(1L, count(session, baseDn, "(krb5PrincipalName=hnelson@KERBEROS.EXAMPLE)"));
+
+            // the replaced records are reclaimed
+            for (int i = 0; i < 3000; i++) {
+                session.modify(hnelsonDn,
+                        new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, "description", "change " + i));
+            }
+            assertEquals("change 2999", session.lookup(hnelsonDn, "description").get("description").getString());
+            assertEquals(entries, table.count());
+            assertTrue(table.getAllocatedSize() + " bytes allocated", table.getAllocatedSize() < 4L * 1024 * 1024);
+            assertEquals(1L, count(session, baseDn, "(description=*)"));
+
+            session.delete(hnelsonDn);
+            assertFalse(session.exists(hnelsonDn));
+            assertEquals(entries - 1, table.count());
+            assertEquals(entries - 1, count(session, baseDn, "(objectClass=*)"));
+        } finally {
+            directoryService.shutdown();
+        }
+    }
+
+    private static long count(CoreSession session, Dn baseDn, String filter) throws Exception {
+        long count = 0;
+        try (Cursor<Entry> cursor = session.search(baseDn, SearchScope.SUBTREE,
+                FilterParser.parse(session.getDirectoryService().getSchemaManager(), filter),
+                AliasDerefMode.NEVER_DEREF_ALIASES, "1.1")) {
+            while (cursor.next()) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
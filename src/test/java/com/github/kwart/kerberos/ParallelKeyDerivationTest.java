@@ -0,0 +1,101 @@
+package com.github.kwart.kerberos;
+
+import static com.github.kwart.kerberos.KerberosServerTest.assertNoLeakedThreads;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.shared.kerberos.KerberosAttribute;
+import org.apache.directory.shared.kerberos.codec.KerberosDecoder;
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+import org.apache.directory.shared.kerberos.components.EncryptionKey;
+import org.junit.Test;
+
+public class ParallelKeyDerivationTest {
+
+    /**
+     * The keys derived in parallel and added through {@link BulkKeyDerivationInterceptor#addWithDerivedKeys} have to be the
+     * same as the keys derived by the stock {@link org.apache.directory.server.core.kerberos.KeyDerivationInterceptor}.
+     */
+    @Test
+    public void testSameKeysAsKeyDerivationInterceptor() throws Exception {
+        Set<Thread> expectedThreads = Thread.getAllStackTraces().keySet();
+        KerberosServer ks = KerberosServer.builder().bindAddress("127.0.0.1").ephemeralPorts().start();
+        try {
+            SchemaManager schemaManager = ks.getDirectoryService().getSchemaManager();
+            CoreSession session = ks.getDirectoryService().getAdminSession();
+            List<Entry> stockEntries = new ArrayList<>();
+            List<Entry> parallelEntries = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                // the same principal name and password in both entries, so the derived keys are the same
+                stockEntries.add(createEntry(schemaManager, "stock" + i, "equal" + i, "pwd" + i));
+                parallelEntries.add(createEntry(schemaManager, "parallel" + i, "equal" + i, "pwd" + i));
+            }
+            for (Entry entry : stockEntries) {
+                session.add(entry);
+            }
+            try (ParallelKeyDerivation keyDerivation = new ParallelKeyDerivation(4)) {
+                keyDerivation.deriveKeys(parallelEntries);
+            }
+            for (Entry entry : parallelEntries) {
+                BulkKeyDerivationInterceptor.addWithDerivedKeys(session, entry);
+            }
+
+            for (int i = 0; i < stockEntries.size(); i++) {
+                Entry stock = session.lookup(stockEntries.get(i).getDn(), "*");
+                Entry parallel = session.lookup(parallelEntries.get(i).getDn(), "*");
+                Map<EncryptionType, EncryptionKey> stockKeys = getKeys(stock);
+                Map<EncryptionType, EncryptionKey> parallelKeys = getKeys(parallel);
+                assertFalse(stockKeys.isEmpty());
+                assertEquals(stockKeys.keySet(), parallelKeys.keySet());
+                for (Map.Entry<EncryptionType, EncryptionKey> key : stockKeys.entrySet()) {
+                    assertArrayEquals(key.getKey().getName(), key.getValue().getKeyValue(),
+                            parallelKeys.get(key.getKey()).getKeyValue());
+                }
+                assertEquals("0", stock.get(KerberosAttribute.KRB5_KEY_VERSION_NUMBER_AT).getString());
+                assertEquals("0", parallel.get(KerberosAttribute.KRB5_KEY_VERSION_NUMBER_AT).getString());
+            }
+        } finally {
+            ks.stop();
+        }
+        assertNoLeakedThreads(expectedThreads);
+    }
+
+    private static Entry createEntry(SchemaManager schemaManager, String uid, String principal, String password)
+            throws Exception {
+        Entry entry = new DefaultEntry(schemaManager, "uid=" + uid + ",ou=Users,dc=kerberos,dc=example");
+        entry.add(SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.TOP_OC, SchemaConstants.PERSON_OC,
+                SchemaConstants.INET_ORG_PERSON_OC, "krb5principal", "krb5kdcentry");
+        entry.add(SchemaConstants.CN_AT, uid);
+        entry.add(SchemaConstants.SN_AT, uid);
+        entry.add(SchemaConstants.UID_AT, uid);
+        entry.add(SchemaConstants.USER_PASSWORD_AT, password);
+        entry.add(KerberosAttribute.KRB5_PRINCIPAL_NAME_AT, principal + "@KERBEROS.EXAMPLE");
+        // required by the schema, both derivations replace it
+        entry.add(KerberosAttribute.KRB5_KEY_VERSION_NUMBER_AT, "5");
+        return entry;
+    }
+
+    private static Map<EncryptionType, EncryptionKey> getKeys(Entry entry) throws Exception {
+        Map<EncryptionType, EncryptionKey> keys = new HashMap<>();
+        Attribute attribute = entry.get(KerberosAttribute.KRB5_KEY_AT);
+        for (Value<?> value : attribute) {
+            EncryptionKey key = KerberosDecoder.decodeEncryptionKey(value.getBytes());
+            keys.put(key.getKeyType(), key);
+        }
+        return keys;
+    }
+}
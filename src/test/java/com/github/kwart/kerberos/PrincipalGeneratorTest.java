@@ -0,0 +1,97 @@
+package com.github.kwart.kerberos;
+
+import static com.github.kwart.kerberos.KerberosServerTest.assertNoLeakedThreads;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.shared.kerberos.KerberosAttribute;
+import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntry;
+import org.junit.Test;
+
+public class PrincipalGeneratorTest {
+
+    @Test
+    public void testGeneratePrincipals() throws Exception {
+        Set<Thread> expectedThreads = Thread.getAllStackTraces().keySet();
+        KerberosServer ks = KerberosServer.builder().bindAddress("127.0.0.1").ephemeralPorts()
+                .options(o -> {
+                    o.setGeneratePrincipals(120);
+                    o.setPrincipalPatterns(Arrays.asList("user{n}", "HTTP/host{n}.example"));
+                    o.setPasswordPattern("pwd{n}");
+                    o.setImportBatchSize(50);
+                }).start();
+        File keytab = File.createTempFile("generated", ".keytab");
+        try {
+            CoreSession session = ks.getDirectoryService().getAdminSession();
+            Entry user = session.lookup(new Dn(ks.getDirectoryService().getSchemaManager(),
+                    "uid=user119,ou=Users,dc=kerberos,dc=example"), "*");
+            assertEquals("user119@KERBEROS.EXAMPLE", user.get(KerberosAttribute.KRB5_PRINCIPAL_NAME_AT).getString());
+            assertNotNull(user.get(KerberosAttribute.KRB5_KEY_AT));
+            Dn serviceDn = new Dn(ks.getDirectoryService().getSchemaManager(),
+                    "uid=HTTP/host0.example,ou=Services,dc=kerberos,dc=example");
+            assertTrue(session.exists(serviceDn));
+
+            assertEquals(120, ks.exportKeytab(keytab, null, "user*"));
+            assertEquals(120, ks.exportKeytab(keytab, null, "HTTP/host*"));
+        } finally {
+            ks.stop();
+            keytab.delete();
+        }
+        assertNoLeakedThreads(expectedThreads);
+    }
+
+    @Test
+    public void testGeneratePrincipalsCustomSuffix() throws Exception {
+        Set<Thread> expectedThreads = Thread.getAllStackTraces().keySet();
+        Path ldif = Files.createTempFile("acme", ".ldif");
+        Files.write(ldif, ("dn: dc=acme,dc=test\nobjectClass: top\nobjectClass: domain\ndc: acme\n\n"
+                + "dn: ou=Services,dc=acme,dc=test\nobjectClass: top\nobjectClass: organizationalUnit\nou: Services\n\n"
+                + "dn: uid=krbtgt,ou=Services,dc=acme,dc=test\nobjectClass: top\nobjectClass: person\n"
+                + "objectClass: inetOrgPerson\nobjectClass: krb5principal\nobjectClass: krb5kdcentry\ncn: KDC Service\n"
+                + "sn: Service\nuid: krbtgt\nuserPassword: secret\nkrb5PrincipalName: krbtgt/${realm}@${realm}\n")
+                        .getBytes(StandardCharsets.UTF_8));
+        KerberosServer ks = KerberosServer.builder().bindAddress("127.0.0.1").ephemeralPorts().ldif(ldif)
+                .options(o -> o.setGeneratePrincipals(3)).start();
+        try {
+            assertEquals("dc=acme,dc=test", ks.getRealms().get(0).getBaseDn());
+            // ou=Users is created by the generator
+            Dn userDn = new Dn(ks.getDirectoryService().getSchemaManager(), "uid=user2,ou=Users,dc=acme,dc=test");
+            assertTrue(ks.getDirectoryService().getAdminSession().exists(userDn));
+            PrincipalStoreEntry principal = ks.getRealms().get(0).getPrincipalStore()
+                    .getPrincipal(new KerberosPrincipal("user2@KERBEROS.EXAMPLE"));
+            assertNotNull(principal);
+            assertEquals(userDn.getName(), principal.getDistinguishedName());
+        } finally {
+            ks.stop();
+            Files.delete(ldif);
+        }
+        assertNoLeakedThreads(expectedThreads);
+    }
+
+    @Test
+    public void testPatternWithoutNumberRejected() throws Exception {
+        Set<Thread> expectedThreads = Thread.getAllStackTraces().keySet();
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> KerberosServer.builder().bindAddress("127.0.0.1").ephemeralPorts().options(o -> {
+                    o.setGeneratePrincipals(2);
+                    o.setPrincipalPatterns(Arrays.asList("user{n}", "HTTP/host.example"));
+                }).start());
+        assertTrue(e.getMessage(), e.getMessage().contains("HTTP/host.example"));
+        assertNoLeakedThreads(expectedThreads);
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.github.kwart.kerberos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.SchemaObject;
+import org.apache.directory.api.ldap.schema.loader.JarLdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.junit.Test;
+
+public class SchemaImageTest {
+
+    /**
+     * The schema loaded from the prebuilt image has to be the same as the one loaded from the LDIF files in the ApacheDS
+     * jars.
+     */
+    @Test
+    public void testSameSchemaAsLdifFiles() throws Exception {
+        SchemaImage schemaImage = SchemaImage.load();
+        assertNotNull("Schema image not found on the classpath", schemaImage);
+        SchemaManager imageSchemaManager = new DefaultSchemaManager(new ImageSchemaLoader(schemaImage));
+        assertTrue(imageSchemaManager.getErrors().toString(), imageSchemaManager.loadAllEnabled());
+        SchemaManager ldifSchemaManager = new DefaultSchemaManager(new JarLdifSchemaLoader());
+        assertTrue(ldifSchemaManager.getErrors().toString(), ldifSchemaManager.loadAllEnabled());
+
+        Map<String, String> ldifOids = describe(ldifSchemaManager.getGlobalOidRegistry().iterator());
+        assertFalse(ldifOids.isEmpty());
+        assertEquals(ldifOids, describe(imageSchemaManager.getGlobalOidRegistry().iterator()));
+        assertEquals(describe(ldifSchemaManager.getAttributeTypeRegistry().iterator()),
+                describe(imageSchemaManager.getAttributeTypeRegistry().iterator()));
+        assertEquals(describe(ldifSchemaManager.getObjectClassRegistry().iterator()),
+                describe(imageSchemaManager.getObjectClassRegistry().iterator()));
+        assertEquals(describe(ldifSchemaManager.getMatchingRuleRegistry().iterator()),
+                describe(imageSchemaManager.getMatchingRuleRegistry().iterator()));
+    }
+
+    private static Map<String, String> describe(Iterator<? extends SchemaObject> schemaObjects) {
+        Map<String, String> result = new TreeMap<>();
+        while (schemaObjects.hasNext()) {
+            SchemaObject schemaObject = schemaObjects.next();
+            result.put(schemaObject.getOid(), schemaObject.getSchemaName() + " " + schemaObject);
+        }
+        return result;
+    }
+}
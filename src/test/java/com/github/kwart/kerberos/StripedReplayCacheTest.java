@@ -0,0 +1,72 @@
+package com.github.kwart.kerberos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.shared.kerberos.KerberosTime;
+import org.junit.Test;
+
+public class StripedReplayCacheTest {
+
+    private static final long WINDOW = TimeUnit.MINUTES.toMillis(5);
+
+    private final KerberosPrincipal server = new KerberosPrincipal("krbtgt/KERBEROS.EXAMPLE@KERBEROS.EXAMPLE");
+    private final KerberosPrincipal client = new KerberosPrincipal("hnelson@KERBEROS.EXAMPLE");
+    private final AtomicLong now = new AtomicLong(1_600_000_000_000L);
+
+    @Test
+    public void testReplayDetected() {
+        StripedReplayCache cache = new StripedReplayCache(WINDOW, 1000, now::get);
+        KerberosTime time = new KerberosTime(now.get());
+        assertFalse(cache.isReplay(server, client, time, 1));
+        cache.save(server, client, time, 1);
+        assertTrue(cache.isReplay(server, client, time, 1));
+        assertFalse(cache.isReplay(server, client, time, 2));
+        assertFalse(cache.isReplay(server, new KerberosPrincipal("jduke@KERBEROS.EXAMPLE"), time, 1));
+        assertFalse(cache.isReplay(server, client, new KerberosTime(now.get() + 1000), 1));
+        assertEquals(1, cache.size());
+
+        cache.clear();
+        assertFalse(cache.isReplay(server, client, time, 1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testBucketsExpire() {
+        StripedReplayCache cache = new StripedReplayCache(WINDOW, 1000, now::get);
+        KerberosTime time = new KerberosTime(now.get());
+        cache.save(server, client, time, 1);
+        // client time out of the window is not stored at all
+        KerberosTime oldTime = new KerberosTime(now.get() - WINDOW - 1);
+        cache.save(server, client, oldTime, 1);
+        assertFalse(cache.isReplay(server, client, oldTime, 1));
+
+        now.addAndGet(WINDOW - 1);
+        assertTrue(cache.isReplay(server, client, time, 1));
+        now.addAndGet(2);
+        assertFalse(cache.isReplay(server, client, time, 1));
+
+        // the whole time range later the bucket is reused for new entries
+        now.addAndGet(2 * WINDOW);
+        for (int i = 0; i < 100; i++) {
+            cache.save(server, client, new KerberosTime(now.get()), i);
+        }
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void testSizeLimit() {
+        StripedReplayCache cache = new StripedReplayCache(WINDOW, 64, now::get);
+        KerberosTime time = new KerberosTime(now.get());
+        for (int i = 0; i < 10_000; i++) {
+            cache.save(server, client, time, i);
+        }
+        assertEquals(64, cache.size());
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.kwart.kerberos.gss;
+
+import static com.github.kwart.kerberos.KerberosServerTest.assertNoLeakedThreads;
+import static com.github.kwart.kerberos.KerberosServerTest.assertTrueEventually;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.net.Socket;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.Subject;
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.Configuration;
+import javax.security.auth.login.LoginContext;
+
+import org.junit.Test;
+
+import com.github.kwart.kerberos.KerberosServer;
+import com.github.kwart.kerberos.gss.LoadGeneratorOptions.Mode;
+
+public class GSSTestServerTest {
+
+    private static final String SERVICE = "gsstestserver/xxx";
+
+    @Test
+    public void testConcurrentSessions() throws Exception {
+        runWithGssServer(port -> {
+            ExecutorService clients = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<Void>> sessions = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    String message = "message " + i;
+                    sessions.add(clients.submit((Callable<Void>) () -> {
+                        GSSTestClient client = new GSSTestClient("127.0.0.1", port, SERVICE);
+                        client.setVerbose(false);
+                        try (GSSTestClient.Session session = Subject.doAs(login("hnelson", "secret"),
+                                (PrivilegedExceptionAction<GSSTestClient.Session>) () -> client.connect(null))) {
+                            assertEquals("hnelson@KERBEROS.EXAMPLE", session.getName());
+                            assertNotEquals("unknown", session.getEncryptionType());
+                            for (int j = 0; j < 5; j++) {
+                                assertEquals(message + "/" + j, session.echo(message + "/" + j));
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<Void> session : sessions) {
+                    session.get(60, TimeUnit.SECONDS);
+                }
+            } finally {
+                clients.shutdownNow();
+            }
+            assertTrue(clients.awaitTermination(30, TimeUnit.SECONDS));
+        });
+    }
+
+    @Test
+    public void testWrapLoad() throws Exception {
+        Configuration oldConfiguration = Configuration.getConfiguration();
+        try {
+            runWithGssServer(port -> {
+                LoadGeneratorOptions options = new LoadGeneratorOptions();
+                options.setMode(Mode.WRAP);
+                options.setThreads(2);
+                options.setWarmup(0);
+                options.setDuration(60);
+                options.setOperations(20);
+                options.setPayloadSize(1024);
+                options.setPrincipals(Arrays.asList("hnelson=secret"));
+                options.setService(SERVICE);
+                options.setGssHost("127.0.0.1");
+                options.setGssPort(port);
+                KerberosLoadGenerator.Report report = new KerberosLoadGenerator(options).run();
+                assertEquals(String.valueOf(report.getFirstError()), 0, report.getErrors());
+                assertEquals(40, report.getHistogram().getTotalCount());
+            });
+        } finally {
+            Configuration.setConfiguration(oldConfiguration);
+        }
+    }
+
+    /**
+     * Starts the embedded KDC and the GSS test server on an ephemeral port, runs the task and stops both servers.
+     */
+    private static void runWithGssServer(PortTask task) throws Exception {
+        Set<Thread> expectedThreads = Thread.getAllStackTraces().keySet();
+        File krb5Conf = File.createTempFile("krb5", ".conf");
+        KerberosServer ks = KerberosServer.builder().bindAddress("127.0.0.1").ephemeralPorts().krb5Conf(krb5Conf).start();
+        String oldKrb5Conf = System.getProperty("java.security.krb5.conf");
+        try {
+            System.setProperty("java.security.krb5.conf", krb5Conf.getAbsolutePath());
+            Subject serverSubject = login(SERVICE, "gsstestpwd");
+            GSSTestServer.ServerAction serverAction = new GSSTestServer.ServerAction(serverSubject, 0);
+            Thread serverThread = new Thread(() -> Subject.doAs(serverSubject, serverAction), "gsstestserver");
+            serverThread.start();
+            assertTrueEventually("server was not started", () -> assertTrue(serverAction.getLocalPort() > 0), 30);
+            int port = serverAction.getLocalPort();
+            try {
+                task.run(port);
+            } finally {
+                try (Socket socket = new Socket("127.0.0.1", port)) {
+                    DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+                    dos.writeInt(GSSTestServer.CMD_STOP);
+                    dos.flush();
+                }
+                serverThread.join(TimeUnit.SECONDS.toMillis(60));
+            }
+            assertFalse("server was not stopped", serverThread.isAlive());
+        } finally {
+            if (oldKrb5Conf != null) {
+                System.setProperty("java.security.krb5.conf", oldKrb5Conf);
+            } else {
+                System.clearProperty("java.security.krb5.conf");
+            }
+            ks.stop();
+            krb5Conf.delete();
+        }
+        assertNoLeakedThreads(expectedThreads);
+    }
+
+    private static Subject login(String principal, String password) throws Exception {
+        Configuration configuration = new Configuration() {
+            @Override
+            public AppConfigurationEntry[] getAppConfigurationEntry(String name) {
+                Map<String, String> options = new HashMap<>();
+                options.put("refreshKrb5Config", "true");
+                options.put("storeKey", "true");
+                return new AppConfigurationEntry[] { new AppConfigurationEntry("com.sun.security.auth.module.Krb5LoginModule",
+                        AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, options) };
+            }
+        };
+        LoginContext lc = new LoginContext("test", new Subject(),
+                new UsernamePasswordHandler(principal, password.toCharArray()), configuration);
+        lc.login();
+        return lc.getSubject();
+    }
+
+    private interface PortTask {
+        void run(int port) throws Exception;
+    }
+}
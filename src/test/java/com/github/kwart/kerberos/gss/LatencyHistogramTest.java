@@ -0,0 +1,41 @@
+package com.github.kwart.kerberos.gss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketBoundaries() {
+        for (long value : new long[] { 0, 1, 127, 128, 129, 255, 256, 1000, 123_456_789L, Long.MAX_VALUE }) {
+            int index = LatencyHistogram.index(value);
+            long highest = LatencyHistogram.highestEquivalentValue(index);
+            assertTrue(value + " > " + highest, value <= highest);
+            assertEquals(index, LatencyHistogram.index(highest));
+            if (highest < Long.MAX_VALUE) {
+                assertEquals(index + 1, LatencyHistogram.index(highest + 1));
+            }
+            assertTrue("Relative error too big for " + value, highest - value <= Math.max(0, value / 64));
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            (i % 2 == 0 ? first : second).record(i);
+        }
+        first.add(second);
+        assertEquals(1000, first.getTotalCount());
+        assertEquals(1, first.getMin());
+        assertEquals(1000, first.getMax());
+        assertEquals(500.5d, first.getMean(), 0.001d);
+        assertEquals(503, first.getValueAtPercentile(50));
+        assertEquals(991, first.getValueAtPercentile(99));
+        assertEquals(1000, first.getValueAtPercentile(99.9));
+        assertEquals(1000, first.getValueAtPercentile(100));
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.kwart.kerberos.metrics;
+
+import static com.github.kwart.kerberos.KerberosServerTest.assertNoLeakedThreads;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.naming.Context;
+import javax.naming.directory.SearchControls;
+import javax.naming.ldap.InitialLdapContext;
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.Configuration;
+import javax.security.auth.login.LoginContext;
+
+import org.apache.directory.api.util.IOUtils;
+import org.junit.Test;
+
+import com.github.kwart.kerberos.KerberosOptions;
+import com.github.kwart.kerberos.KerberosServer;
+import com.github.kwart.kerberos.gss.UsernamePasswordHandler;
+
+public class KerberosServerMetricsTest {
+
+    @Test
+    public void testMetricsPublished() throws Exception {
+        Set<Thread> expectedThreads = Thread.getAllStackTraces().keySet();
+        KerberosOptions ko = new KerberosOptions();
+        ko.setBindAddress("127.0.0.1");
+        ko.setLdapPort(5721);
+        ko.setKerberosPort(5723);
+        ko.setMetricsHttpPort(5724);
+        ko.setCacheSizes(Arrays.asList("dnCache=12345"));
+        ko.setAdditionalRealms(Arrays.asList("OTHER.EXAMPLE:5725"));
+        ko.setIndexedAttributes(Arrays.asList("uid"));
+        ko.setLdapHandlerThreads(2);
+        ko.setKdcHandlerThreads(2);
+        KerberosServer ks = new KerberosServer(ko);
+        ks.start();
+        ObjectName mbeanName = new ObjectName("com.github.kwart.kerberos:type=Metrics,port=5723");
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            Properties env = new Properties();
+            env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+            env.put(Context.PROVIDER_URL, "ldap://127.0.0.1:5721");
+            env.put(Context.SECURITY_AUTHENTICATION, "simple");
+            env.put(Context.SECURITY_PRINCIPAL, "uid=admin,ou=system");
+            env.put(Context.SECURITY_CREDENTIALS, "secret");
+            InitialLdapContext ctx = new InitialLdapContext(env, null);
+            SearchControls searchControls = new SearchControls();
+            searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+            assertTrue(ctx.search("dc=kerberos,dc=example", "(uid=hnelson)", searchControls).hasMore());
+            ctx.close();
+            // the pool threads are created on demand, so the LDAP requests were handled by the configured executor
+            assertTrue(Thread.getAllStackTraces().keySet().stream().anyMatch(t -> t.getName().startsWith("ldap-handler-")));
+
+            kerberosLogin(ko.getKerberosPort(), "hnelson@KERBEROS.EXAMPLE", "secret");
+            kerberosLogin(5725, "jduke@OTHER.EXAMPLE", "theduke");
+
+            String text = httpGet("http://127.0.0.1:5724/metrics");
+            assertTrue(text, text.contains("# TYPE kerberos_ldap_operations_total counter"));
+            assertTrue(text, text.contains("kerberos_ldap_operations_total{operation=\"bind\",result=\"success\"} 1\n"));
+            assertTrue(text, text.contains(
+                    "kerberos_kdc_requests_total{realm=\"KERBEROS.EXAMPLE\",type=\"as\",transport=\"udp\",result=\"OK\"} 1\n"));
+            assertTrue(text, text.contains(
+                    "kerberos_kdc_requests_total{realm=\"OTHER.EXAMPLE\",type=\"as\",transport=\"udp\",result=\"OK\"} 1\n"));
+            assertTrue(text, text.contains(
+                    "kerberos_kdc_request_duration_seconds_count{realm=\"KERBEROS.EXAMPLE\",type=\"as\",transport=\"udp\"} 1\n"));
+            assertTrue(text, text.contains("kerberos_connections{server=\"ldap\",transport=\"tcp\",port=\"5721\"}"));
+            assertTrue(text, text.contains("kerberos_cache_hits_total{cache=\"dnCache\"}"));
+            assertFalse(text, text.contains("kerberos_ldap_searches_total{index=\"used\"} 0\n"));
+            assertEquals(12345L, ks.getDirectoryService().getCacheService().getCache("dnCache").getCacheConfiguration()
+                    .getMaxEntriesLocalHeap());
+
+            assertEquals(1L, mbeanServer.getAttribute(mbeanName,
+                    "kerberos_kdc_requests_total{realm=\"KERBEROS.EXAMPLE\",type=\"as\",transport=\"udp\",result=\"OK\"}"));
+        } finally {
+            ks.stop();
+        }
+        assertFalse(mbeanServer.isRegistered(mbeanName));
+        assertNoLeakedThreads(expectedThreads);
+    }
+
+    private static void kerberosLogin(int kdcPort, String principal, String password) throws Exception {
+        String realm = principal.substring(principal.indexOf('@') + 1);
+        File krb5Conf = File.createTempFile("krb5", ".conf");
+        String oldKrb5Conf = System.getProperty("java.security.krb5.conf");
+        Configuration oldConfiguration = Configuration.getConfiguration();
+        try {
+            Files.write(krb5Conf.toPath(), ("[libdefaults]\n default_realm = " + realm + "\n"
+                    + "[realms]\n " + realm + " = {\n  kdc = 127.0.0.1:" + kdcPort + "\n }\n").getBytes(UTF_8));
+            System.setProperty("java.security.krb5.conf", krb5Conf.getAbsolutePath());
+            Configuration.setConfiguration(new Configuration() {
+                @Override
+                public AppConfigurationEntry[] getAppConfigurationEntry(String name) {
+                    Map<String, String> options = new HashMap<>();
+                    options.put("refreshKrb5Config", "true");
+                    return new AppConfigurationEntry[] { new AppConfigurationEntry(
+                            "com.sun.security.auth.module.Krb5LoginModule",
+                            AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, options) };
+                }
+            });
+            LoginContext lc = new LoginContext("test", new UsernamePasswordHandler(principal, password.toCharArray()));
+            lc.login();
+            lc.logout();
+        } finally {
+            Configuration.setConfiguration(oldConfiguration);
+            if (oldKrb5Conf != null) {
+                System.setProperty("java.security.krb5.conf", oldKrb5Conf);
+            } else {
+                System.clearProperty("java.security.krb5.conf");
+            }
+            krb5Conf.delete();
+        }
+    }
+
+    private static String httpGet(String url) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestProperty("Connection", "close");
+        try (InputStream is = connection.getInputStream()) {
+            assertEquals(200, connection.getResponseCode());
+            return IOUtils.toString(is, UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}